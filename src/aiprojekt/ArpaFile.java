@@ -0,0 +1,467 @@
+package aiprojekt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads and writes models in the ARPA format, and n-gram counts in the count file format, used by other language model tools.
+ * An ARPA file holds the log10 probability of each n-gram and the log10 backoff weight (alpha) of each context.
+ * A count file holds one n-gram per line, followed by a tab and its count.
+ * The files are streamed line by line, so only the model is held in memory.
+ */
+public class ArpaFile {
+	private static final String DATA_HEADER = "\\data\\";
+	private static final String END_MARKER = "\\end\\";
+	private static final String NGRAM_COUNT_PREFIX = "ngram ";
+
+	//The log10 probability written for probabilities that are zero, and read as a missing probability
+	private static final double LOG_ZERO = -99.0;
+
+	public static void main(String[] args) throws IOException {
+		String inputPath = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		String outputPath = args.length > 1 ? args[1] : PreProcessor.WRITE_TO_PATH + "ngrams.arpa";
+
+		long start = System.currentTimeMillis();
+		NGramModel model = new Loader().load(inputPath);
+		if (model == null) {
+			System.err.println("Couldn't load the model at " + inputPath);
+			return;
+		}
+		System.out.println("Loaded " + inputPath + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+
+		//An ARPA file is converted to a mapped model file, and any other model to an ARPA or count file
+		start = System.currentTimeMillis();
+		if (isArpaFile(inputPath)) {
+			MappedModelFile.write(model, outputPath);
+		} else if (outputPath.endsWith(".counts")) {
+			writeCounts(model, outputPath);
+		} else {
+			write(model, outputPath);
+		}
+		System.out.println("Wrote " + outputPath + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+	}
+
+	/**
+	 * Indicates if the file at the given path is an ARPA file
+	 * @param path The path to the file
+	 */
+	public static boolean isArpaFile(String path) {
+		try (InputStream inputStream = new FileInputStream(path)) {
+			byte[] bytes = new byte[64];
+			int length = inputStream.read(bytes);
+			return length > 0 && new String(bytes, 0, length, StandardCharsets.UTF_8).trim().startsWith(DATA_HEADER);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the index of the parent of each node at each level of the tree
+	 * @param tree The tree
+	 */
+	private static int[][] getParents(CompactNGramTree tree) {
+		int[][] parents = new int[tree.numLevels()][];
+		parents[0] = new int[tree.numNodes(0)];
+
+		for (int level = 1; level < tree.numLevels(); level++) {
+			int[] offsets = tree.getChildOffsets(level - 1);
+			parents[level] = new int[tree.numNodes(level)];
+
+			for (int parent = 0; parent < offsets.length - 1; parent++) {
+				for (int i = offsets[parent]; i < offsets[parent + 1]; i++) {
+					parents[level][i] = parent;
+				}
+			}
+		}
+
+		return parents;
+	}
+
+	/**
+	 * Returns the token ids of the n-gram of the given node
+	 * @param tree The tree
+	 * @param parents The parent of each node
+	 * @param level The level of the node
+	 * @param node The index of the node
+	 * @param ids The array for the token ids, which has the length level + 1
+	 */
+	private static int[] getIds(CompactNGramTree tree, int[][] parents, int level, int node, int[] ids) {
+		for (int i = level; i >= 0; i--) {
+			ids[i] = tree.getIds(i)[node];
+			node = parents[i][node];
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Appends the words of the given token ids, separated by spaces
+	 * @param builder The builder
+	 * @param ids The token ids
+	 */
+	private static void appendWords(StringBuilder builder, int[] ids) {
+		Vocabulary vocabulary = Vocabulary.global();
+
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				builder.append(' ');
+			}
+
+			builder.append(vocabulary.getToken(ids[i]).toString());
+		}
+	}
+
+	/**
+	 * Returns the given probability as a log10 probability
+	 * @param probability The probability
+	 */
+	private static String toLog(double probability) {
+		if (!(probability > 0)) {
+			return Double.toString(LOG_ZERO);
+		}
+
+		return Float.toString((float)Math.log10(probability));
+	}
+
+	/**
+	 * Writes the given model to an ARPA file, with the probabilities that are used by the model for prediction
+	 * @param model The model
+	 * @param path The path to the file
+	 */
+	public static void write(NGramModel model, String path) throws IOException {
+		CompactNGramTree tree = model.toCompactTree();
+		ProbabilityCodebook codebook = tree.getCodebook();
+		int[][] parents = getParents(tree);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			writer.write(DATA_HEADER);
+			writer.newLine();
+			for (int level = 0; level < tree.numLevels(); level++) {
+				int numNGrams = 0;
+				for (int count : tree.getCounts(level)) {
+					if (count > 0) {
+						numNGrams++;
+					}
+				}
+
+				writer.write(NGRAM_COUNT_PREFIX + (level + 1) + "=" + numNGrams);
+				writer.newLine();
+			}
+
+			StringBuilder builder = new StringBuilder();
+			for (int level = 0; level < tree.numLevels(); level++) {
+				int[] counts = tree.getCounts(level);
+				char[] probabilities = tree.getProbabilities(level);
+				int[] ids = new int[level + 1];
+				boolean isContext = level < tree.numLevels() - 1;
+
+				writer.newLine();
+				writer.write("\\" + (level + 1) + "-grams:");
+				writer.newLine();
+
+				for (int node = 0; node < counts.length; node++) {
+					if (counts[node] <= 0) {
+						continue;
+					}
+
+					getIds(tree, parents, level, node, ids);
+					builder.setLength(0);
+					builder.append(toLog(codebook.decode(probabilities[node]))).append('\t');
+					appendWords(builder, ids);
+
+					if (isContext) {
+						double alpha = tree.hasAlphas() ? tree.getAlphas(level)[node] : model.getAlpha(NGram.fromIds(ids));
+						builder.append('\t').append(toLog(alpha));
+					}
+
+					builder.append('\n');
+					writer.write(builder.toString());
+				}
+			}
+
+			writer.newLine();
+			writer.write(END_MARKER);
+			writer.newLine();
+		}
+	}
+
+	/**
+	 * Writes the n-grams in the given model with their counts to a count file
+	 * @param model The model
+	 * @param path The path to the file
+	 */
+	public static void writeCounts(NGramModel model, String path) throws IOException {
+		CompactNGramTree tree = model.toCompactTree();
+		int[][] parents = getParents(tree);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+			StringBuilder builder = new StringBuilder();
+
+			for (int level = 0; level < tree.numLevels(); level++) {
+				int[] counts = tree.getCounts(level);
+				int[] ids = new int[level + 1];
+
+				for (int node = 0; node < counts.length; node++) {
+					if (counts[node] <= 0) {
+						continue;
+					}
+
+					builder.setLength(0);
+					appendWords(builder, getIds(tree, parents, level, node, ids));
+					builder.append('\t').append(counts[node]).append('\n');
+					writer.write(builder.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the given line at whitespace
+	 * @param line The line
+	 * @param fields The array for the fields
+	 * @return The number of fields, which is at most the length of the array
+	 */
+	private static int split(String line, String[] fields) {
+		int numFields = 0;
+		int length = line.length();
+		int i = 0;
+
+		while (i < length && numFields < fields.length) {
+			while (i < length && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+
+			int start = i;
+			while (i < length && !Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+
+			if (start < i) {
+				fields[numFields++] = line.substring(start, i);
+			}
+		}
+
+		return numFields;
+	}
+
+	/**
+	 * Packs the n-gram of the given words
+	 * @param fields The fields of a line
+	 * @param start The index of the first word
+	 * @param length The number of words
+	 */
+	private static long pack(String[] fields, int start, int length) {
+		long key = 0;
+		for (int i = 0; i < length; i++) {
+			key = NGramCountTable.packId(key, i, Vocabulary.global().getIdFromString(fields[start + i]));
+		}
+
+		return key;
+	}
+
+	/**
+	 * Loads the model in the given ARPA file.
+	 * The probabilities and backoff weights in the file are used instead of the counts, which are 1 for all n-grams.
+	 * The tree is built from the n-grams of all levels at once, as the n-grams can be in any order in the file.
+	 * @param path The path to the file
+	 * @param indexType The type of search tree used by the loaded model, which is a compact tree unless DOUBLE_ARRAY
+	 */
+	public static NGramModel load(String path, NGramIndexType indexType) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			//Skip everything before the header
+			String line = reader.readLine();
+			while (line != null && !line.trim().equals(DATA_HEADER)) {
+				line = reader.readLine();
+			}
+
+			if (line == null) {
+				throw new IOException("'" + path + "' is not an ARPA file.");
+			}
+
+			//The number of n-grams of each length
+			List<Integer> sizes = new ArrayList<>();
+			while ((line = reader.readLine()) != null && !line.trim().isEmpty()) {
+				line = line.trim();
+				int separator = line.indexOf('=');
+				if (!line.startsWith(NGRAM_COUNT_PREFIX) || separator < 0) {
+					throw new IOException("Invalid n-gram count in the ARPA file: " + line);
+				}
+
+				sizes.add(Integer.parseInt(line.substring(separator + 1).trim()));
+			}
+
+			int maxLength = sizes.size();
+			if (maxLength == 0 || maxLength > NGramCountTable.MAX_LENGTH) {
+				throw new IOException("Only ARPA files with n-grams of length 1 to " + NGramCountTable.MAX_LENGTH + " can be loaded.");
+			}
+
+			//The n-grams are counted by the index of their line in the section, plus one
+			int totalSize = 0;
+			double[][] logProbabilities = new double[maxLength][];
+			double[][] logAlphas = new double[maxLength][];
+			int[] numNGrams = new int[maxLength];
+			for (int i = 0; i < maxLength; i++) {
+				logProbabilities[i] = new double[sizes.get(i)];
+				logAlphas[i] = new double[sizes.get(i)];
+				totalSize += sizes.get(i);
+			}
+
+			NGramCountTable table = new NGramCountTable(totalSize);
+			String[] fields = new String[maxLength + 2];
+			int length = 0;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				if (line.equals(END_MARKER)) {
+					break;
+				}
+
+				if (line.startsWith("\\") && line.endsWith("-grams:")) {
+					length = Integer.parseInt(line.substring(1, line.indexOf('-')));
+					if (length < 1 || length > maxLength) {
+						throw new IOException("Invalid section in the ARPA file: " + line);
+					}
+					continue;
+				}
+
+				int numFields = split(line, fields);
+				if (length == 0 || numFields < length + 1) {
+					throw new IOException("Invalid n-gram in the ARPA file: " + line);
+				}
+
+				long key = pack(fields, 1, length);
+				int index = numNGrams[length - 1];
+				if (table.get(key) > 0 || index == logProbabilities[length - 1].length) {
+					continue;
+				}
+
+				table.add(key, index + 1);
+				logProbabilities[length - 1][index] = Double.parseDouble(fields[0]);
+				logAlphas[length - 1][index] = numFields > length + 1 ? Double.parseDouble(fields[length + 1]) : 0.0;
+				numNGrams[length - 1]++;
+			}
+
+			return createModel(CompactNGramTree.fromTable(table, maxLength), numNGrams, logProbabilities, logAlphas, indexType);
+		}
+	}
+
+	/**
+	 * Creates the model for the n-grams in an ARPA file
+	 * @param indexTree The tree where the count of each n-gram is its index in the file, plus one
+	 * @param numNGrams The number of n-grams of each length
+	 * @param logProbabilities The log10 probability of each n-gram, by length and index
+	 * @param logAlphas The log10 backoff weight of each n-gram, by length and index
+	 * @param indexType The type of search tree used by the model
+	 */
+	private static NGramModel createModel(CompactNGramTree indexTree, int[] numNGrams, double[][] logProbabilities,
+		double[][] logAlphas, NGramIndexType indexType) {
+		int numLevels = indexTree.numLevels();
+		int[][] ids = new int[numLevels][];
+		int[][] counts = new int[numLevels][];
+		int[][] childOffsets = new int[numLevels - 1][];
+		double[][] probabilities = new double[numLevels][];
+		double[][] alphas = new double[numLevels - 1][];
+
+		for (int level = 0; level < numLevels; level++) {
+			int[] indices = indexTree.getCounts(level);
+			ids[level] = indexTree.getIds(level);
+			counts[level] = new int[indices.length];
+			probabilities[level] = new double[indices.length];
+
+			if (level < numLevels - 1) {
+				childOffsets[level] = indexTree.getChildOffsets(level);
+				alphas[level] = new double[indices.length];
+			}
+
+			//The prefixes that aren't in the file have no probability, and the backoff weight 1
+			for (int i = 0; i < indices.length; i++) {
+				int index = indices[i] - 1;
+				double logProbability = index >= 0 ? logProbabilities[level][index] : LOG_ZERO;
+
+				counts[level][i] = index >= 0 ? 1 : 0;
+				probabilities[level][i] = logProbability > LOG_ZERO ? Math.pow(10, logProbability) : Double.NaN;
+
+				if (level < numLevels - 1) {
+					alphas[level][i] = index >= 0 ? Math.pow(10, logAlphas[level][index]) : 1.0;
+				}
+			}
+		}
+
+		ProbabilityCodebook codebook = ProbabilityCodebook.fit(probabilities);
+		CompactNGramTree tree = new CompactNGramTree(ids, counts, childOffsets, alphas, codebook, codebook.encode(probabilities));
+		NGramIndex index = indexType == NGramIndexType.DOUBLE_ARRAY ? DoubleArrayNGramTree.fromTree(tree) : tree;
+		NGramModel model = new NGramModel(index, numNGrams, numNGrams);
+		model.setPseudoCounts();
+
+		//The top unigrams are the most probable words
+		final double[] unigramProbabilities = probabilities[0];
+		List<Integer> unigrams = new ArrayList<>();
+		for (int i = 0; i < ids[0].length; i++) {
+			int id = ids[0][i];
+			if (counts[0][i] > 0 && id != Vocabulary.START_OF_SENTENCE_ID && id != Vocabulary.END_OF_SENTENCE_ID) {
+				unigrams.add(i);
+			}
+		}
+
+		Collections.sort(unigrams, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(unigramProbabilities[b], unigramProbabilities[a]);
+			}
+		});
+
+		for (int i = 0; i < Math.min(model.topUnigramsCount(), unigrams.size()); i++) {
+			model.topUnigrams().add(NGram.fromId(ids[0][unigrams.get(i)]));
+		}
+
+		return model;
+	}
+
+	/**
+	 * Loads the n-gram counts in the given count file, and estimates a model from them
+	 * @param path The path to the file
+	 * @param maxLength The maximum length of a n-gram, where longer n-grams are skipped
+	 */
+	public static NGramModel loadCounts(String path, int maxLength) throws IOException {
+		NGramCountTable table = new NGramCountTable();
+		String[] fields = new String[16];
+
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int numFields = split(line, fields);
+				if (numFields == 0) {
+					continue;
+				}
+
+				int length = numFields - 1;
+				if (length < 1) {
+					throw new IOException("Invalid n-gram in the count file: " + line);
+				}
+
+				if (length <= maxLength) {
+					table.add(pack(fields, 0, length), Integer.parseInt(fields[length]));
+				}
+			}
+		}
+
+		NGramModel model = new NGramModel(maxLength);
+		model.addNGrams(table);
+		model.end(false, true);
+		return model;
+	}
+}
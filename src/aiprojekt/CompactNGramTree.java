@@ -0,0 +1,645 @@
+package aiprojekt;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Represents an immutable n-gram search tree stored in compressed sparse row form.
+ * Each level of the tree is stored as parallel arrays of token ids and counts, where the children
+ * of a node are stored consecutively in the next level, sorted by token id.
+ * Lookups are made by binary search inside each node.
+ */
+public class CompactNGramTree implements NGramIndex {
+	//The number of bits per token id in the keys used to sort n-grams
+	private static final int SORT_KEY_BITS = 21;
+	private static final long SORT_KEY_MASK = (1L << SORT_KEY_BITS) - 1;
+
+	//The token ids and counts of the nodes at each level, where level 0 holds the unigrams
+	private final int[][] ids;
+	private final int[][] counts;
+
+	//The children of node i at level k are at [childOffsets[k][i], childOffsets[k][i + 1]) in level k + 1
+	private final int[][] childOffsets;
+
+	//The backoff weights of the nodes at each level except the last, or null if they aren't computed
+	private final double[][] alphas;
+
+	//The quantized probability of each node given its parent, or null if they aren't computed
+	private final ProbabilityCodebook codebook;
+	private final char[][] probabilities;
+
+	//The positions of the nodes at each level, where the children of each node are sorted by count.
+	//They are computed when the continuations of the level are first needed.
+	private final AtomicReferenceArray<IntBuffer> countOrders;
+
+	//The ids and counts of each level as buffers, which the continuations are views of
+	private final IntBuffer[] idBuffers;
+	private final IntBuffer[] countBuffers;
+
+	/**
+	 * Creates a new compact tree from the given level arrays
+	 * @param ids The token ids for each level
+	 * @param counts The counts for each level
+	 * @param childOffsets The child offsets for each level except the last
+	 * @param alphas The backoff weights for each level except the last, or null
+	 * @param codebook The codebook of the probabilities, or null
+	 * @param probabilities The quantized probabilities for each level, or null
+	 */
+	public CompactNGramTree(int[][] ids, int[][] counts, int[][] childOffsets, double[][] alphas,
+		ProbabilityCodebook codebook, char[][] probabilities) {
+		this.ids = ids;
+		this.counts = counts;
+		this.childOffsets = childOffsets;
+		this.alphas = alphas;
+		this.codebook = codebook;
+		this.probabilities = probabilities;
+		this.countOrders = new AtomicReferenceArray<>(ids.length);
+
+		this.idBuffers = new IntBuffer[ids.length];
+		this.countBuffers = new IntBuffer[ids.length];
+		for (int level = 0; level < ids.length; level++) {
+			this.idBuffers[level] = IntBuffer.wrap(ids[level]);
+			this.countBuffers[level] = IntBuffer.wrap(counts[level]);
+		}
+	}
+
+	/**
+	 * Creates a new compact tree from the given level arrays
+	 * @param ids The token ids for each level
+	 * @param counts The counts for each level
+	 * @param childOffsets The child offsets for each level except the last
+	 * @param alphas The backoff weights for each level except the last, or null
+	 */
+	public CompactNGramTree(int[][] ids, int[][] counts, int[][] childOffsets, double[][] alphas) {
+		this(ids, counts, childOffsets, alphas, null, null);
+	}
+
+	/**
+	 * Creates a new compact tree from the given level arrays
+	 * @param ids The token ids for each level
+	 * @param counts The counts for each level
+	 * @param childOffsets The child offsets for each level except the last
+	 */
+	public CompactNGramTree(int[][] ids, int[][] counts, int[][] childOffsets) {
+		this(ids, counts, childOffsets, null);
+	}
+
+	/**
+	 * Returns a tree with the same n-grams and the given backoff weights
+	 * @param alphas The backoff weights for each level except the last
+	 */
+	public CompactNGramTree withAlphas(double[][] alphas) {
+		return new CompactNGramTree(this.ids, this.counts, this.childOffsets, alphas, this.codebook, this.probabilities);
+	}
+
+	/**
+	 * Returns a tree with the same n-grams and the given quantized probabilities
+	 * @param codebook The codebook of the probabilities
+	 * @param probabilities The quantized probabilities for each level
+	 */
+	public CompactNGramTree withProbabilities(ProbabilityCodebook codebook, char[][] probabilities) {
+		return new CompactNGramTree(this.ids, this.counts, this.childOffsets, this.alphas, codebook, probabilities);
+	}
+
+	/**
+	 * Indicates if the tree has backoff weights
+	 */
+	public boolean hasAlphas() {
+		return this.alphas != null;
+	}
+
+	/**
+	 * Indicates if the tree has quantized probabilities
+	 */
+	public boolean hasProbabilities() {
+		return this.probabilities != null;
+	}
+
+	/**
+	 * Returns the number of levels in the tree
+	 */
+	public int numLevels() {
+		return this.ids.length;
+	}
+
+	/**
+	 * Returns the number of nodes at the given level
+	 * @param level The level
+	 */
+	public int numNodes(int level) {
+		return this.ids[level].length;
+	}
+
+	/**
+	 * Returns the token ids of the nodes at the given level
+	 * @param level The level
+	 */
+	int[] getIds(int level) {
+		return this.ids[level];
+	}
+
+	/**
+	 * Returns the counts of the nodes at the given level
+	 * @param level The level
+	 */
+	int[] getCounts(int level) {
+		return this.counts[level];
+	}
+
+	/**
+	 * Returns the child offsets of the nodes at the given level
+	 * @param level The level, which can't be the last
+	 */
+	int[] getChildOffsets(int level) {
+		return this.childOffsets[level];
+	}
+
+	/**
+	 * Returns the backoff weights of the nodes at the given level
+	 * @param level The level, which can't be the last
+	 */
+	double[] getAlphas(int level) {
+		return this.alphas[level];
+	}
+
+	/**
+	 * Returns the codebook of the quantized probabilities
+	 */
+	ProbabilityCodebook getCodebook() {
+		return this.codebook;
+	}
+
+	/**
+	 * Returns the quantized probabilities of the nodes at the given level
+	 * @param level The level
+	 */
+	char[] getProbabilities(int level) {
+		return this.probabilities[level];
+	}
+
+	/**
+	 * Returns the index of the child with the given token id of the given node, or -1 if it doesn't exist
+	 * @param level The level of the node, where -1 is the root
+	 * @param node The index of the node
+	 * @param id The token id
+	 */
+	int findChild(int level, int node, int id) {
+		int start = 0;
+		int end = this.ids[0].length;
+
+		if (level >= 0) {
+			start = this.childOffsets[level][node];
+			end = this.childOffsets[level][node + 1];
+		}
+
+		int index = Arrays.binarySearch(this.ids[level + 1], start, end, id);
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the tree
+	 */
+	public long memoryUsage() {
+		long bytes = 0;
+
+		if (this.alphas != null) {
+			for (double[] levelAlphas : this.alphas) {
+				bytes += 8L * levelAlphas.length;
+			}
+		}
+
+		if (this.probabilities != null) {
+			for (char[] levelProbabilities : this.probabilities) {
+				bytes += 2L * levelProbabilities.length;
+			}
+		}
+
+		for (int level = 0; level < this.numLevels(); level++) {
+			bytes += 4L * this.ids[level].length + 4L * this.counts[level].length;
+			if (level < this.childOffsets.length) {
+				bytes += 4L * this.childOffsets[level].length;
+			}
+
+			if (this.countOrders.get(level) != null) {
+				bytes += 4L * this.countOrders.get(level).capacity();
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the index of the node for the n-gram made of the tokens of the given context from the given offset,
+	 * followed by the given token, or -1 if it doesn't exist. The node is at the level of the length of the n-gram - 1.
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 */
+	private int findNode(NGram context, int offset, int id) {
+		int length = context.length() - offset + (id < 0 ? 0 : 1);
+		if (length == 0 || length > this.numLevels()) {
+			return -1;
+		}
+
+		int start = 0;
+		int end = this.ids[0].length;
+		int index = -1;
+
+		for (int level = 0; level < length; level++) {
+			int currentId = offset + level < context.length() ? context.idAt(offset + level) : id;
+			index = Arrays.binarySearch(this.ids[level], start, end, currentId);
+			if (index < 0) {
+				return -1;
+			}
+
+			if (level + 1 < length) {
+				start = this.childOffsets[level][index];
+				end = this.childOffsets[level][index + 1];
+			}
+		}
+
+		return index;
+	}
+
+	@Override
+	public int find(NGram ngram) {
+		return this.find(ngram, 0, -1);
+	}
+
+	@Override
+	public int find(NGram context, int offset, int id) {
+		int index = this.findNode(context, offset, id);
+		if (index >= 0) {
+			return this.counts[context.length() - offset - (id < 0 ? 1 : 0)][index];
+		}
+
+		return 0;
+	}
+
+	@Override
+	public List<NGramTree.Result> findResults(final NGram ngram) {
+		final List<NGramTree.Result> results = new ArrayList<>();
+		this.forEachContinuation(ngram, new OnContinuationAction() {
+			@Override
+			public void execute(int id, int count) {
+				results.add(new NGramTree.Result(ngram.append(id), count));
+			}
+		});
+
+		return results;
+	}
+
+	@Override
+	public void forEachContinuation(NGram ngram, OnContinuationAction action) {
+		this.forEachContinuation(ngram, 0, action);
+	}
+
+	@Override
+	public void forEachContinuation(NGram context, int offset, OnContinuationAction action) {
+		int level = context.length() - offset;
+		if (level >= this.numLevels()) {
+			return;
+		}
+
+		int start = 0;
+		int end = this.ids[0].length;
+
+		if (level > 0) {
+			int index = this.findNode(context, offset, -1);
+			if (index < 0) {
+				return;
+			}
+
+			start = this.childOffsets[level - 1][index];
+			end = this.childOffsets[level - 1][index + 1];
+		}
+
+		for (int i = start; i < end; i++) {
+			if (this.counts[level][i] > 0) {
+				action.execute(this.ids[level][i], this.counts[level][i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the positions of the nodes at the given level, where the children of each node are sorted by count
+	 * @param level The level
+	 */
+	int[] getCountOrder(int level) {
+		return this.countOrder(level).array();
+	}
+
+	/**
+	 * Returns the positions of the nodes at the given level as a buffer, computing them if they aren't computed
+	 * @param level The level
+	 */
+	private IntBuffer countOrder(int level) {
+		IntBuffer order = this.countOrders.get(level);
+		if (order == null) {
+			order = IntBuffer.wrap(Continuations.sortByCount(
+				this.countBuffers[level],
+				level > 0 ? IntBuffer.wrap(this.childOffsets[level - 1]) : null));
+			this.countOrders.compareAndSet(level, null, order);
+		}
+
+		return order;
+	}
+
+	@Override
+	public Continuations findContinuations(NGram ngram) {
+		int level = ngram.length();
+		if (level >= this.numLevels()) {
+			return Continuations.EMPTY;
+		}
+
+		int start = 0;
+		int end = this.ids[0].length;
+
+		if (level > 0) {
+			int index = this.findNode(ngram, 0, -1);
+			if (index < 0) {
+				return Continuations.EMPTY;
+			}
+
+			start = this.childOffsets[level - 1][index];
+			end = this.childOffsets[level - 1][index + 1];
+		}
+
+		return new Continuations(this.idBuffers[level], this.countBuffers[level], this.countOrder(level), start, end, null);
+	}
+
+	@Override
+	public boolean hasPrecomputedValues() {
+		return this.hasAlphas() && this.hasProbabilities();
+	}
+
+	@Override
+	public double findAlpha(NGram context) {
+		return this.findAlpha(context, 0);
+	}
+
+	@Override
+	public double findAlpha(NGram context, int offset) {
+		int level = context.length() - offset - 1;
+		if (this.alphas == null || level < 0 || level >= this.alphas.length) {
+			return Double.NaN;
+		}
+
+		int index = this.findNode(context, offset, -1);
+		return index >= 0 ? this.alphas[level][index] : Double.NaN;
+	}
+
+	@Override
+	public double findProbability(NGram ngram) {
+		return this.findProbability(ngram, 0, -1);
+	}
+
+	@Override
+	public double findProbability(NGram context, int offset, int id) {
+		if (this.probabilities == null) {
+			return Double.NaN;
+		}
+
+		int index = this.findNode(context, offset, id);
+		int level = context.length() - offset - (id < 0 ? 1 : 0);
+		return index >= 0 ? this.codebook.decode(this.probabilities[level][index]) : Double.NaN;
+	}
+
+	/**
+	 * Creates a compact tree from the given tree
+	 * @param tree The tree
+	 * @param numLevels The number of levels, which is the maximum length of a n-gram
+	 */
+	public static CompactNGramTree fromTree(NGramTree tree, int numLevels) {
+		Comparator<NGramTree> byId = new Comparator<NGramTree>() {
+			@Override
+			public int compare(NGramTree x, NGramTree y) {
+				return Integer.compare(x.getId(), y.getId());
+			}
+		};
+
+		int[][] ids = new int[numLevels][];
+		int[][] counts = new int[numLevels][];
+		int[][] childOffsets = new int[numLevels - 1][];
+
+		//Breadth-first, where the children of each node are sorted by id
+		List<NGramTree> current = new ArrayList<>(tree.getChildren());
+		Collections.sort(current, byId);
+
+		for (int level = 0; level < numLevels; level++) {
+			ids[level] = new int[current.size()];
+			counts[level] = new int[current.size()];
+
+			boolean isLast = level == numLevels - 1;
+			List<NGramTree> next = new ArrayList<>();
+			if (!isLast) {
+				childOffsets[level] = new int[current.size() + 1];
+			}
+
+			for (int i = 0; i < current.size(); i++) {
+				NGramTree node = current.get(i);
+				ids[level][i] = node.getId();
+				counts[level][i] = node.getCount();
+
+				if (!isLast) {
+					childOffsets[level][i] = next.size();
+					int childStart = next.size();
+					next.addAll(node.getChildren());
+					Collections.sort(next.subList(childStart, next.size()), byId);
+				}
+			}
+
+			if (!isLast) {
+				childOffsets[level][current.size()] = next.size();
+			}
+
+			current = next;
+		}
+
+		return new CompactNGramTree(ids, counts, childOffsets);
+	}
+
+	/**
+	 * Returns a key for the given packed n-gram that sorts the n-grams of the same length by their ids
+	 * @param key The packed n-gram
+	 * @param length The length of the n-gram
+	 */
+	private static long sortKey(long key, int length) {
+		long sortKey = 0;
+		for (int i = 0; i < length; i++) {
+			sortKey = (sortKey << SORT_KEY_BITS) | NGramCountTable.idAt(key, i);
+		}
+
+		return sortKey;
+	}
+
+	/**
+	 * Returns the packed n-gram for the given sort key
+	 * @param sortKey The sort key
+	 * @param length The length of the n-gram
+	 */
+	private static long packedKey(long sortKey, int length) {
+		long key = 0;
+		for (int i = 0; i < length; i++) {
+			int shift = (length - 1 - i) * SORT_KEY_BITS;
+			key = NGramCountTable.packId(key, i, (int)((sortKey >>> shift) & SORT_KEY_MASK));
+		}
+
+		return key;
+	}
+
+	/**
+	 * Creates a compact tree from the given count table.
+	 * A n-gram whose prefix isn't in the table gets a node for the prefix with count 0.
+	 * @param table The count table
+	 * @param numLevels The number of levels, which is the maximum length of a n-gram
+	 */
+	public static CompactNGramTree fromTable(final NGramCountTable table, final int numLevels) {
+		final int[] sizes = new int[numLevels];
+		table.forEach(new NGramCountTable.OnEntryAction() {
+			@Override
+			public void execute(long key, int count) {
+				int length = NGramCountTable.length(key);
+				if (length <= numLevels) {
+					sizes[length - 1]++;
+				}
+			}
+		});
+
+		final long[][] sortKeys = new long[numLevels][];
+		for (int level = 0; level < numLevels; level++) {
+			sortKeys[level] = new long[sizes[level]];
+			sizes[level] = 0;
+		}
+
+		table.forEach(new NGramCountTable.OnEntryAction() {
+			@Override
+			public void execute(long key, int count) {
+				int length = NGramCountTable.length(key);
+				if (length <= numLevels) {
+					sortKeys[length - 1][sizes[length - 1]++] = sortKey(key, length);
+				}
+			}
+		});
+
+		//Sort the levels from the last, adding the missing prefixes to the level above
+		for (int level = numLevels - 1; level >= 0; level--) {
+			Arrays.sort(sortKeys[level]);
+
+			if (level > 0) {
+				long[] prefixes = new long[sortKeys[level].length];
+				int numPrefixes = 0;
+				for (long sortKey : sortKeys[level]) {
+					long prefix = sortKey >>> SORT_KEY_BITS;
+					if (numPrefixes == 0 || prefixes[numPrefixes - 1] != prefix) {
+						prefixes[numPrefixes++] = prefix;
+					}
+				}
+
+				long[] parents = sortKeys[level - 1];
+				Arrays.sort(parents);
+				long[] missing = new long[numPrefixes];
+				int numMissing = 0;
+				for (int i = 0; i < numPrefixes; i++) {
+					if (Arrays.binarySearch(parents, prefixes[i]) < 0) {
+						missing[numMissing++] = prefixes[i];
+					}
+				}
+
+				if (numMissing > 0) {
+					long[] merged = Arrays.copyOf(parents, parents.length + numMissing);
+					System.arraycopy(missing, 0, merged, parents.length, numMissing);
+					sortKeys[level - 1] = merged;
+				}
+			}
+		}
+
+		int[][] ids = new int[numLevels][];
+		int[][] counts = new int[numLevels][];
+		int[][] childOffsets = new int[numLevels - 1][];
+
+		for (int level = 0; level < numLevels; level++) {
+			long[] levelKeys = sortKeys[level];
+			ids[level] = new int[levelKeys.length];
+			counts[level] = new int[levelKeys.length];
+
+			for (int i = 0; i < levelKeys.length; i++) {
+				ids[level][i] = (int)(levelKeys[i] & SORT_KEY_MASK);
+				counts[level][i] = table.get(packedKey(levelKeys[i], level + 1));
+			}
+
+			//The children of each node are the n-grams in the next level that have the node as prefix
+			if (level < numLevels - 1) {
+				long[] childKeys = sortKeys[level + 1];
+				childOffsets[level] = new int[levelKeys.length + 1];
+				int child = 0;
+
+				for (int i = 0; i < levelKeys.length; i++) {
+					childOffsets[level][i] = child;
+					while (child < childKeys.length && (childKeys[child] >>> SORT_KEY_BITS) == levelKeys[i]) {
+						child++;
+					}
+				}
+
+				childOffsets[level][levelKeys.length] = child;
+			}
+		}
+
+		return new CompactNGramTree(ids, counts, childOffsets);
+	}
+
+	/**
+	 * Concatenates the given trees into one tree, without backoff weights and probabilities.
+	 * The unigram ids of each tree must be greater than the unigram ids of the previous trees.
+	 * @param trees The trees, which have the same number of levels
+	 */
+	public static CompactNGramTree concat(CompactNGramTree... trees) {
+		int numLevels = trees[0].numLevels();
+		int[][] ids = new int[numLevels][];
+		int[][] counts = new int[numLevels][];
+		int[][] childOffsets = new int[numLevels - 1][];
+
+		for (int level = 0; level < numLevels; level++) {
+			int numNodes = 0;
+			for (CompactNGramTree tree : trees) {
+				numNodes += tree.numNodes(level);
+			}
+
+			ids[level] = new int[numNodes];
+			counts[level] = new int[numNodes];
+			if (level < numLevels - 1) {
+				childOffsets[level] = new int[numNodes + 1];
+			}
+
+			int start = 0;
+			int childStart = 0;
+			for (CompactNGramTree tree : trees) {
+				int treeNodes = tree.numNodes(level);
+				System.arraycopy(tree.ids[level], 0, ids[level], start, treeNodes);
+				System.arraycopy(tree.counts[level], 0, counts[level], start, treeNodes);
+
+				//The child offsets are shifted by the number of children in the previous trees
+				if (level < numLevels - 1) {
+					for (int i = 0; i < treeNodes; i++) {
+						childOffsets[level][start + i] = tree.childOffsets[level][i] + childStart;
+					}
+
+					childStart += tree.numNodes(level + 1);
+				}
+
+				start += treeNodes;
+			}
+
+			if (level < numLevels - 1) {
+				childOffsets[level][numNodes] = childStart;
+			}
+		}
+
+		return new CompactNGramTree(ids, counts, childOffsets);
+	}
+}
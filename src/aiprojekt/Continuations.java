@@ -0,0 +1,173 @@
+package aiprojekt;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents the continuations of a n-gram, which are the tokens that follow it in the seen (n+1)-grams,
+ * sorted by count with the most frequent first. Continuations with the same count are sorted by token id.
+ * The continuations can be a view of the nodes of a tree level, so they aren't copied.
+ */
+public class Continuations {
+	/**
+	 * No continuations
+	 */
+	public static final Continuations EMPTY = new Continuations(new int[0], new int[0], 0);
+
+	//The token ids and counts, where the continuations are at [start, start + size) in the count order
+	private final IntBuffer ids;
+	private final IntBuffer counts;
+	private final int start;
+	private final int size;
+
+	//The positions of the continuations in the ids and counts sorted by count, or null if they are sorted
+	private final IntBuffer order;
+
+	//The translation of the ids in a model file, or null if they are the ids in the vocabulary
+	private final FileIdMapping mapping;
+
+	/**
+	 * Creates new continuations
+	 * @param ids The token ids, sorted by count
+	 * @param counts The counts
+	 * @param size The number of continuations
+	 */
+	public Continuations(int[] ids, int[] counts, int size) {
+		this(IntBuffer.wrap(ids), IntBuffer.wrap(counts), null, 0, size, null);
+	}
+
+	/**
+	 * Creates a view of the given nodes of a tree level
+	 * @param ids The token ids of the level
+	 * @param counts The counts of the level
+	 * @param order The positions of the nodes of the level sorted by count for each parent, or null if the
+	 * nodes are sorted by count
+	 * @param start The start of the continuations in the count order
+	 * @param end The end of the continuations in the count order
+	 * @param mapping The translation of the ids in a model file, or null
+	 */
+	Continuations(IntBuffer ids, IntBuffer counts, IntBuffer order, int start, int end, FileIdMapping mapping) {
+		this.ids = ids;
+		this.counts = counts;
+		this.order = order;
+		this.start = start;
+		this.mapping = mapping;
+
+		//The nodes with count 0, which are prefixes of longer n-grams, are last in the count order
+		int size = end - start;
+		while (size > 0 && counts.get(this.position(size - 1)) == 0) {
+			size--;
+		}
+
+		this.size = size;
+	}
+
+	/**
+	 * Returns the position of the given continuation in the ids and counts
+	 * @param index The index of the continuation
+	 */
+	private int position(int index) {
+		return this.order == null ? this.start + index : this.order.get(this.start + index);
+	}
+
+	/**
+	 * Returns the number of continuations
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the token id of the given continuation
+	 * @param index The index of the continuation
+	 */
+	public int idAt(int index) {
+		int id = this.ids.get(this.position(index));
+		return this.mapping == null ? id : this.mapping.toId(id);
+	}
+
+	/**
+	 * Returns the count of the given continuation
+	 * @param index The index of the continuation
+	 */
+	public int countAt(int index) {
+		return this.counts.get(this.position(index));
+	}
+
+	/**
+	 * Returns the key that sorts by count, with the largest count first, and then by the given position or id
+	 * @param count The count
+	 * @param position The position or id, which can't be negative
+	 */
+	private static long sortKey(int count, int position) {
+		return ((long)(Integer.MAX_VALUE - count) << 32) | position;
+	}
+
+	/**
+	 * Returns the continuations of the given results, which are (n+1)-grams that start with the same n-gram
+	 * @param results The results
+	 */
+	public static Continuations fromResults(List<NGramTree.Result> results) {
+		int[] ids = new int[results.size()];
+		int[] counts = new int[results.size()];
+		for (int i = 0; i < ids.length; i++) {
+			NGramTree.Result result = results.get(i);
+			ids[i] = result.getNgram().lastId();
+			counts[i] = result.getCount();
+		}
+
+		return sort(ids, counts, ids.length);
+	}
+
+	/**
+	 * Returns the continuations with the given unsorted token ids and counts, which are sorted in place
+	 * @param ids The token ids
+	 * @param counts The counts
+	 * @param size The number of continuations
+	 */
+	static Continuations sort(int[] ids, int[] counts, int size) {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = sortKey(counts[i], ids[i]);
+		}
+
+		Arrays.sort(keys);
+
+		for (int i = 0; i < size; i++) {
+			ids[i] = (int)keys[i];
+			counts[i] = Integer.MAX_VALUE - (int)(keys[i] >>> 32);
+		}
+
+		return new Continuations(ids, counts, size);
+	}
+
+	/**
+	 * Returns the positions of the nodes at a level of a tree, where the children of each node are sorted by count.
+	 * The children of a node must be stored consecutively, sorted by id.
+	 * @param counts The counts of the nodes at the level
+	 * @param parentOffsets The child offsets of the level above, or null if it is the first level
+	 */
+	static int[] sortByCount(IntBuffer counts, IntBuffer parentOffsets) {
+		int numNodes = counts.limit();
+		long[] keys = new long[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			keys[i] = sortKey(counts.get(i), i);
+		}
+
+		if (parentOffsets == null) {
+			Arrays.sort(keys);
+		} else {
+			for (int parent = 0; parent + 1 < parentOffsets.limit(); parent++) {
+				Arrays.sort(keys, parentOffsets.get(parent), parentOffsets.get(parent + 1));
+			}
+		}
+
+		int[] order = new int[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			order[i] = (int)keys[i];
+		}
+
+		return order;
+	}
+}
@@ -0,0 +1,559 @@
+package aiprojekt;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents an immutable n-gram search tree stored as a double-array trie.
+ * A transition from state s with token code c goes to state t = base[s] + c + 1, which is valid if check[t] == s.
+ * This makes each transition a constant number of array reads.
+ * The code of a token is its rank by unigram count, which keeps the children of a state close together,
+ * as most continuations are frequent words.
+ */
+public class DoubleArrayNGramTree implements NGramIndex {
+	private static final int ROOT_STATE = 0;
+	private static final int FREE = -1;
+	private static final int NO_BASE = -1;
+
+	private final int[] codes;
+	private final int[] base;
+	private final int[] check;
+	private final int[] counts;
+
+	//The children of state s are childIds[level][childStart[s]..childEnd[s]), where level is the depth of s,
+	//sorted by count as they are returned by findContinuations
+	private final int[] childStart;
+	private final int[] childEnd;
+	private final IntBuffer[] childIds;
+	private final IntBuffer[] childCounts;
+
+	//The backoff weight of each state, or null if they aren't computed
+	private final double[] alphas;
+
+	//The quantized probability of each state, or null if they aren't computed
+	private final ProbabilityCodebook codebook;
+	private final char[] probabilities;
+
+	/**
+	 * Creates a new double-array tree
+	 * @param codes The code for each token id
+	 * @param base The base array
+	 * @param check The check array
+	 * @param counts The counts for each state
+	 * @param childStart The start of the children of each state
+	 * @param childEnd The end of the children of each state
+	 * @param childIds The child token ids for each level, where the children of each state are sorted by count
+	 * @param childCounts The child counts for each level
+	 * @param alphas The backoff weight of each state, or null
+	 * @param codebook The codebook of the probabilities, or null
+	 * @param probabilities The quantized probability of each state, or null
+	 */
+	private DoubleArrayNGramTree(int[] codes, int[] base, int[] check, int[] counts, int[] childStart, int[] childEnd,
+		int[][] childIds, int[][] childCounts, double[] alphas, ProbabilityCodebook codebook, char[] probabilities) {
+		this.codes = codes;
+		this.base = base;
+		this.check = check;
+		this.counts = counts;
+		this.childStart = childStart;
+		this.childEnd = childEnd;
+		this.childIds = new IntBuffer[childIds.length];
+		this.childCounts = new IntBuffer[childCounts.length];
+		for (int level = 0; level < childIds.length; level++) {
+			this.childIds[level] = IntBuffer.wrap(childIds[level]);
+			this.childCounts[level] = IntBuffer.wrap(childCounts[level]);
+		}
+
+		this.alphas = alphas;
+		this.codebook = codebook;
+		this.probabilities = probabilities;
+	}
+
+	/**
+	 * Returns the number of levels in the tree
+	 */
+	public int numLevels() {
+		return this.childIds.length;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the tree
+	 */
+	public long memoryUsage() {
+		long bytes = 5L * 4L * this.base.length + 4L * this.codes.length;
+
+		if (this.alphas != null) {
+			bytes += 8L * this.alphas.length;
+		}
+
+		if (this.probabilities != null) {
+			bytes += 2L * this.probabilities.length;
+		}
+
+		for (int level = 0; level < this.numLevels(); level++) {
+			bytes += 4L * this.childIds[level].capacity() + 4L * this.childCounts[level].capacity();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the state after the transition from the given state with the given token id, or -1 if there is none
+	 * @param state The state
+	 * @param id The token id
+	 */
+	private int transition(int state, int id) {
+		int stateBase = this.base[state];
+		if (stateBase == NO_BASE || id < 0 || id >= this.codes.length || this.codes[id] == -1) {
+			return -1;
+		}
+
+		int next = stateBase + this.codes[id] + 1;
+		if (next < this.check.length && this.check[next] == state) {
+			return next;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the state for the n-gram made of the tokens of the given context from the given offset,
+	 * followed by the given token, or -1 if it doesn't exist
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 */
+	private int findState(NGram context, int offset, int id) {
+		if (context.length() - offset + (id < 0 ? 0 : 1) > this.numLevels()) {
+			return -1;
+		}
+
+		int state = ROOT_STATE;
+		for (int i = offset; i < context.length() && state != -1; i++) {
+			state = this.transition(state, context.idAt(i));
+		}
+
+		if (id >= 0 && state != -1) {
+			state = this.transition(state, id);
+		}
+
+		return state;
+	}
+
+	@Override
+	public int find(NGram ngram) {
+		return this.find(ngram, 0, -1);
+	}
+
+	@Override
+	public int find(NGram context, int offset, int id) {
+		if (context.length() == offset && id < 0) {
+			return 0;
+		}
+
+		int state = this.findState(context, offset, id);
+		if (state != -1) {
+			return this.counts[state];
+		}
+
+		return 0;
+	}
+
+	@Override
+	public List<NGramTree.Result> findResults(final NGram ngram) {
+		final List<NGramTree.Result> results = new ArrayList<>();
+		this.forEachContinuation(ngram, new OnContinuationAction() {
+			@Override
+			public void execute(int id, int count) {
+				results.add(new NGramTree.Result(ngram.append(id), count));
+			}
+		});
+
+		return results;
+	}
+
+	@Override
+	public void forEachContinuation(NGram ngram, OnContinuationAction action) {
+		this.forEachContinuation(ngram, 0, action);
+	}
+
+	@Override
+	public void forEachContinuation(NGram context, int offset, OnContinuationAction action) {
+		int level = context.length() - offset;
+		if (level >= this.numLevels()) {
+			return;
+		}
+
+		int state = this.findState(context, offset, -1);
+		if (state == -1 || this.base[state] == NO_BASE) {
+			return;
+		}
+
+		IntBuffer ids = this.childIds[level];
+		IntBuffer counts = this.childCounts[level];
+		for (int i = this.childStart[state]; i < this.childEnd[state]; i++) {
+			int count = counts.get(i);
+			if (count > 0) {
+				action.execute(ids.get(i), count);
+			}
+		}
+	}
+
+	@Override
+	public Continuations findContinuations(NGram ngram) {
+		int level = ngram.length();
+		if (level >= this.numLevels()) {
+			return Continuations.EMPTY;
+		}
+
+		int state = this.findState(ngram, 0, -1);
+		if (state == -1 || this.base[state] == NO_BASE) {
+			return Continuations.EMPTY;
+		}
+
+		return new Continuations(this.childIds[level], this.childCounts[level], null,
+			this.childStart[state], this.childEnd[state], null);
+	}
+
+	@Override
+	public boolean hasPrecomputedValues() {
+		//A tree with one level has no contexts, and no backoff weights
+		return this.probabilities != null && (this.alphas != null || this.numLevels() == 1);
+	}
+
+	@Override
+	public double findAlpha(NGram context) {
+		return this.findAlpha(context, 0);
+	}
+
+	@Override
+	public double findAlpha(NGram context, int offset) {
+		int length = context.length() - offset;
+		if (this.alphas == null || length == 0 || length >= this.numLevels()) {
+			return Double.NaN;
+		}
+
+		int state = this.findState(context, offset, -1);
+		return state != -1 ? this.alphas[state] : Double.NaN;
+	}
+
+	@Override
+	public double findProbability(NGram ngram) {
+		return this.findProbability(ngram, 0, -1);
+	}
+
+	@Override
+	public double findProbability(NGram context, int offset, int id) {
+		if (this.probabilities == null || (context.length() == offset && id < 0)) {
+			return Double.NaN;
+		}
+
+		int state = this.findState(context, offset, id);
+		return state != -1 ? this.codebook.decode(this.probabilities[state]) : Double.NaN;
+	}
+
+	/**
+	 * Builds the double arrays
+	 */
+	private static class Builder {
+		private int[] base;
+		private int[] check;
+		private int[] counts;
+		private int[] childStart;
+		private int[] childEnd;
+		private int size = 1;
+
+		private final int[] codes;
+		private int[] childCodes = new int[16];
+
+		//Where the search for a base of a state with multiple children starts
+		private int multipleChildrenStart = 0;
+		private static final int MAX_ATTEMPTS = 16;
+
+		//For each position, a link towards the next free position, where a free position links to itself
+		private int[] nextFree;
+
+		/**
+		 * Creates a new builder
+		 * @param codes The code for each token id
+		 * @param capacity The initial capacity
+		 */
+		public Builder(int[] codes, int capacity) {
+			this.codes = codes;
+			this.base = new int[capacity];
+			this.check = new int[capacity];
+			this.counts = new int[capacity];
+			this.childStart = new int[capacity];
+			this.childEnd = new int[capacity];
+			this.nextFree = new int[capacity];
+			Arrays.fill(this.base, NO_BASE);
+			Arrays.fill(this.check, FREE);
+
+			for (int i = 0; i < capacity; i++) {
+				this.nextFree[i] = i;
+			}
+
+			this.occupy(ROOT_STATE, ROOT_STATE);
+		}
+
+		/**
+		 * Ensures that the arrays can hold the given index
+		 * @param index The index
+		 */
+		private void ensureCapacity(int index) {
+			if (index < this.base.length) {
+				return;
+			}
+
+			int oldCapacity = this.base.length;
+			int capacity = Math.max(index + 1, oldCapacity + oldCapacity / 2);
+			this.base = Arrays.copyOf(this.base, capacity);
+			this.check = Arrays.copyOf(this.check, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
+			this.childStart = Arrays.copyOf(this.childStart, capacity);
+			this.childEnd = Arrays.copyOf(this.childEnd, capacity);
+			this.nextFree = Arrays.copyOf(this.nextFree, capacity);
+			Arrays.fill(this.base, oldCapacity, capacity, NO_BASE);
+			Arrays.fill(this.check, oldCapacity, capacity, FREE);
+
+			for (int i = oldCapacity; i < capacity; i++) {
+				this.nextFree[i] = i;
+			}
+		}
+
+		/**
+		 * Returns the first free position at or after the given position
+		 * @param position The position
+		 */
+		private int findFree(int position) {
+			this.ensureCapacity(position);
+
+			while (this.nextFree[position] != position) {
+				int next = this.nextFree[position];
+				this.ensureCapacity(next);
+
+				//Path halving
+				if (this.nextFree[next] != next) {
+					this.nextFree[position] = this.nextFree[next];
+				}
+
+				position = next;
+			}
+
+			return position;
+		}
+
+		/**
+		 * Marks the given position as used by a child of the given state
+		 * @param position The position
+		 * @param state The parent state
+		 */
+		private void occupy(int position, int state) {
+			this.ensureCapacity(position + 1);
+			this.check[position] = state;
+			this.nextFree[position] = position + 1;
+		}
+
+		/**
+		 * Finds a base where all the given children fit
+		 * @param codes The sorted child codes
+		 * @param numChildren The number of children
+		 */
+		private int findBase(int[] codes, int numChildren) {
+			int first = codes[0] + 1;
+			int last = codes[numChildren - 1] + 1;
+			int position = this.findFree(numChildren > 1 ? Math.max(first, this.multipleChildrenStart) : first);
+			int attempts = 0;
+
+			while (true) {
+				int candidate = position - first;
+				this.ensureCapacity(candidate + last);
+
+				boolean fits = true;
+				for (int i = 1; i < numChildren; i++) {
+					if (this.check[candidate + codes[i] + 1] != FREE) {
+						fits = false;
+						break;
+					}
+				}
+
+				if (fits) {
+					//The free positions that were skipped are most likely too fragmented for multiple children,
+					//but they are still used by states with a single child
+					if (attempts > MAX_ATTEMPTS) {
+						this.multipleChildrenStart = position;
+					}
+
+					return candidate;
+				}
+
+				attempts++;
+				position = this.findFree(position + 1);
+			}
+		}
+
+		/**
+		 * Adds the given children to the given state
+		 * @param state The parent state
+		 * @param ids The child ids
+		 * @param counts The child counts
+		 * @param start The start of the children
+		 * @param end The end of the children
+		 * @param states The states of the children
+		 */
+		public void addChildren(int state, int[] ids, int[] counts, int start, int end, int[] states) {
+			this.childStart[state] = start;
+			this.childEnd[state] = end;
+
+			if (start == end) {
+				return;
+			}
+
+			if (this.childCodes.length < end - start) {
+				this.childCodes = new int[end - start];
+			}
+
+			for (int i = start; i < end; i++) {
+				this.childCodes[i - start] = this.codes[ids[i]];
+			}
+			Arrays.sort(this.childCodes, 0, end - start);
+
+			int stateBase = this.findBase(this.childCodes, end - start);
+			this.base[state] = stateBase;
+
+			for (int i = start; i < end; i++) {
+				int child = stateBase + this.codes[ids[i]] + 1;
+				this.occupy(child, state);
+				this.counts[child] = counts[i];
+				states[i] = child;
+				this.size = Math.max(this.size, child + 1);
+			}
+		}
+	}
+
+	/**
+	 * Creates a double-array tree from the given compact tree
+	 * @param tree The compact tree
+	 */
+	public static DoubleArrayNGramTree fromTree(CompactNGramTree tree) {
+		int numNodes = 0;
+		for (int level = 0; level < tree.numLevels(); level++) {
+			numNodes += tree.numNodes(level);
+		}
+
+		//Rank the unigrams by count, followed by the tokens that only occur in longer n-grams
+		final int[] unigramIds = tree.getIds(0);
+		final int[] unigramCounts = tree.getCounts(0);
+		long[] order = new long[unigramIds.length];
+		for (int i = 0; i < unigramIds.length; i++) {
+			order[i] = ((long)unigramCounts[i] << 32) | i;
+		}
+		Arrays.sort(order);
+
+		int maxId = -1;
+		for (int level = 0; level < tree.numLevels(); level++) {
+			for (int id : tree.getIds(level)) {
+				maxId = Math.max(maxId, id);
+			}
+		}
+
+		int[] codes = new int[maxId + 1];
+		Arrays.fill(codes, -1);
+		int numCodes = 0;
+		for (int i = order.length - 1; i >= 0; i--) {
+			codes[unigramIds[(int)order[i]]] = numCodes++;
+		}
+
+		for (int level = 1; level < tree.numLevels(); level++) {
+			for (int id : tree.getIds(level)) {
+				if (codes[id] == -1) {
+					codes[id] = numCodes++;
+				}
+			}
+		}
+
+		Builder builder = new Builder(codes, numNodes + numNodes / 4 + 1);
+
+		int[][] childIds = new int[tree.numLevels()][];
+		int[][] childCounts = new int[tree.numLevels()][];
+		int[] parentStates = new int[] { ROOT_STATE };
+		double[] alphas = null;
+		char[] probabilities = null;
+
+		for (int level = 0; level < tree.numLevels(); level++) {
+			int[] ids = tree.getIds(level);
+			int[] counts = tree.getCounts(level);
+			int[] states = new int[ids.length];
+
+			//The children of each state keep their range, but are sorted by count
+			int[] countOrder = tree.getCountOrder(level);
+			childIds[level] = new int[ids.length];
+			childCounts[level] = new int[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				childIds[level][i] = ids[countOrder[i]];
+				childCounts[level][i] = counts[countOrder[i]];
+			}
+
+			if (level == 0) {
+				builder.addChildren(ROOT_STATE, ids, counts, 0, ids.length, states);
+			} else {
+				//Place the parents with the most children first, while the arrays are still sparse
+				int[] offsets = tree.getChildOffsets(level - 1);
+				long[] parentOrder = new long[parentStates.length];
+				for (int parent = 0; parent < parentStates.length; parent++) {
+					long numChildren = offsets[parent + 1] - offsets[parent];
+					parentOrder[parent] = (numChildren << 32) | parent;
+				}
+				Arrays.sort(parentOrder);
+
+				for (int i = parentOrder.length - 1; i >= 0; i--) {
+					int parent = (int)parentOrder[i];
+					builder.addChildren(parentStates[parent], ids, counts, offsets[parent], offsets[parent + 1], states);
+				}
+			}
+
+			//The alphas are moved from the nodes to their states
+			if (tree.hasAlphas() && level < tree.numLevels() - 1) {
+				if (alphas == null) {
+					alphas = new double[builder.base.length];
+				} else if (alphas.length < builder.base.length) {
+					alphas = Arrays.copyOf(alphas, builder.base.length);
+				}
+
+				double[] levelAlphas = tree.getAlphas(level);
+				for (int i = 0; i < states.length; i++) {
+					alphas[states[i]] = levelAlphas[i];
+				}
+			}
+
+			if (tree.hasProbabilities()) {
+				if (probabilities == null) {
+					probabilities = new char[builder.base.length];
+				} else if (probabilities.length < builder.base.length) {
+					probabilities = Arrays.copyOf(probabilities, builder.base.length);
+				}
+
+				char[] levelProbabilities = tree.getProbabilities(level);
+				for (int i = 0; i < states.length; i++) {
+					probabilities[states[i]] = levelProbabilities[i];
+				}
+			}
+
+			parentStates = states;
+		}
+
+		return new DoubleArrayNGramTree(
+			codes,
+			Arrays.copyOf(builder.base, builder.size),
+			Arrays.copyOf(builder.check, builder.size),
+			Arrays.copyOf(builder.counts, builder.size),
+			Arrays.copyOf(builder.childStart, builder.size),
+			Arrays.copyOf(builder.childEnd, builder.size),
+			childIds,
+			childCounts,
+			alphas != null ? Arrays.copyOf(alphas, builder.size) : null,
+			tree.getCodebook(),
+			probabilities != null ? Arrays.copyOf(probabilities, builder.size) : null);
+	}
+}
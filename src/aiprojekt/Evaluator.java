@@ -399,7 +399,7 @@ public class Evaluator {
 	 */
 	private NGramModel trainModel() {
 		Loader loader = new Loader();
-		return loader.load(PreProcessor.FILE_PATH);
+		return loader.load();
 	}
 
 	/**
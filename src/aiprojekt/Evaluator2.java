@@ -10,7 +10,7 @@ public class Evaluator2 {
 	public static void main(String[] args) {
 		long start = System.currentTimeMillis();
 		Loader loader = new Loader();
-		NGramModel model = loader.load(PreProcessor.FILE_PATH);
+		NGramModel model = loader.load();
 		WordPredictor predictor = new WordPredictor(model, 10);
 		
 		TextParser parser = new TextParser();
@@ -0,0 +1,307 @@
+package aiprojekt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Counts n-grams with a bounded amount of memory. The n-grams are counted in a table of at most the given size,
+ * and when the table is full, its n-grams are sorted by packed key and written as a run to a temporary file.
+ * The runs are then merged, in multiple passes if there are many runs, into a single sorted stream
+ * where the counts of the same n-gram in different runs are summed.
+ */
+public class ExternalNGramCounter implements AutoCloseable {
+	/**
+	 * The maximum number of runs that are merged at once
+	 */
+	public static final int MAX_MERGED_RUNS = 64;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final int maxEntries;
+	private final int maxLength;
+	private final File directory;
+	private final NGramCountTable table;
+	private final List<File> runs = new ArrayList<>();
+
+	/**
+	 * Creates a new counter
+	 * @param maxEntries The maximum number of n-grams in memory
+	 * @param maxLength The maximum n-gram length
+	 * @param directory The directory of the temporary files, or null for the default temporary directory
+	 */
+	public ExternalNGramCounter(int maxEntries, int maxLength, File directory) {
+		if (maxLength > NGramCountTable.MAX_LENGTH) {
+			throw new IllegalArgumentException("Only n-grams of length 1 to " + NGramCountTable.MAX_LENGTH + " can be counted.");
+		}
+
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxLength = maxLength;
+		this.directory = directory;
+		this.table = new NGramCountTable(this.maxEntries);
+	}
+
+	/**
+	 * Returns the number of runs written to disk
+	 */
+	public int numRuns() {
+		return this.runs.size();
+	}
+
+	/**
+	 * Counts the n-grams in the given tokens
+	 * @param tokens The tokens
+	 */
+	public void processTokens(List<Token> tokens) throws IOException {
+		for (int i = 0; i < tokens.size(); i++) {
+			long key = 0;
+
+			//Creates the unigram, bigrams, trigrams, ...
+			for (int j = i; j < Math.min(i + this.maxLength, tokens.size()); j++) {
+				key = NGramCountTable.packId(key, j - i, tokens.get(j).getId());
+				this.add(key, 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds the given count to the given n-gram, writing a run if the table is full
+	 * @param key The packed n-gram
+	 * @param count The count
+	 */
+	public void add(long key, int count) throws IOException {
+		this.table.add(key, count);
+
+		if (this.table.size() >= this.maxEntries) {
+			this.spill();
+		}
+	}
+
+	/**
+	 * Writes the n-grams in the table as a sorted run and clears the table
+	 */
+	private void spill() throws IOException {
+		if (this.table.size() == 0) {
+			return;
+		}
+
+		final long[] keys = new long[this.table.size()];
+		this.table.forEach(new NGramCountTable.OnEntryAction() {
+			private int index = 0;
+
+			@Override
+			public void execute(long key, int count) {
+				keys[this.index++] = key;
+			}
+		});
+
+		Arrays.sort(keys);
+
+		File run = File.createTempFile("ngrams", ".run", this.directory);
+		this.runs.add(run);
+
+		try (DataOutputStream outputStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+			for (long key : keys) {
+				outputStream.writeLong(key);
+				outputStream.writeInt(this.table.get(key));
+			}
+		}
+
+		this.table.clear();
+	}
+
+	/**
+	 * Reads the entries of a run in order
+	 */
+	private static class RunReader implements AutoCloseable {
+		private final DataInputStream inputStream;
+		private long key;
+		private int count;
+
+		/**
+		 * Opens the given run
+		 * @param run The run
+		 */
+		public RunReader(File run) throws IOException {
+			this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+		}
+
+		/**
+		 * Reads the next entry
+		 * @return True if there was an entry
+		 */
+		public boolean next() throws IOException {
+			try {
+				this.key = this.inputStream.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+
+			this.count = this.inputStream.readInt();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.inputStream.close();
+		}
+	}
+
+	/**
+	 * Action for an entry of a merged stream, which can throw an IO exception
+	 */
+	public interface OnMergedEntryAction {
+		/**
+		 * Executes the action on the given entry
+		 * @param key The packed n-gram
+		 * @param count The total count of the n-gram
+		 */
+		void execute(long key, int count) throws IOException;
+	}
+
+	/**
+	 * Merges the given runs, calling the action for each n-gram in key order with its total count
+	 * @param runs The runs
+	 * @param action The action
+	 */
+	private static void mergeRuns(List<File> runs, OnMergedEntryAction action) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader a, RunReader b) {
+				return Long.compare(a.key, b.key);
+			}
+		});
+
+		List<RunReader> readers = new ArrayList<>();
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				long key = reader.key;
+				long count = reader.count;
+				if (reader.next()) {
+					queue.add(reader);
+				}
+
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					reader = queue.poll();
+					count += reader.count;
+					if (reader.next()) {
+						queue.add(reader);
+					}
+				}
+
+				action.execute(key, (int)Math.min(Integer.MAX_VALUE, count));
+			}
+		} finally {
+			for (RunReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Merges the given runs into a single run
+	 * @param runs The runs, which are deleted
+	 * @param directory The directory of the merged run, or null for the default temporary directory
+	 */
+	private static File mergeToRun(List<File> runs, File directory) throws IOException {
+		File mergedRun = File.createTempFile("ngrams", ".run", directory);
+
+		try (final DataOutputStream outputStream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(mergedRun), BUFFER_SIZE))) {
+			mergeRuns(runs, new OnMergedEntryAction() {
+				@Override
+				public void execute(long key, int count) throws IOException {
+					outputStream.writeLong(key);
+					outputStream.writeInt(count);
+				}
+			});
+		}
+
+		for (File run : runs) {
+			run.delete();
+		}
+
+		return mergedRun;
+	}
+
+	/**
+	 * Merges the n-grams counted by the given counters, calling the action for each n-gram in key order
+	 * with its total count. The counters are emptied.
+	 * @param counters The counters
+	 * @param action The action
+	 */
+	public static void merge(List<ExternalNGramCounter> counters, OnMergedEntryAction action) throws IOException {
+		List<File> runs = new ArrayList<>();
+		for (ExternalNGramCounter counter : counters) {
+			counter.spill();
+			runs.addAll(counter.runs);
+			counter.runs.clear();
+		}
+
+		File directory = counters.isEmpty() ? null : counters.get(0).directory;
+
+		try {
+			//Merges groups of runs until the remaining runs can be merged at once
+			while (runs.size() > MAX_MERGED_RUNS) {
+				List<File> mergedRuns = new ArrayList<>();
+				for (int i = 0; i < runs.size(); i += MAX_MERGED_RUNS) {
+					List<File> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGED_RUNS));
+					mergedRuns.add(mergeToRun(new ArrayList<>(group), directory));
+				}
+
+				runs = mergedRuns;
+			}
+
+			mergeRuns(runs, action);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges the n-grams counted by the counter, calling the action for each n-gram in key order
+	 * with its total count. The counter is emptied.
+	 * @param action The action
+	 */
+	public void merge(OnMergedEntryAction action) throws IOException {
+		List<ExternalNGramCounter> counters = new ArrayList<>();
+		counters.add(this);
+		merge(counters, action);
+	}
+
+	/**
+	 * Deletes the runs
+	 */
+	@Override
+	public void close() {
+		for (File run : this.runs) {
+			run.delete();
+		}
+
+		this.runs.clear();
+		this.table.clear();
+	}
+}
@@ -0,0 +1,105 @@
+package aiprojekt;
+
+import java.util.List;
+
+/**
+ * Translates between the token ids in a model file and the ids in the vocabulary
+ */
+class FileIdMapping {
+	//The translation in both directions, or null if the ids are the same
+	private final int[] fileIdToId;
+	private final int[] idToFileId;
+
+	/**
+	 * Creates a new mapping
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 */
+	public FileIdMapping(int[] fileIdToId) {
+		boolean isIdentity = true;
+		int maxId = -1;
+		for (int fileId = 0; fileId < fileIdToId.length; fileId++) {
+			isIdentity &= fileIdToId[fileId] == fileId;
+			maxId = Math.max(maxId, fileIdToId[fileId]);
+		}
+
+		if (isIdentity) {
+			this.fileIdToId = null;
+			this.idToFileId = null;
+		} else {
+			this.fileIdToId = fileIdToId;
+			this.idToFileId = new int[maxId + 1];
+			for (int id = 0; id <= maxId; id++) {
+				this.idToFileId[id] = -1;
+			}
+
+			for (int fileId = 0; fileId < fileIdToId.length; fileId++) {
+				this.idToFileId[fileIdToId[fileId]] = fileId;
+			}
+		}
+	}
+
+	/**
+	 * Returns the vocabulary ids of the tokens in the given tree and top unigrams in increasing order.
+	 * These are the tokens written to a model file, so the file doesn't depend on the other tokens in the vocabulary,
+	 * and as the order is kept, the children of each node stay sorted by the ids in the file.
+	 * @param tree The tree
+	 * @param topUnigrams The top unigrams
+	 */
+	public static int[] modelIds(CompactNGramTree tree, List<NGram> topUnigrams) {
+		boolean[] isUsed = new boolean[Vocabulary.global().size()];
+		for (int level = 0; level < tree.numLevels(); level++) {
+			for (int id : tree.getIds(level)) {
+				isUsed[id] = true;
+			}
+		}
+
+		for (NGram unigram : topUnigrams) {
+			isUsed[unigram.idAt(0)] = true;
+		}
+
+		int numIds = 0;
+		for (boolean used : isUsed) {
+			if (used) {
+				numIds++;
+			}
+		}
+
+		int[] ids = new int[numIds];
+		numIds = 0;
+		for (int id = 0; id < isUsed.length; id++) {
+			if (isUsed[id]) {
+				ids[numIds++] = id;
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Returns the id in the file for the given vocabulary id, or -1 if the token isn't in the file
+	 * @param id The vocabulary id
+	 */
+	public int toFileId(int id) {
+		if (this.idToFileId == null) {
+			return id;
+		}
+
+		if (id < 0 || id >= this.idToFileId.length) {
+			return -1;
+		}
+
+		return this.idToFileId[id];
+	}
+
+	/**
+	 * Returns the vocabulary id for the given id in the file
+	 * @param fileId The id in the file
+	 */
+	public int toId(int fileId) {
+		if (this.fileIdToId == null) {
+			return fileId;
+		}
+
+		return this.fileIdToId[fileId];
+	}
+}
@@ -16,6 +16,9 @@ import org.apache.commons.math3.linear.RealVector;
  * Represents a Good-Turing estimation
  */
 public class GoodTuringEstimation {	
+	//The number of counts with a precomputed estimation
+	private static final int TABLE_SIZE = 1 << 12;
+	
 	private final Map<Integer, Integer> frequencyOfFrequencies = new TreeMap<>();
 
 	private int total = 0;
@@ -27,6 +30,11 @@ public class GoodTuringEstimation {
 	private boolean useSmoothing = false;
 	private final boolean saveOutput = true;
 	
+	//The estimation and the discount (estimation / count) of the small counts, or null if the parameters have changed
+	private double[] estimates;
+	private double[] discounts;
+	private double maxDiscount = 1.0;
+	
 	/**
 	 * Creates a new Good-Turing smoothing
 	 */
@@ -34,6 +42,21 @@ public class GoodTuringEstimation {
 		
 	}
 	
+	/**
+	 * Returns a copy of the fitted estimation, without the observations
+	 */
+	public GoodTuringEstimation copy() {
+		GoodTuringEstimation copy = new GoodTuringEstimation();
+		copy.total = this.total;
+		copy.a = this.a;
+		copy.b = this.b;
+		copy.useSmoothing = this.useSmoothing;
+		copy.estimates = this.estimates;
+		copy.discounts = this.discounts;
+		copy.maxDiscount = this.maxDiscount;
+		return copy;
+	}
+	
 	/**
 	 * Returns the total number of seen words
 	 */
@@ -61,6 +84,7 @@ public class GoodTuringEstimation {
 	 */
 	public void setTotal(int total) {
 		this.total = total;
+		this.updateTable();
 	}
 
 	/**
@@ -72,6 +96,7 @@ public class GoodTuringEstimation {
 		this.a = a;
 		this.b = b;
 		this.useSmoothing = true;
+		this.updateTable();
 	}
 	
 	/**
@@ -91,6 +116,10 @@ public class GoodTuringEstimation {
 	 * Calculates the smoothed Good-Turing estimation based on the observations
 	 */
 	public void fitToData() {
+		//The output is saved with the new parameters
+		this.estimates = null;
+		this.discounts = null;
+		
 		if (this.frequencyOfFrequencies.size() > 1) {
 			//Calculate N
 			for (Map.Entry<Integer, Integer> current : this.frequencyOfFrequencies.entrySet()) {
@@ -161,6 +190,33 @@ public class GoodTuringEstimation {
 			this.b = 0.0;
 			this.useSmoothing = false;
 		}
+		
+		this.updateTable();
+	}
+	
+	/**
+	 * Precomputes the estimation and discount of the small counts with the current parameters
+	 */
+	private void updateTable() {
+		double[] estimates = new double[TABLE_SIZE];
+		double[] discounts = new double[TABLE_SIZE];
+		
+		//The discount of a count r is ((r + 1) / r)^(b + 1) when smoothing, and 1 otherwise, which moves monotonically
+		//towards 1 as r grows, so the discounts of the counts outside the table are at most 1 or the discount of the last count
+		double maxDiscount = 1.0;
+		
+		for (int count = 0; count < TABLE_SIZE; count++) {
+			estimates[count] = this.calculateEstimate(count);
+			discounts[count] = estimates[count] / count;
+			
+			if (count > 0 && discounts[count] > maxDiscount) {
+				maxDiscount = discounts[count];
+			}
+		}
+		
+		this.estimates = estimates;
+		this.discounts = discounts;
+		this.maxDiscount = maxDiscount;
 	}
 	
 	/**
@@ -280,6 +336,39 @@ public class GoodTuringEstimation {
 	 * @param count The count
 	 */
 	public double estimate(int count) {
+		double[] estimates = this.estimates;
+		if (estimates != null && count >= 0 && count < estimates.length) {
+			return estimates[count];
+		}
+		
+		return this.calculateEstimate(count);
+	}
+	
+	/**
+	 * Returns the discount of the given count, which is the Good-Turing estimation divided by the count
+	 * @param count The count
+	 */
+	public double discount(int count) {
+		double[] discounts = this.discounts;
+		if (discounts != null && count >= 0 && count < discounts.length) {
+			return discounts[count];
+		}
+		
+		return this.calculateEstimate(count) / count;
+	}
+	
+	/**
+	 * Returns an upper bound of the discount of all positive counts
+	 */
+	public double maxDiscount() {
+		return this.maxDiscount;
+	}
+	
+	/**
+	 * Calculates the Good-Turing estimation of the given count
+	 * @param count The count
+	 */
+	private double calculateEstimate(int count) {
 		if (this.useSmoothing) {
 			if (count == 0) {
 				return this.calculateSmoothedCount(1) / this.total;
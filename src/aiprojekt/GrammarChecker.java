@@ -1,29 +1,61 @@
 package aiprojekt;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Properties;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 
+/**
+ * Checks if a proposed word can follow the written word, using the word classes of the words.
+ * The rules are stored as a bitmask of the word classes that can't follow each word class, so checking two word classes
+ * is a single bit test. The word classes of the words are either read from the word classes of the model
+ * (see WordClasses), or tagged by the shared checker, which loads the tagger and tags each word only once.
+ */
 public class GrammarChecker {
-	private MaxentTagger tagger;
-	private static final String REMOVE = "-LSB-_-LRB- ";
-	private static final Pattern REMOVE_PATTERN = Pattern.compile(REMOVE);
-	private HashMap<String, List<String>> grammarRules = new HashMap<String, List<String>>();
-	private static final int MD = 5;
-	private static final int VB = 6;
-	private static final int DT = 7;
-	private static final int NN = 8;
-	private static final int VBZ = 12;
-	private static final int VBD = 15;
-	private static final int RB = 17;
-	private static final int PRP = 19;
-
-	public GrammarChecker() {
+	private static volatile GrammarChecker instance;
+	
+	//The tagger, or null if the checker only has the rules
+	private final MaxentTagger tagger;
+	private final String[] tags;
+	private final HashMap<String, Integer> tagIndexes = new HashMap<>();
+	private final ConcurrentHashMap<String, Integer> wordTags = new ConcurrentHashMap<>();
+	
+	//The word classes that can't follow word class i are the set bits of forbiddenTags[i * tagWords] and on
+	private final int tagWords;
+	private final long[] forbiddenTags;
+	
+	private static final String MD = "MD";
+	private static final String VB = "VB";
+	private static final String DT = "DT";
+	private static final String NN = "NN";
+	private static final String VBZ = "VBZ";
+	private static final String VBD = "VBD";
+	private static final String RB = "RB";
+	private static final String PRP = "PRP";
+	
+	/**
+	 * Returns the shared grammar checker, which loads the tagger the first time it is called
+	 */
+	public static GrammarChecker getInstance() {
+		GrammarChecker checker = instance;
+		if (checker == null) {
+			synchronized (GrammarChecker.class) {
+				checker = instance;
+				if (checker == null) {
+					checker = new GrammarChecker(loadTagger());
+					instance = checker;
+				}
+			}
+		}
+		
+		return checker;
+	}
+	
+	/**
+	 * Loads the tagger
+	 */
+	private static MaxentTagger loadTagger() {
 		Properties properties = new Properties();
         
         /*try {
@@ -31,80 +63,156 @@ public class GrammarChecker {
          } catch (IOException e) {
          e.printStackTrace();
         }*/
-        tagger = new MaxentTagger("libraries/taggers/english-left3words-distsim.tagger", properties, false);
+        return new MaxentTagger("libraries/taggers/english-left3words-distsim.tagger", properties, false);
+	}
 	
-		List<String> temp = new ArrayList<String>(Arrays.asList(tagger.getTag(MD), tagger.getTag(VBD),tagger.getTag(VB)));
-		List<String> temp1 = new ArrayList<String>(Arrays.asList(tagger.getTag(VBZ), tagger.getTag(VBD), tagger.getTag(VB), tagger.getTag(PRP), tagger.getTag(MD)));
-		List<String> temp2 = new ArrayList<String>(Arrays.asList(tagger.getTag(VB)));
-		List<String> temp3 = new ArrayList<String>(Arrays.asList(tagger.getTag(VBZ), tagger.getTag(VBD)));
-		List<String> temp4 = new ArrayList<String>(Arrays.asList(tagger.getTag(VBZ), tagger.getTag(VBD), tagger.getTag(VB)));
-		List<String> temp5 = new ArrayList<String>(Arrays.asList(tagger.getTag(PRP)));
-		
-		grammarRules.put(tagger.getTag(VBZ), temp);
-		grammarRules.put(tagger.getTag(DT), temp1);
-		grammarRules.put(tagger.getTag(VBD), temp2);
-		grammarRules.put(tagger.getTag(VB), temp3);
-		grammarRules.put(tagger.getTag(MD), temp4 );
-		grammarRules.put(tagger.getTag(NN), temp5);
+	/**
+	 * Returns the word class tags of the given tagger
+	 * @param tagger The tagger
+	 */
+	private static String[] tagsOf(MaxentTagger tagger) {
+		String[] tags = new String[tagger.numTags()];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = tagger.getTag(i);
+		}
 		
-//		for (int i = 0; i<tagger.numTags(); i++) {
-//			System.out.println(tagger.getTag(i) + " i:"+ i );
-//		}	
+		return tags;
 	}
 	
-	public boolean hasCorrectGrammar(NGram writtenGram, NGram proposalGram) {
-		String proposal = proposalGram.last().toString();
-		String writtenString = writtenGram.last().at(0).toString();
+	/**
+	 * Creates a grammar checker that uses the given tagger
+	 * @param tagger The tagger
+	 */
+	private GrammarChecker(MaxentTagger tagger) {
+		this(tagger, tagsOf(tagger));
+	}
+	
+	/**
+	 * Creates a grammar checker for the given word classes, which can only check word classes and not words
+	 * @param tags The word class tags
+	 */
+	public GrammarChecker(String[] tags) {
+		this(null, tags);
+	}
+	
+	/**
+	 * Creates a grammar checker
+	 * @param tagger The tagger, or null
+	 * @param tags The word class tags
+	 */
+	private GrammarChecker(MaxentTagger tagger, String[] tags) {
+		this.tagger = tagger;
+		this.tags = tags.clone();
+		for (int i = 0; i < tags.length; i++) {
+			this.tagIndexes.put(tags[i], i);
+		}
 		
-		String[] arrayProposal = proposal.split("]"); // Get rid of "]"
-//		String taggedWritten = tagger.tagString(writtenString);
-		String taggedWritten = tagger.tagString(writtenString).trim();
-		String taggedProposal = tagger.tagString(arrayProposal[0]);
-//		taggedProposal = REMOVE_PATTERN.matcher(taggedProposal).replaceAll("");
-		taggedProposal = REMOVE_PATTERN.matcher(taggedProposal).replaceAll("").trim();
+		this.tagWords = (tags.length + 63) / 64;
+		this.forbiddenTags = new long[tags.length * this.tagWords];
 		
-//		taggedWritten = taggedWritten.replaceAll(" ", "");
-		String[] arrayWritten = taggedWritten.split("_");
-//		taggedProposal = taggedProposal.replaceAll(" ", "");
-		String[] array = taggedProposal.split("_");
-
-		String lastWrittenWordTag = arrayWritten[arrayWritten.length-1];
-		String proposalWordTag = array[array.length-1];
+		this.forbid(VBZ, MD, VBD, VB);
+		this.forbid(DT, VBZ, VBD, VB, PRP, MD);
+		this.forbid(VBD, VB);
+		this.forbid(VB, VBZ, VBD);
+		this.forbid(MD, VBZ, VBD, VB);
+		this.forbid(NN, PRP);
 		
-		if (arrayWritten[0].equals("<s>")) {
-			return true; 
+		//Two words of the same class can't follow each other, except nouns and adverbs,
+		//which can also be followed by any class that isn't forbidden above
+		for (int i = 0; i < tags.length; i++) {
+			if (!tags[i].equals(NN) && !tags[i].equals(RB)) {
+				this.forbid(i, i);
+			}
+		}
+	}
+	
+	/**
+	 * Forbids the given word classes from following the given word class, if the tagger has them
+	 * @param tag The word class
+	 * @param followingTags The word classes that can't follow it
+	 */
+	private void forbid(String tag, String... followingTags) {
+		Integer index = this.tagIndexes.get(tag);
+		if (index == null) {
+			return;
 		}
 		
-		if (grammarRules.containsKey(lastWrittenWordTag)) {
-//			int numIt = grammarRules.get(lastWrittenWordTag).size(); 
-			ArrayList<String> tags =  (ArrayList<String>) grammarRules.get(lastWrittenWordTag);
-			for(String tag : tags){
-				if(tag.equals(proposalWordTag)){
-					return false;
-				}
+		for (String followingTag : followingTags) {
+			Integer followingIndex = this.tagIndexes.get(followingTag);
+			if (followingIndex != null) {
+				this.forbid(index, followingIndex);
 			}
-//			for (int i = 0; i< numIt; i++) {
-//				if (proposalWordTag.equals(grammarRules.get(lastWrittenWordTag).get(i))) {
-////					System.out.println(arrayWritten[0] + " " + lastWrittenWordTag + " " + array[0] + " " + proposalWordTag);
-//					
-//					return false;
-//				}
-//			}
+		}
+	}
+	
+	/**
+	 * Forbids the given word class from following the other
+	 * @param tag The index of the word class
+	 * @param followingTag The index of the word class that can't follow it
+	 */
+	private void forbid(int tag, int followingTag) {
+		this.forbiddenTags[tag * this.tagWords + (followingTag >>> 6)] |= 1L << followingTag;
+	}
+	
+	/**
+	 * Returns the word class tags, where the index of a tag is its index in the array
+	 */
+	public String[] getTags() {
+		return this.tags.clone();
+	}
+	
+	/**
+	 * Returns the index of the word class of the given word, which is tagged the first time
+	 * @param word The word
+	 * @return The index of the word class, or -1 if it isn't known
+	 */
+	public int tagWord(String word) {
+		if (this.tagger == null) {
+			throw new IllegalStateException("The grammar checker doesn't have a tagger.");
 		}
 		
-		if (lastWrittenWordTag.equals(tagger.getTag(NN)) || proposalWordTag.equals(tagger.getTag(NN))) { // It is ok with two NN's in a row (Nouns)
-			return true;
+		Integer tag = this.wordTags.get(word);
+		if (tag == null) {
+			//The tag of the last token, as the tagger can split the word
+			String tagged = this.tagger.tagString(word).trim();
+			Integer index = this.tagIndexes.get(tagged.substring(tagged.lastIndexOf('_') + 1));
+			tag = index != null ? index : -1;
+			
+			Integer previousTag = this.wordTags.putIfAbsent(word, tag);
+			if (previousTag != null) {
+				tag = previousTag;
+			}
 		}
 		
-		if (lastWrittenWordTag.equals(tagger.getTag(RB)) || proposalWordTag.equals(tagger.getTag(RB))) { // It is ok with two RB's in a row (Nouns)
+		return tag;
+	}
+	
+	/**
+	 * Indicates if a word of the given class can follow a word of the other class. Unknown classes can follow any class.
+	 * @param writtenTag The index of the word class of the written word, or -1
+	 * @param proposalTag The index of the word class of the proposed word, or -1
+	 */
+	public boolean hasCorrectGrammar(int writtenTag, int proposalTag) {
+		if (writtenTag < 0 || proposalTag < 0) {
 			return true;
 		}
 		
-		if (lastWrittenWordTag.equals(proposalWordTag)) {
-//			System.out.println(arrayWritten[0] + " " + lastWrittenWordTag + " " + array[0] + " " + proposalWordTag);
-			return false;
+		return (this.forbiddenTags[writtenTag * this.tagWords + (proposalTag >>> 6)] & (1L << proposalTag)) == 0;
+	}
+	
+	/**
+	 * Indicates if the last token of the proposed n-gram can follow the last token of the written n-gram,
+	 * tagging the tokens with the tagger
+	 * @param writtenGram The written n-gram
+	 * @param proposalGram The proposed n-gram
+	 */
+	public boolean hasCorrectGrammar(NGram writtenGram, NGram proposalGram) {
+		//A word that isn't in the vocabulary has no word class
+		Token written = writtenGram.last().at(0);
+		if (written.getType() == TokenType.START_OF_SENTENCE || written.getId() == Vocabulary.UNKNOWN_ID) {
+			return true; 
 		}
 		
-		return true;
+		return this.hasCorrectGrammar(this.tagWord(written.toString()), this.tagWord(proposalGram.last().at(0).toString()));
 	}
 }
@@ -50,4 +50,44 @@ public class Helpers {
 		
 		return true;
 	}
+	
+	/**
+	 * Returns the hash code for the given int array segment
+	 * @param array The array
+	 * @param start The start of the segment
+	 * @param length The length of the segment
+	 */
+	public static int arrayHashCode(int[] array, int start, int length) {
+		final int prime = 31;
+		int result = 1;
+		
+		for (int i = start; i < start + length; i++) {
+			result = prime * result + array[i];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Indicates if the two given int array segments are equal
+	 * @param array1 The first array
+	 * @param start1 The start of the first segment
+	 * @param length1 The length of the first segment
+	 * @param array2 The second array
+	 * @param start2 The start of the second segment
+	 * @param length2 The length of the second segment
+	 */
+	public static boolean arrayEquals(int[] array1, int start1, int length1, int[] array2, int start2, int length2) {	
+		if (length1 != length2) {
+			return false;
+		}
+		
+		for (int i = 0; i < length1; i++) {
+			if (array1[start1 + i] != array2[start2 + i]) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
 }
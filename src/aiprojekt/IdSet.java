@@ -0,0 +1,51 @@
+package aiprojekt;
+
+import java.util.Arrays;
+
+/**
+ * Represents a reusable set of token ids.
+ * Each id is stored with the generation in which it was last added, so clearing the set only starts a new generation,
+ * and the set doesn't create any objects once it has grown to the size of the vocabulary.
+ */
+public class IdSet {
+	private int[] generations = new int[1024];
+	private int generation = 1;
+
+	/**
+	 * Adds the given id to the set
+	 * @param id The token id, which can't be negative
+	 * @return True if the id wasn't in the set
+	 */
+	public boolean add(int id) {
+		if (id >= this.generations.length) {
+			this.generations = Arrays.copyOf(this.generations, Math.max(id + 1, 2 * this.generations.length));
+		}
+
+		if (this.generations[id] == this.generation) {
+			return false;
+		}
+
+		this.generations[id] = this.generation;
+		return true;
+	}
+
+	/**
+	 * Indicates if the given id is in the set
+	 * @param id The token id
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < this.generations.length && this.generations[id] == this.generation;
+	}
+
+	/**
+	 * Removes all ids from the set
+	 */
+	public void clear() {
+		if (this.generation == Integer.MAX_VALUE) {
+			Arrays.fill(this.generations, 0);
+			this.generation = 0;
+		}
+
+		this.generation++;
+	}
+}
@@ -1,16 +1,21 @@
 package aiprojekt;
 
 import java.io.*;
-import java.util.*;
 
 /**
  * Loads a saved n-gram model from a file
  */
 public class Loader {
 	public static void main(String[] args) {
+		NGramIndexType indexType = NGramIndexType.COMPACT;
+		if (args.length > 0) {
+			indexType = NGramIndexType.valueOf(args[0].toUpperCase());
+		}
+		
 		Loader loader = new Loader();
 		long start = System.currentTimeMillis();
-		NGramModel ngramModel = loader.load(PreProcessor.FILE_PATH);
+		String path = args.length > 1 ? args[1] : PreProcessor.FILE_PATH;
+		NGramModel ngramModel = loader.load(path, indexType);
 
 		System.out.println("Loaded: " + (System.currentTimeMillis() - start) / 1000.0 + " s");
 		System.out.println("Memory: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024 + " MB");
@@ -21,6 +26,19 @@ public class Loader {
 		}	
 	}
 
+	/**
+	 * Loads and returns the n-gram model from disc, using the mapped model file if it exists.
+	 * 
+	 * @return The model or null if not loaded
+	 */
+	public NGramModel load() {
+		if (new File(PreProcessor.MODEL_FILE_PATH).exists()) {
+			return this.load(PreProcessor.MODEL_FILE_PATH);
+		}
+		
+		return this.load(PreProcessor.FILE_PATH);
+	}
+
 	/**
 	 * Loads and returns a n-gram model from disc.
 	 * 
@@ -28,6 +46,49 @@ public class Loader {
 	 * @return The model or null if not loaded
 	 */
 	public NGramModel load(String path) {
+		return this.load(path, NGramIndexType.COMPACT);
+	}
+
+	/**
+	 * Loads and returns a n-gram model from disc.
+	 * 
+	 * @param path File path to file containing stored NGram model.
+	 * @param indexType The type of search tree used by the loaded model.
+	 * A mapped model file is either mapped or, if the type is PAGED, paged. An ARPA file uses a compact tree unless the type is DOUBLE_ARRAY.
+	 * @return The model or null if not loaded
+	 */
+	public NGramModel load(String path, NGramIndexType indexType) {
+		if (MappedModelFile.isModelFile(path)) {
+			try {
+				if (indexType == NGramIndexType.PAGED) {
+					return MappedModelFile.loadPaged(path, PagedNGramTree.DEFAULT_CACHE_SIZE);
+				}
+				
+				return MappedModelFile.load(path);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
+		if (PackedModelFile.isModelFile(path)) {
+			try {
+				return PackedModelFile.load(path, indexType);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
+		if (ArpaFile.isArpaFile(path)) {
+			try {
+				return ArpaFile.load(path, indexType);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
 		NGramModel ngramModel = new NGramModel(NGramModel.DEFAULT_MAX_NGRAM_LENGTH, true);
 		File file = new File(path);
 		if (!file.exists()) {
@@ -39,19 +100,11 @@ public class Loader {
 			try (DataInputStream inputStream = new DataInputStream(
 					new BufferedInputStream(new FileInputStream(path)))) {
 
-				//The token index
+				//The token index, mapping the ids in the file to ids in the vocabulary
 				int numTokens = inputStream.readInt();
-				Map<Integer, Token> idToToken = new HashMap<>(numTokens);
+				int[] fileIdToId = new int[numTokens];
 				for (int id = 0; id < numTokens; id++) {
-					String token = inputStream.readUTF();
-
-					if (token.equals(TokenType.START_OF_SENTENCE.toString())) {
-						idToToken.put(id, new Token(TokenType.START_OF_SENTENCE));
-					} else if (token.equals(TokenType.END_OF_SENTENCE.toString())) {
-						idToToken.put(id, new Token(TokenType.END_OF_SENTENCE));
-					} else {
-						idToToken.put(id, new Token(token));
-					}
+					fileIdToId[id] = Vocabulary.global().getIdFromString(inputStream.readUTF());
 				}
 				
 				//Good-Turing parameters
@@ -65,25 +118,29 @@ public class Loader {
 				int topUnigramsCount = inputStream.readInt();
 				for (int i = 0; i < topUnigramsCount; i++) {
 					int tokenId = inputStream.readInt();
-					ngramModel.topUnigrams().add(NGram.fromTokens(idToToken.get(tokenId)));
+					ngramModel.topUnigrams().add(NGram.fromId(fileIdToId[tokenId]));
 				}
 				
 				//The n-grams
 				int count = inputStream.readInt();
-				List<Token> tokenBuffer = new ArrayList<>();
+				int[][] idBuffers = new int[ngramModel.maxLength() + 1][];
+				for (int length = 0; length < idBuffers.length; length++) {
+					idBuffers[length] = new int[length];
+				}
 
 				for (int i = 0; i < count; i++) {
 					int length = inputStream.readInt();
-					tokenBuffer.clear();
+					int[] ids = length < idBuffers.length ? idBuffers[length] : new int[length];
 
 					for (int j = 0; j < length; j++) {
-						int tokenId = inputStream.readInt();
-						tokenBuffer.add(idToToken.get(tokenId));
+						ids[j] = fileIdToId[inputStream.readInt()];
 					}
 
 					int ngramCount = inputStream.readInt();
-					ngramModel.addNGram(NGram.fromList(tokenBuffer), ngramCount);
+					ngramModel.addNGram(NGram.fromIds(ids), ngramCount);
 				}
+				
+				ngramModel.compact(indexType);
 			} catch (Exception e) {
 				e.printStackTrace();
 				return null;
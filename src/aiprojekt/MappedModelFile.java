@@ -0,0 +1,443 @@
+package aiprojekt;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes model files that are memory mapped and queried in place.
+ * All sections are fixed-width arrays, so loading only maps the file and interns the vocabulary.
+ * The mapped pages are shared through the page cache by all processes that load the same file.
+ */
+public class MappedModelFile {
+	/**
+	 * The magic number of a mapped model file ("NGMM")
+	 */
+	public static final int MAGIC = 0x4E474D4D;
+
+	/**
+	 * The version of the format
+	 */
+	public static final int VERSION = 1;
+
+	//The maximum n-gram length, followed by the number of n-grams and the total count for each length
+	static final int STATISTICS = 1;
+
+	//The Good-Turing total and log-linear parameters
+	static final int GOOD_TURING = 2;
+
+	//The number of top unigrams, followed by their token ids
+	static final int TOP_UNIGRAMS = 3;
+
+	//The number of tokens, followed by the byte offset of each token and the UTF-8 bytes of all tokens
+	static final int VOCABULARY = 4;
+
+	//The natural logarithm of the smallest and largest probability in the codebook of the quantized probabilities
+	static final int CODEBOOK = 5;
+
+	//The word class tags, followed by the word class code of each token, which is optional (see WordClasses)
+	static final int WORD_CLASSES = 6;
+
+	//The number of word classes, followed by the transition counts between them, which are optional
+	static final int WORD_CLASS_TRANSITIONS = 7;
+
+	//The levels of the tree, where each level has a section for each kind of array.
+	//The backoff weights of the levels except the last are optional.
+	private static final int LEVELS = 16;
+	static final int LEVEL_IDS = 0;
+	static final int LEVEL_COUNTS = 1;
+	static final int LEVEL_CHILD_OFFSETS = 2;
+	static final int LEVEL_ALPHAS = 3;
+
+	//The quantized probabilities of each level, which are optional
+	private static final int PROBABILITIES = 128;
+
+	//The positions of the nodes of each level, where the children of each node are sorted by count.
+	//They are optional, as the children can be sorted when they are needed instead.
+	private static final int COUNT_ORDERS = 192;
+
+	public static void main(String[] args) throws IOException {
+		String inputPath = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		String outputPath = args.length > 1 ? args[1] : PreProcessor.MODEL_FILE_PATH;
+
+		Loader loader = new Loader();
+		NGramModel model = loader.load(inputPath);
+		if (model == null) {
+			System.err.println("Couldn't load the model at " + inputPath);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		write(model, outputPath);
+		System.out.println("Wrote " + outputPath + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+
+		start = System.currentTimeMillis();
+		load(outputPath);
+		System.out.println("Loaded: " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+	}
+
+	/**
+	 * Returns the section type for the given level and kind of array
+	 * @param level The level
+	 * @param kind The kind of array
+	 */
+	static int levelSection(int level, int kind) {
+		return LEVELS + 4 * level + kind;
+	}
+
+	/**
+	 * Indicates if the file at the given path is a mapped model file
+	 * @param path The path to the file
+	 */
+	public static boolean isModelFile(String path) {
+		return ModelFile.readMagic(path) == MAGIC;
+	}
+
+	/**
+	 * Writes the given int array
+	 * @param outputStream The output stream
+	 * @param values The values
+	 */
+	private static void writeInts(DataOutputStream outputStream, int[] values) throws IOException {
+		for (int value : values) {
+			outputStream.writeInt(value);
+		}
+	}
+
+	/**
+	 * Writes the given double array
+	 * @param outputStream The output stream
+	 * @param values The values
+	 */
+	private static void writeDoubles(DataOutputStream outputStream, double[] values) throws IOException {
+		for (double value : values) {
+			outputStream.writeDouble(value);
+		}
+	}
+
+	/**
+	 * Writes the given token ids as the ids in the file
+	 * @param outputStream The output stream
+	 * @param ids The vocabulary ids
+	 * @param mapping The mapping of the ids in the file
+	 */
+	private static void writeIds(DataOutputStream outputStream, int[] ids, FileIdMapping mapping) throws IOException {
+		for (int id : ids) {
+			outputStream.writeInt(mapping.toFileId(id));
+		}
+	}
+
+	/**
+	 * Writes the given char array
+	 * @param outputStream The output stream
+	 * @param values The values
+	 */
+	private static void writeChars(DataOutputStream outputStream, char[] values) throws IOException {
+		for (char value : values) {
+			outputStream.writeChar(value);
+		}
+	}
+
+	/**
+	 * Writes the given model to a file
+	 * @param model The model
+	 * @param path The path to the file
+	 */
+	public static void write(NGramModel model, String path) throws IOException {
+		CompactNGramTree tree = model.toCompactTree();
+
+		//The ids in the file are the ranks of the ids of the tokens in the model
+		int[] fileIdToId = FileIdMapping.modelIds(tree, model.topUnigrams());
+		FileIdMapping mapping = new FileIdMapping(fileIdToId);
+
+		try (ModelFile.Writer writer = new ModelFile.Writer(path, MAGIC, VERSION)) {
+			DataOutputStream outputStream = writer.beginSection(STATISTICS);
+			outputStream.writeInt(model.maxLength());
+			for (int n = 1; n <= model.maxLength(); n++) {
+				outputStream.writeInt(model.numberOfNGramLength(n));
+				outputStream.writeInt(model.totalCountForNGramLength(n));
+			}
+			writer.endSection();
+
+			outputStream = writer.beginSection(GOOD_TURING);
+			outputStream.writeInt(model.getGoodTuringEstimation().getTotal());
+			outputStream.writeDouble(model.getGoodTuringEstimation().getA());
+			outputStream.writeDouble(model.getGoodTuringEstimation().getB());
+			writer.endSection();
+
+			outputStream = writer.beginSection(TOP_UNIGRAMS);
+			outputStream.writeInt(model.topUnigrams().size());
+			for (NGram unigram : model.topUnigrams()) {
+				outputStream.writeInt(mapping.toFileId(unigram.idAt(0)));
+			}
+			writer.endSection();
+
+			Vocabulary vocabulary = Vocabulary.global();
+			int numTokens = fileIdToId.length;
+			byte[][] tokens = new byte[numTokens][];
+			for (int fileId = 0; fileId < numTokens; fileId++) {
+				tokens[fileId] = vocabulary.getToken(fileIdToId[fileId]).toString().getBytes(StandardCharsets.UTF_8);
+			}
+
+			outputStream = writer.beginSection(VOCABULARY);
+			outputStream.writeInt(numTokens);
+			int offset = 0;
+			for (byte[] token : tokens) {
+				outputStream.writeInt(offset);
+				offset += token.length;
+			}
+			outputStream.writeInt(offset);
+
+			for (byte[] token : tokens) {
+				outputStream.write(token);
+			}
+			writer.endSection();
+
+			if (model.getWordClasses() != null) {
+				model.getWordClasses().write(writer.beginSection(WORD_CLASSES), fileIdToId);
+				writer.endSection();
+
+				if (model.getWordClasses().hasTransitions()) {
+					model.getWordClasses().writeTransitions(writer.beginSection(WORD_CLASS_TRANSITIONS));
+					writer.endSection();
+				}
+			}
+
+			if (tree.hasProbabilities()) {
+				outputStream = writer.beginSection(CODEBOOK);
+				outputStream.writeDouble(tree.getCodebook().getMinLog());
+				outputStream.writeDouble(tree.getCodebook().getMaxLog());
+				writer.endSection();
+			}
+
+			for (int level = 0; level < tree.numLevels(); level++) {
+				writeIds(writer.beginSection(levelSection(level, LEVEL_IDS)), tree.getIds(level), mapping);
+				writer.endSection();
+				writeInts(writer.beginSection(levelSection(level, LEVEL_COUNTS)), tree.getCounts(level));
+				writer.endSection();
+
+				if (tree.hasProbabilities()) {
+					writeChars(writer.beginSection(PROBABILITIES + level), tree.getProbabilities(level));
+					writer.endSection();
+				}
+
+				writeInts(writer.beginSection(COUNT_ORDERS + level), tree.getCountOrder(level));
+				writer.endSection();
+
+				if (level < tree.numLevels() - 1) {
+					writeInts(writer.beginSection(levelSection(level, LEVEL_CHILD_OFFSETS)), tree.getChildOffsets(level));
+					writer.endSection();
+
+					if (tree.hasAlphas()) {
+						writeDoubles(writer.beginSection(levelSection(level, LEVEL_ALPHAS)), tree.getAlphas(level));
+						writer.endSection();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the vocabulary section, returning the vocabulary id of each token id in the file
+	 * @param file The model file
+	 */
+	static int[] readVocabulary(ModelFile file) throws IOException {
+		ByteBuffer buffer = file.map(VOCABULARY);
+		int numTokens = buffer.getInt();
+		int[] offsets = new int[numTokens + 1];
+		buffer.asIntBuffer().get(offsets);
+
+		int start = 4 + 4 * offsets.length;
+		byte[] bytes = new byte[64];
+		int[] fileIdToId = new int[numTokens];
+
+		for (int fileId = 0; fileId < numTokens; fileId++) {
+			int length = offsets[fileId + 1] - offsets[fileId];
+			if (bytes.length < length) {
+				bytes = new byte[length];
+			}
+
+			buffer.position(start + offsets[fileId]);
+			buffer.get(bytes, 0, length);
+			fileIdToId[fileId] = Vocabulary.global().getIdFromString(new String(bytes, 0, length, StandardCharsets.UTF_8));
+		}
+
+		return fileIdToId;
+	}
+
+	/**
+	 * Loads the model in the given file, mapping all levels of the tree
+	 * @param path The path to the file
+	 */
+	public static NGramModel load(String path) throws IOException {
+		try (ModelFile file = open(path)) {
+			return readModel(file, false, 0);
+		}
+	}
+
+	/**
+	 * Loads the model in the given file, where the last level of the tree is read from the file on demand.
+	 * The file stays open as long as the model is used.
+	 * @param path The path to the file
+	 * @param cacheSize The maximum number of n-grams of the last level in memory
+	 */
+	public static NGramModel loadPaged(String path, int cacheSize) throws IOException {
+		ModelFile file = open(path);
+
+		try {
+			return readModel(file, true, cacheSize);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the given mapped model file
+	 * @param path The path to the file
+	 */
+	private static ModelFile open(String path) throws IOException {
+		ModelFile file = new ModelFile(path);
+		if (file.getMagic() != MAGIC || file.getVersion() != VERSION) {
+			file.close();
+			throw new IOException("'" + path + "' is not a mapped model file of version " + VERSION + ".");
+		}
+
+		return file;
+	}
+
+	/**
+	 * Reads the given int array section into memory
+	 * @param file The model file
+	 * @param type The type of the section
+	 */
+	private static int[] readInts(ModelFile file, int type) throws IOException {
+		IntBuffer buffer = file.map(type).asIntBuffer();
+		int[] values = new int[buffer.limit()];
+		buffer.get(values);
+		return values;
+	}
+
+	/**
+	 * Reads the given double array section into memory
+	 * @param file The model file
+	 * @param type The type of the section
+	 */
+	private static double[] readDoubles(ModelFile file, int type) throws IOException {
+		DoubleBuffer buffer = file.map(type).asDoubleBuffer();
+		double[] values = new double[buffer.limit()];
+		buffer.get(values);
+		return values;
+	}
+
+	/**
+	 * Reads the model in the given file
+	 * @param file The model file
+	 * @param isPaged Indicates if the last level of the tree is read on demand, instead of mapped
+	 * @param cacheSize The maximum number of n-grams of the last level in memory, if paged
+	 */
+	private static NGramModel readModel(ModelFile file, boolean isPaged, int cacheSize) throws IOException {
+		ByteBuffer statistics = file.map(STATISTICS);
+		int maxLength = statistics.getInt();
+		int[] numNGrams = new int[maxLength];
+		int[] totalNGramCounts = new int[maxLength];
+		for (int i = 0; i < maxLength; i++) {
+			numNGrams[i] = statistics.getInt();
+			totalNGramCounts[i] = statistics.getInt();
+		}
+
+		int[] fileIdToId = readVocabulary(file);
+		NGramIndex index;
+
+		//Files written without the backoff weights compute them when needed
+		boolean hasAlphas = maxLength > 1 && file.hasSection(levelSection(0, LEVEL_ALPHAS));
+
+		if (isPaged && maxLength > 1) {
+			int lastLevel = maxLength - 1;
+			int[][] ids = new int[lastLevel][];
+			int[][] counts = new int[lastLevel][];
+			int[][] childOffsets = new int[lastLevel][];
+			double[][] alphas = hasAlphas ? new double[lastLevel][] : null;
+			for (int level = 0; level < lastLevel; level++) {
+				ids[level] = readInts(file, levelSection(level, LEVEL_IDS));
+				counts[level] = readInts(file, levelSection(level, LEVEL_COUNTS));
+				childOffsets[level] = readInts(file, levelSection(level, LEVEL_CHILD_OFFSETS));
+
+				if (hasAlphas) {
+					alphas[level] = readDoubles(file, levelSection(level, LEVEL_ALPHAS));
+				}
+			}
+
+			index = new PagedNGramTree(ids, counts, childOffsets, alphas, file.getChannel(),
+				file.sectionOffset(levelSection(lastLevel, LEVEL_IDS)),
+				file.sectionOffset(levelSection(lastLevel, LEVEL_COUNTS)),
+				fileIdToId, cacheSize);
+		} else {
+			IntBuffer[] ids = new IntBuffer[maxLength];
+			IntBuffer[] counts = new IntBuffer[maxLength];
+			IntBuffer[] childOffsets = new IntBuffer[maxLength - 1];
+			DoubleBuffer[] alphas = hasAlphas ? new DoubleBuffer[maxLength - 1] : null;
+			for (int level = 0; level < maxLength; level++) {
+				ids[level] = file.map(levelSection(level, LEVEL_IDS)).asIntBuffer();
+				counts[level] = file.map(levelSection(level, LEVEL_COUNTS)).asIntBuffer();
+
+				if (level < maxLength - 1) {
+					childOffsets[level] = file.map(levelSection(level, LEVEL_CHILD_OFFSETS)).asIntBuffer();
+
+					if (hasAlphas) {
+						alphas[level] = file.map(levelSection(level, LEVEL_ALPHAS)).asDoubleBuffer();
+					}
+				}
+			}
+
+			ProbabilityCodebook codebook = null;
+			CharBuffer[] probabilities = null;
+			if (file.hasSection(CODEBOOK)) {
+				ByteBuffer buffer = file.map(CODEBOOK);
+				codebook = new ProbabilityCodebook(buffer.getDouble(), buffer.getDouble());
+				probabilities = new CharBuffer[maxLength];
+				for (int level = 0; level < maxLength; level++) {
+					probabilities[level] = file.map(PROBABILITIES + level).asCharBuffer();
+				}
+			}
+
+			IntBuffer[] countOrders = null;
+			if (file.hasSection(COUNT_ORDERS)) {
+				countOrders = new IntBuffer[maxLength];
+				for (int level = 0; level < maxLength; level++) {
+					countOrders[level] = file.map(COUNT_ORDERS + level).asIntBuffer();
+				}
+			}
+
+			index = new MappedNGramTree(ids, counts, childOffsets, alphas, codebook, probabilities, countOrders,
+				fileIdToId);
+		}
+
+		NGramModel model = new NGramModel(index, numNGrams, totalNGramCounts);
+
+		ByteBuffer goodTuring = file.map(GOOD_TURING);
+		model.getGoodTuringEstimation().setTotal(goodTuring.getInt());
+		model.getGoodTuringEstimation().setLogLinear(goodTuring.getDouble(), goodTuring.getDouble());
+
+		ByteBuffer topUnigrams = file.map(TOP_UNIGRAMS);
+		int topUnigramsCount = topUnigrams.getInt();
+		for (int i = 0; i < topUnigramsCount; i++) {
+			model.topUnigrams().add(NGram.fromId(fileIdToId[topUnigrams.getInt()]));
+		}
+
+		if (file.hasSection(WORD_CLASSES)) {
+			WordClasses wordClasses = WordClasses.read(file.map(WORD_CLASSES), fileIdToId);
+			if (file.hasSection(WORD_CLASS_TRANSITIONS)) {
+				wordClasses = wordClasses.withTransitions(file.map(WORD_CLASS_TRANSITIONS));
+			}
+
+			model.setWordClasses(wordClasses);
+		}
+
+		return model;
+	}
+}
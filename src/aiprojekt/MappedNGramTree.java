@@ -0,0 +1,280 @@
+package aiprojekt;
+
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents an immutable n-gram search tree that is queried in place in a memory mapped model file.
+ * The levels have the same layout as in CompactNGramTree, but the token ids are the ids in the file,
+ * which are translated to and from the ids in the vocabulary.
+ */
+public class MappedNGramTree implements NGramIndex {
+	private final IntBuffer[] ids;
+	private final IntBuffer[] counts;
+	private final IntBuffer[] childOffsets;
+
+	//The backoff weights for each level except the last, or null if they aren't stored in the file
+	private final DoubleBuffer[] alphas;
+
+	//The quantized probabilities for each level, or null if they aren't stored in the file
+	private final ProbabilityCodebook codebook;
+	private final CharBuffer[] probabilities;
+
+	//The positions of the nodes of each level, where the children of each node are sorted by count,
+	//or null if they aren't stored in the file
+	private final IntBuffer[] countOrders;
+
+	private final FileIdMapping mapping;
+
+	/**
+	 * Creates a new mapped tree
+	 * @param ids The token ids for each level
+	 * @param counts The counts for each level
+	 * @param childOffsets The child offsets for each level except the last
+	 * @param alphas The backoff weights for each level except the last, or null
+	 * @param codebook The codebook of the probabilities, or null
+	 * @param probabilities The quantized probabilities for each level, or null
+	 * @param countOrders The positions of the nodes sorted by count for each level, or null
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 */
+	public MappedNGramTree(IntBuffer[] ids, IntBuffer[] counts, IntBuffer[] childOffsets, DoubleBuffer[] alphas,
+		ProbabilityCodebook codebook, CharBuffer[] probabilities, IntBuffer[] countOrders, int[] fileIdToId) {
+		this.ids = ids;
+		this.counts = counts;
+		this.childOffsets = childOffsets;
+		this.alphas = alphas;
+		this.codebook = codebook;
+		this.probabilities = probabilities;
+		this.countOrders = countOrders;
+
+		this.mapping = new FileIdMapping(fileIdToId);
+	}
+
+	/**
+	 * Returns the number of levels in the tree
+	 */
+	public int numLevels() {
+		return this.ids.length;
+	}
+
+	/**
+	 * Returns the number of nodes at the given level
+	 * @param level The level
+	 */
+	public int numNodes(int level) {
+		return this.ids[level].limit();
+	}
+
+	/**
+	 * Returns the index of the given id in the range of the buffer, or -1 if it doesn't exist
+	 * @param buffer The sorted buffer
+	 * @param start The start of the range
+	 * @param end The end of the range
+	 * @param id The id
+	 */
+	private static int binarySearch(IntBuffer buffer, int start, int end, int id) {
+		int low = start;
+		int high = end - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midId = buffer.get(mid);
+
+			if (midId < id) {
+				low = mid + 1;
+			} else if (midId > id) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the node for the n-gram made of the tokens of the given context from the given offset,
+	 * followed by the given token, or -1 if it doesn't exist. The node is at the level of the length of the n-gram - 1.
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 */
+	private int findNode(NGram context, int offset, int id) {
+		int length = context.length() - offset + (id < 0 ? 0 : 1);
+		if (length == 0 || length > this.numLevels()) {
+			return -1;
+		}
+
+		int start = 0;
+		int end = this.ids[0].limit();
+		int index = -1;
+
+		for (int level = 0; level < length; level++) {
+			int currentId = offset + level < context.length() ? context.idAt(offset + level) : id;
+			int fileId = this.mapping.toFileId(currentId);
+			if (fileId < 0) {
+				return -1;
+			}
+
+			index = binarySearch(this.ids[level], start, end, fileId);
+			if (index < 0) {
+				return -1;
+			}
+
+			if (level + 1 < length) {
+				start = this.childOffsets[level].get(index);
+				end = this.childOffsets[level].get(index + 1);
+			}
+		}
+
+		return index;
+	}
+
+	@Override
+	public int find(NGram ngram) {
+		return this.find(ngram, 0, -1);
+	}
+
+	@Override
+	public int find(NGram context, int offset, int id) {
+		int index = this.findNode(context, offset, id);
+		if (index >= 0) {
+			return this.counts[context.length() - offset - (id < 0 ? 1 : 0)].get(index);
+		}
+
+		return 0;
+	}
+
+	@Override
+	public List<NGramTree.Result> findResults(final NGram ngram) {
+		final List<NGramTree.Result> results = new ArrayList<>();
+		this.forEachContinuation(ngram, new OnContinuationAction() {
+			@Override
+			public void execute(int id, int count) {
+				results.add(new NGramTree.Result(ngram.append(id), count));
+			}
+		});
+
+		return results;
+	}
+
+	@Override
+	public void forEachContinuation(NGram ngram, OnContinuationAction action) {
+		this.forEachContinuation(ngram, 0, action);
+	}
+
+	@Override
+	public void forEachContinuation(NGram context, int offset, OnContinuationAction action) {
+		int level = context.length() - offset;
+		if (level >= this.numLevels()) {
+			return;
+		}
+
+		int start = 0;
+		int end = this.ids[0].limit();
+
+		if (level > 0) {
+			int index = this.findNode(context, offset, -1);
+			if (index < 0) {
+				return;
+			}
+
+			start = this.childOffsets[level - 1].get(index);
+			end = this.childOffsets[level - 1].get(index + 1);
+		}
+
+		IntBuffer levelIds = this.ids[level];
+		IntBuffer levelCounts = this.counts[level];
+		for (int i = start; i < end; i++) {
+			int count = levelCounts.get(i);
+			if (count > 0) {
+				action.execute(this.mapping.toId(levelIds.get(i)), count);
+			}
+		}
+	}
+
+	@Override
+	public Continuations findContinuations(NGram ngram) {
+		int level = ngram.length();
+		if (level >= this.numLevels()) {
+			return Continuations.EMPTY;
+		}
+
+		int start = 0;
+		int end = this.ids[0].limit();
+
+		if (level > 0) {
+			int index = this.findNode(ngram, 0, -1);
+			if (index < 0) {
+				return Continuations.EMPTY;
+			}
+
+			start = this.childOffsets[level - 1].get(index);
+			end = this.childOffsets[level - 1].get(index + 1);
+		}
+
+		if (this.countOrders != null) {
+			return new Continuations(this.ids[level], this.counts[level], this.countOrders[level], start, end, this.mapping);
+		}
+
+		//A file without the count orders is from before they were written, and only the children are sorted,
+		//so nothing is kept in memory for the whole level
+		IntBuffer levelIds = this.ids[level];
+		IntBuffer levelCounts = this.counts[level];
+		int[] ids = new int[end - start];
+		int[] counts = new int[end - start];
+		int size = 0;
+
+		for (int i = start; i < end; i++) {
+			int count = levelCounts.get(i);
+			if (count > 0) {
+				ids[size] = this.mapping.toId(levelIds.get(i));
+				counts[size] = count;
+				size++;
+			}
+		}
+
+		return Continuations.sort(ids, counts, size);
+	}
+
+	@Override
+	public boolean hasPrecomputedValues() {
+		//A tree with one level has no contexts, and no backoff weights
+		return this.probabilities != null && (this.alphas != null || this.numLevels() == 1);
+	}
+
+	@Override
+	public double findAlpha(NGram context) {
+		return this.findAlpha(context, 0);
+	}
+
+	@Override
+	public double findAlpha(NGram context, int offset) {
+		int length = context.length() - offset;
+		if (this.alphas == null || length >= this.numLevels()) {
+			return Double.NaN;
+		}
+
+		int index = this.findNode(context, offset, -1);
+		return index >= 0 ? this.alphas[length - 1].get(index) : Double.NaN;
+	}
+
+	@Override
+	public double findProbability(NGram ngram) {
+		return this.findProbability(ngram, 0, -1);
+	}
+
+	@Override
+	public double findProbability(NGram context, int offset, int id) {
+		if (this.probabilities == null) {
+			return Double.NaN;
+		}
+
+		int index = this.findNode(context, offset, id);
+		int level = context.length() - offset - (id < 0 ? 1 : 0);
+		return index >= 0 ? this.codebook.decode(this.probabilities[level].get(index)) : Double.NaN;
+	}
+}
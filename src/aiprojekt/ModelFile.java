@@ -0,0 +1,294 @@
+package aiprojekt;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a model file that consists of typed sections.
+ * The file starts with a header (magic, version and the offset of the section table),
+ * followed by the sections, which are aligned to 8 bytes, and ends with the section table.
+ */
+public class ModelFile implements Closeable {
+	private static final int HEADER_SIZE = 16;
+	private static final int ALIGNMENT = 8;
+
+	private final FileChannel channel;
+	private final int magic;
+	private final int version;
+	private final Map<Integer, long[]> sections = new LinkedHashMap<>();
+
+	/**
+	 * Opens the given model file for reading
+	 * @param path The path to the file
+	 * @throws IOException If the file couldn't be read or isn't a model file
+	 */
+	public ModelFile(String path) throws IOException {
+		this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+		try {
+			ByteBuffer header = this.read(0, HEADER_SIZE);
+			this.magic = header.getInt();
+			this.version = header.getInt();
+			long tableOffset = header.getLong();
+
+			ByteBuffer numSections = this.read(tableOffset, 4);
+			ByteBuffer table = this.read(tableOffset + 4, numSections.getInt() * 20);
+			while (table.hasRemaining()) {
+				int type = table.getInt();
+				this.sections.put(type, new long[] { table.getLong(), table.getLong() });
+			}
+		} catch (IOException | RuntimeException e) {
+			this.channel.close();
+			throw new IOException("'" + path + "' is not a valid model file.", e);
+		}
+	}
+
+	/**
+	 * Returns the magic number of the file at the given path, or 0 if it can't be read
+	 * @param path The path to the file
+	 */
+	public static int readMagic(String path) {
+		try (DataInputStream inputStream = new DataInputStream(new FileInputStream(path))) {
+			return inputStream.readInt();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Reads the given region of the file
+	 * @param position The position in the file
+	 * @param length The length of the region
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the magic number
+	 */
+	public int getMagic() {
+		return this.magic;
+	}
+
+	/**
+	 * Returns the version
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns the underlying file channel
+	 */
+	public FileChannel getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Indicates if the file contains the given section
+	 * @param type The type of the section
+	 */
+	public boolean hasSection(int type) {
+		return this.sections.containsKey(type);
+	}
+
+	/**
+	 * Returns the offset of the given section in the file
+	 * @param type The type of the section
+	 */
+	public long sectionOffset(int type) {
+		return this.getSection(type)[0];
+	}
+
+	/**
+	 * Returns the length of the given section in bytes
+	 * @param type The type of the section
+	 */
+	public long sectionLength(int type) {
+		return this.getSection(type)[1];
+	}
+
+	/**
+	 * Returns the offset and length of the given section
+	 * @param type The type of the section
+	 */
+	private long[] getSection(int type) {
+		long[] section = this.sections.get(type);
+		if (section == null) {
+			throw new IllegalArgumentException("The file doesn't contain section " + type + ".");
+		}
+
+		return section;
+	}
+
+	/**
+	 * Maps the given section into memory. The mapping stays valid after the file is closed.
+	 * @param type The type of the section
+	 */
+	public ByteBuffer map(int type) throws IOException {
+		long[] section = this.getSection(type);
+		return this.channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * Writes a model file
+	 */
+	public static class Writer implements Closeable {
+		private final String path;
+		private final CountingOutputStream countingStream;
+		private final DataOutputStream outputStream;
+		private final Map<Integer, long[]> sections = new LinkedHashMap<>();
+		private final int magic;
+		private final int version;
+		private int currentType = -1;
+		private long currentStart;
+
+		/**
+		 * Creates a new writer
+		 * @param path The path to the file
+		 * @param magic The magic number
+		 * @param version The version of the format
+		 */
+		public Writer(String path, int magic, int version) throws IOException {
+			this.path = path;
+			this.magic = magic;
+			this.version = version;
+			this.countingStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+			this.outputStream = new DataOutputStream(this.countingStream);
+
+			//The header is written when the file is closed
+			this.outputStream.write(new byte[HEADER_SIZE]);
+		}
+
+		/**
+		 * Pads the file to the alignment
+		 */
+		private void align() throws IOException {
+			while (this.countingStream.getCount() % ALIGNMENT != 0) {
+				this.outputStream.writeByte(0);
+			}
+		}
+
+		/**
+		 * Begins a new section, returning the stream to write the section to
+		 * @param type The type of the section
+		 */
+		public DataOutputStream beginSection(int type) throws IOException {
+			if (this.currentType != -1) {
+				throw new IllegalStateException("The section " + this.currentType + " hasn't ended.");
+			}
+
+			if (this.sections.containsKey(type)) {
+				throw new IllegalArgumentException("The section " + type + " has already been written.");
+			}
+
+			this.align();
+			this.currentType = type;
+			this.currentStart = this.countingStream.getCount();
+			return this.outputStream;
+		}
+
+		/**
+		 * Ends the current section
+		 */
+		public void endSection() throws IOException {
+			this.sections.put(this.currentType, new long[] {
+				this.currentStart,
+				this.countingStream.getCount() - this.currentStart });
+			this.currentType = -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.align();
+			long tableOffset = this.countingStream.getCount();
+
+			this.outputStream.writeInt(this.sections.size());
+			for (Map.Entry<Integer, long[]> section : this.sections.entrySet()) {
+				this.outputStream.writeInt(section.getKey());
+				this.outputStream.writeLong(section.getValue()[0]);
+				this.outputStream.writeLong(section.getValue()[1]);
+			}
+
+			this.outputStream.close();
+
+			try (RandomAccessFile file = new RandomAccessFile(this.path, "rw")) {
+				file.writeInt(this.magic);
+				file.writeInt(this.version);
+				file.writeLong(tableOffset);
+			}
+		}
+	}
+
+	/**
+	 * An output stream that counts the number of written bytes
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream outputStream;
+		private long count = 0;
+
+		/**
+		 * Creates a new counting stream
+		 * @param outputStream The underlying stream
+		 */
+		public CountingOutputStream(OutputStream outputStream) {
+			this.outputStream = outputStream;
+		}
+
+		/**
+		 * Returns the number of written bytes
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.outputStream.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.outputStream.write(b, off, len);
+			this.count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.outputStream.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.outputStream.close();
+		}
+	}
+}
@@ -4,50 +4,41 @@ import java.util.Arrays;
 import java.util.List;
 
 /**
- * Represents a n-gram
+ * Represents a n-gram.
+ * The tokens are stored as their ids in the global vocabulary.
  */
 public class NGram implements Comparable<NGram> {
-	private final Token[] tokens;
+	private final int[] ids;
 	private final int start;
 	private final int length;
 	
 	/**
 	 * Represents an empty n-gram
 	 */
-	public static final NGram EMPTY_GRAM = new NGram(new Token[0], false);
+	public static final NGram EMPTY_GRAM = new NGram(new int[0], 0, 0);
 	
 	/**
 	 * Creates a new n-gram
 	 * @param tokens The tokens
 	 */
 	public NGram(Token[] tokens) {
-		this(tokens, true);
-	}
-	
-	/**
-	 * Creates a new n-gram
-	 * @param tokens The tokens
-	 * @param copyArray Indicates if the given array is copied
-	 */
-	private NGram(Token[] tokens, boolean copyArray) {
 		this.start = 0;
 		this.length = tokens.length;
+		this.ids = new int[tokens.length];
 		
-		if (!copyArray) {
-			this.tokens = tokens;
-		} else {
-			this.tokens = Arrays.copyOf(tokens, tokens.length);
+		for (int i = 0; i < tokens.length; i++) {
+			this.ids[i] = tokens[i].getId();
 		}
 	}
 
 	/**
 	 * Creates a new n-gram
-	 * @param tokens The underlying tokens array
+	 * @param ids The underlying id array
 	 * @param start The start of the n-gram in the array
 	 * @param length The length of the n-gram
 	 */
-	private NGram(Token[] tokens, int start, int length) {
-		this.tokens = tokens;
+	private NGram(int[] ids, int start, int length) {
+		this.ids = ids;
 		this.start = start;
 		this.length = length;
 	}
@@ -58,7 +49,13 @@ public class NGram implements Comparable<NGram> {
 	 * @return
 	 */
 	public static NGram fromList(List<Token> tokens) {
-		return new NGram(tokens.toArray(new Token[tokens.size()]), false);
+		int[] ids = new int[tokens.size()];
+		
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = tokens.get(i).getId();
+		}
+		
+		return new NGram(ids, 0, ids.length);
 	}
 	
 	/**
@@ -67,14 +64,14 @@ public class NGram implements Comparable<NGram> {
 	 * @param others The other words
 	 */
 	public static NGram fromWords(String first, String... others) {
-		Token[] tokens = new Token[others.length + 1];
-		tokens[0] = new Token(first);
+		int[] ids = new int[others.length + 1];
+		ids[0] = Vocabulary.global().getId(first);
 		
 		for (int i = 0; i < others.length; i++) {
-			tokens[i + 1] = new Token(others[i]);
+			ids[i + 1] = Vocabulary.global().getId(others[i]);
 		}
 		
-		return new NGram(tokens, false);
+		return new NGram(ids, 0, ids.length);
 	}
 	
 	
@@ -84,15 +81,36 @@ public class NGram implements Comparable<NGram> {
 	 * @param others The other token
 	 */
 	public static NGram fromTokens(Token first, Token... others) {
-		Token[] tokens = new Token[others.length + 1];
-		tokens[0] = first;
+		int[] ids = new int[others.length + 1];
+		ids[0] = first.getId();
 		
 		for (int i = 0; i < others.length; i++) {
-			tokens[i + 1] = others[i];
+			ids[i + 1] = others[i].getId();
 		}
 		
-		return new NGram(tokens, false);
+		return new NGram(ids, 0, ids.length);
 	}
+	
+	/**
+	 * Creates a n-gram with the given token ids
+	 * @param ids The ids in the global vocabulary
+	 */
+	public static NGram fromIds(int... ids) {
+		if (ids.length == 0) {
+			return EMPTY_GRAM;
+		}
+		
+		return new NGram(Arrays.copyOf(ids, ids.length), 0, ids.length);
+	}
+	
+	/**
+	 * Creates a unigram with the given token id
+	 * @param id The id in the global vocabulary
+	 */
+	public static NGram fromId(int id) {
+		return new NGram(new int[] { id }, 0, 1);
+	}
+	
 	/**
 	 * Returns the length of the n-gram
 	 */
@@ -105,7 +123,22 @@ public class NGram implements Comparable<NGram> {
 	 * @param index The index
 	 */
 	public Token at(int index) {
-		return this.tokens[this.start + index];
+		return Vocabulary.global().getToken(this.ids[this.start + index]);
+	}
+	
+	/**
+	 * Returns the id of the token at the given index
+	 * @param index The index
+	 */
+	public int idAt(int index) {
+		return this.ids[this.start + index];
+	}
+	
+	/**
+	 * Returns the id of the last token
+	 */
+	public int lastId() {
+		return this.ids[this.start + this.length - 1];
 	}
 	
 	/**
@@ -123,7 +156,7 @@ public class NGram implements Comparable<NGram> {
 		}
 		
 		for (int i = 0; i < other.length(); i++) {
-			if (!this.at(i).equals(other.at(i))) {
+			if (this.idAt(i) != other.idAt(i)) {
 				return false;
 			}
 		}
@@ -152,7 +185,7 @@ public class NGram implements Comparable<NGram> {
 			return EMPTY_GRAM;
 		}
 		
-		return new NGram(this.tokens, this.start, length);
+		return new NGram(this.ids, this.start, length);
 	}
 	
 	/**
@@ -163,7 +196,7 @@ public class NGram implements Comparable<NGram> {
 			return EMPTY_GRAM;
 		}
 		
-		return new NGram(this.tokens, this.start, 1);
+		return new NGram(this.ids, this.start, 1);
 	}
 	
 	/**
@@ -174,7 +207,7 @@ public class NGram implements Comparable<NGram> {
 			return EMPTY_GRAM;
 		}
 		
-		return new NGram(this.tokens, this.start + 1, this.length() - 1);
+		return new NGram(this.ids, this.start + 1, this.length() - 1);
 	}
 	
 	/**
@@ -185,7 +218,7 @@ public class NGram implements Comparable<NGram> {
 			return EMPTY_GRAM;
 		}
 		
-		return new NGram(this.tokens, this.start + this.length() - 1, 1);
+		return new NGram(this.ids, this.start + this.length() - 1, 1);
 	}
 	
 	/**
@@ -194,26 +227,29 @@ public class NGram implements Comparable<NGram> {
 	 * @return The new n-gram
 	 */
 	public NGram append(NGram other) {
-		Token[] tokens = new Token[this.length() + other.length()];
-		
-		int i = 0;
-
-		for (int j = 0; j < this.length; j++) {
-			tokens[i++] = this.at(j);
-		}
-		
-		for (int j = 0; j < other.length; j++) {
-			tokens[i++] = other.at(j);
-		}
-		
-		return new NGram(tokens, false);
+		int[] ids = new int[this.length() + other.length()];
+		System.arraycopy(this.ids, this.start, ids, 0, this.length);
+		System.arraycopy(other.ids, other.start, ids, this.length, other.length);
+		return new NGram(ids, 0, ids.length);
+	}
+	
+	/**
+	 * Appends the given token id to the current n-gram, returning a new one
+	 * @param id The token id
+	 * @return The new n-gram
+	 */
+	public NGram append(int id) {
+		int[] ids = new int[this.length() + 1];
+		System.arraycopy(this.ids, this.start, ids, 0, this.length);
+		ids[this.length] = id;
+		return new NGram(ids, 0, ids.length);
 	}
 	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Helpers.arrayHashCode(this.tokens, this.start, this.length); 
+		result = prime * result + Helpers.arrayHashCode(this.ids, this.start, this.length); 
 		return result;
 	}
 
@@ -232,7 +268,7 @@ public class NGram implements Comparable<NGram> {
 		}
 		
 		NGram other = (NGram)obj;		
-		if (!Helpers.arrayEquals(this.tokens, this.start, this.length, other.tokens, other.start, other.length)) {
+		if (!Helpers.arrayEquals(this.ids, this.start, this.length, other.ids, other.start, other.length)) {
 			return false;
 		}
 		
@@ -0,0 +1,338 @@
+package aiprojekt;
+
+import java.util.Arrays;
+
+/**
+ * Represents a table that counts n-grams of length at most 3.
+ * The token ids of a n-gram are packed into a single long key, and the table uses
+ * open addressing with linear probing over primitive arrays, so no objects are allocated per n-gram.
+ */
+public class NGramCountTable {
+	/**
+	 * The maximum length of a n-gram in the table
+	 */
+	public static final int MAX_LENGTH = 3;
+
+	/**
+	 * The number of bits used for each token id in a key
+	 */
+	private static final int BITS_PER_ID = 21;
+
+	/**
+	 * The maximum token id that can be packed, so n-grams can only be counted if the vocabulary
+	 * has at most MAX_ID + 1 tokens (about 2.1 million)
+	 */
+	public static final int MAX_ID = (1 << BITS_PER_ID) - 2;
+
+	private static final long ID_MASK = (1L << BITS_PER_ID) - 1;
+
+	/**
+	 * The key that marks an empty slot. No n-gram packs to zero, as the ids are stored as id + 1.
+	 */
+	private static final long EMPTY_KEY = 0;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final double MAX_LOAD_FACTOR = 0.6;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	private int mask;
+
+	/**
+	 * Creates a new count table
+	 * @param expectedSize The expected number of n-grams
+	 */
+	public NGramCountTable(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * MAX_LOAD_FACTOR < expectedSize) {
+			capacity *= 2;
+		}
+
+		this.allocate(capacity);
+	}
+
+	/**
+	 * Creates a new count table
+	 */
+	public NGramCountTable() {
+		this(0);
+	}
+
+	/**
+	 * Allocates the arrays for the given capacity
+	 * @param capacity The capacity. Must be a power of two.
+	 */
+	private void allocate(int capacity) {
+		this.keys = new long[capacity];
+		this.counts = new int[capacity];
+		this.mask = capacity - 1;
+		this.size = 0;
+	}
+
+	/**
+	 * Packs the given token id at the given position of a key
+	 * @param key The key
+	 * @param index The position in the n-gram
+	 * @param id The token id
+	 * @return The new key
+	 */
+	public static long packId(long key, int index, int id) {
+		if (id < 0 || id > MAX_ID) {
+			throw new IllegalArgumentException("The token id " + id + " can't be packed, as at most "
+				+ (MAX_ID + 1) + " different tokens can be counted.");
+		}
+
+		return key | ((long)(id + 1) << (index * BITS_PER_ID));
+	}
+
+	/**
+	 * Packs the given n-gram into a key
+	 * @param ngram The n-gram
+	 */
+	public static long pack(NGram ngram) {
+		if (ngram.length() == 0 || ngram.length() > MAX_LENGTH) {
+			throw new IllegalArgumentException("Only n-grams of length 1 to " + MAX_LENGTH + " can be packed.");
+		}
+
+		long key = EMPTY_KEY;
+		for (int i = 0; i < ngram.length(); i++) {
+			key = packId(key, i, ngram.idAt(i));
+		}
+
+		return key;
+	}
+
+	/**
+	 * Returns the length of the n-gram with the given key
+	 * @param key The key
+	 */
+	public static int length(long key) {
+		int length = 0;
+		while (length < MAX_LENGTH && ((key >>> (length * BITS_PER_ID)) & ID_MASK) != 0) {
+			length++;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the token id at the given position in the key
+	 * @param key The key
+	 * @param index The position in the n-gram
+	 */
+	public static int idAt(long key, int index) {
+		return (int)((key >>> (index * BITS_PER_ID)) & ID_MASK) - 1;
+	}
+
+	/**
+	 * Unpacks the given key into a n-gram
+	 * @param key The key
+	 */
+	public static NGram unpack(long key) {
+		int[] ids = new int[length(key)];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = idAt(key, i);
+		}
+
+		return NGram.fromIds(ids);
+	}
+
+	/**
+	 * Returns the slot for the given key
+	 * @param key The key
+	 */
+	private int hash(long key) {
+		//The finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key & this.mask;
+	}
+
+	/**
+	 * Returns the number of n-grams in the table
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the count for the given key
+	 * @param key The key
+	 */
+	public int get(long key) {
+		int slot = this.hash(key);
+
+		while (this.keys[slot] != EMPTY_KEY) {
+			if (this.keys[slot] == key) {
+				return this.counts[slot];
+			}
+
+			slot = (slot + 1) & this.mask;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Returns the count for the given n-gram
+	 * @param ngram The n-gram
+	 */
+	public int get(NGram ngram) {
+		if (ngram.length() == 0 || ngram.length() > MAX_LENGTH) {
+			return 0;
+		}
+
+		return this.get(pack(ngram));
+	}
+
+	/**
+	 * Adds the given count to the given key
+	 * @param key The key
+	 * @param count The count
+	 * @return The count before adding
+	 */
+	public int add(long key, int count) {
+		int slot = this.hash(key);
+
+		while (this.keys[slot] != EMPTY_KEY) {
+			if (this.keys[slot] == key) {
+				int current = this.counts[slot];
+				this.counts[slot] = current + count;
+				return current;
+			}
+
+			slot = (slot + 1) & this.mask;
+		}
+
+		this.keys[slot] = key;
+		this.counts[slot] = count;
+		this.size++;
+
+		if (this.size > this.keys.length * MAX_LOAD_FACTOR) {
+			this.resize(this.keys.length * 2);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Inserts the given entry, which must not exist in the table
+	 * @param key The key
+	 * @param count The count
+	 */
+	private void insertNew(long key, int count) {
+		int slot = this.hash(key);
+		while (this.keys[slot] != EMPTY_KEY) {
+			slot = (slot + 1) & this.mask;
+		}
+
+		this.keys[slot] = key;
+		this.counts[slot] = count;
+		this.size++;
+	}
+
+	/**
+	 * Resizes the table to the given capacity
+	 * @param capacity The new capacity
+	 */
+	private void resize(int capacity) {
+		long[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+
+		this.allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY_KEY) {
+				this.insertNew(oldKeys[i], oldCounts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Adds all the entries in the given table to the current
+	 * @param other The other table
+	 */
+	public void addAll(NGramCountTable other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.keys[i] != EMPTY_KEY) {
+				this.add(other.keys[i], other.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Action for an entry in the table
+	 */
+	public interface OnEntryAction {
+		/**
+		 * Executes the action on the given entry
+		 * @param key The packed n-gram
+		 * @param count The count
+		 */
+		void execute(long key, int count);
+	}
+
+	/**
+	 * Executes the given action on all the entries
+	 * @param action The action
+	 */
+	public void forEach(OnEntryAction action) {
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != EMPTY_KEY) {
+				action.execute(this.keys[i], this.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Removes the n-grams with length > 1 that has a count <= the given threshold
+	 * @param threshold The threshold
+	 * @return The number of removed n-grams for each length, where index 0 is unigrams
+	 */
+	public int[] removeRare(int threshold) {
+		int[] removed = new int[MAX_LENGTH];
+		int kept = 0;
+
+		for (int i = 0; i < this.keys.length; i++) {
+			long key = this.keys[i];
+			if (key != EMPTY_KEY) {
+				int length = length(key);
+				if (length > 1 && this.counts[i] <= threshold) {
+					removed[length - 1]++;
+				} else {
+					kept++;
+				}
+			}
+		}
+
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * MAX_LOAD_FACTOR < kept) {
+			capacity *= 2;
+		}
+
+		long[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+		this.allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != EMPTY_KEY && (length(key) == 1 || oldCounts[i] > threshold)) {
+				this.insertNew(key, oldCounts[i]);
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Removes all the entries
+	 */
+	public void clear() {
+		Arrays.fill(this.keys, EMPTY_KEY);
+		Arrays.fill(this.counts, 0);
+		this.size = 0;
+	}
+}
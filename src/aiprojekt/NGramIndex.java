@@ -0,0 +1,102 @@
+package aiprojekt;
+
+import java.util.List;
+
+/**
+ * Represents a structure where the counts of n-grams can be looked up
+ */
+public interface NGramIndex {
+	/**
+	 * Finds the count for the given n-gram
+	 * @param ngram The n-gram
+	 */
+	int find(NGram ngram);
+	
+	/**
+	 * Finds the count for the n-gram made of the tokens of the given context from the given offset,
+	 * followed by the given token, without creating the n-gram.
+	 * The lookups with an offset are used to back off to the shorter contexts.
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 */
+	int find(NGram context, int offset, int id);
+	
+	/**
+	 * Finds the (n+1)-grams that starts with the given n-gram
+	 * @param ngram The n-gram
+	 * @return The results
+	 */
+	List<NGramTree.Result> findResults(NGram ngram);
+	
+	/**
+	 * Represents an action that is called for each token that follows a n-gram
+	 */
+	interface OnContinuationAction {
+		/**
+		 * Called for a token that follows the n-gram
+		 * @param id The token id
+		 * @param count The count of the n-gram followed by the token
+		 */
+		void execute(int id, int count);
+	}
+	
+	/**
+	 * Calls the given action for each token that follows the given n-gram, without creating any objects
+	 * @param ngram The n-gram
+	 * @param action The action
+	 */
+	void forEachContinuation(NGram ngram, OnContinuationAction action);
+	
+	/**
+	 * Calls the given action for each token that follows the tokens of the given context from the given offset
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 * @param action The action
+	 */
+	void forEachContinuation(NGram context, int offset, OnContinuationAction action);
+	
+	/**
+	 * Finds the tokens that follow the given n-gram, the most frequent first
+	 * @param ngram The n-gram
+	 * @return The continuations
+	 */
+	Continuations findContinuations(NGram ngram);
+	
+	/**
+	 * Indicates if the backoff weights and probabilities of all n-grams are stored in the index,
+	 * and can be found without locking
+	 */
+	boolean hasPrecomputedValues();
+	
+	/**
+	 * Finds the precomputed backoff weight (alpha) for the given context
+	 * @param context The context
+	 * @return The alpha, or NaN if it isn't stored
+	 */
+	double findAlpha(NGram context);
+	
+	/**
+	 * Finds the precomputed backoff weight (alpha) for the tokens of the given context from the given offset
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 * @return The alpha, or NaN if it isn't stored
+	 */
+	double findAlpha(NGram context, int offset);
+	
+	/**
+	 * Finds the precomputed probability of the last token of the given n-gram given the preceding tokens
+	 * @param ngram The n-gram
+	 * @return The probability, or NaN if it isn't stored
+	 */
+	double findProbability(NGram ngram);
+	
+	/**
+	 * Finds the precomputed probability of the given token given the tokens of the given context from the given offset
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 * @param id The token id, or -1 for the probability of the last token of the context
+	 * @return The probability, or NaN if it isn't stored
+	 */
+	double findProbability(NGram context, int offset, int id);
+}
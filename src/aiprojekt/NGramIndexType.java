@@ -0,0 +1,27 @@
+package aiprojekt;
+
+/**
+ * The types of search trees that a loaded model can use
+ */
+public enum NGramIndexType {
+	/**
+	 * A mutable tree with one hash map per node
+	 */
+	HASH_MAP,
+	
+	/**
+	 * An immutable tree in compressed sparse row form
+	 */
+	COMPACT,
+	
+	/**
+	 * An immutable double-array trie
+	 */
+	DOUBLE_ARRAY,
+	
+	/**
+	 * An immutable tree where the last level is read from a mapped model file on demand.
+	 * Loads the same as COMPACT from other files.
+	 */
+	PAGED
+}
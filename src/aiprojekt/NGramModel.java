@@ -1,16 +1,16 @@
 package aiprojekt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
- * Represents n-gram model
+ * Represents n-gram model.
+ * After the model is built or loaded, the probabilities and predictions can be computed by many threads at once.
  */
 public class NGramModel {
 	/**
@@ -20,7 +20,7 @@ public class NGramModel {
 	
 	private final int maxLength;
 	
-	private final Map<NGram, Integer> ngrams = new HashMap<NGram, Integer>();
+	private final NGramCountTable counts = new NGramCountTable();
 	private final List<NGram> topUnigrams = new ArrayList<NGram>();
 	private final int[] numNGrams;
 	private final int[] totalNGramCounts;
@@ -29,6 +29,14 @@ public class NGramModel {
 	private final int topUnigramsCount = 100;
 	
 	private final boolean isLoadMode;
+	
+	//Indicates if the n-grams are added to the hash map tree instead of the count table, which is the case in load mode
+	//and for n-grams longer than the count table can pack
+	private final boolean countsInTree;
+	
+	//A frozen model is read-only, and has no caches, as its search tree stores the precomputed values, see freeze()
+	private final boolean isFrozen;
+	private final boolean useCaches;
 		
 	/**
 	 * The start of sentence unigram
@@ -42,29 +50,97 @@ public class NGramModel {
 	public final static NGram END_OF_SENTENCE_UNIGRAM = NGram.fromTokens(
 			new Token(TokenType.END_OF_SENTENCE));
 	
-	//Cached values when executing the getProbability method.
-	private final Map<NGram, Double> probabilities = new HashMap<>();
-	private final Map<NGram, Double> alphas = new HashMap<>();
+	/**
+	 * The default maximum number of entries in each of the caches
+	 */
+	public static final int DEFAULT_CACHE_CAPACITY = 1 << 18;
+	
+	//The cache key of n-grams that can't be packed, which are never cached
+	private static final long NO_CACHE_KEY = -1;
+	
+	//Cached values when executing the getProbability method, keyed by the packed n-grams.
+	//The caches are striped, so the probabilities can be computed by many threads at once.
+	private volatile StripedProbabilityCache probabilities = new StripedProbabilityCache(DEFAULT_CACHE_CAPACITY);
+	private volatile StripedProbabilityCache alphas = new StripedProbabilityCache(DEFAULT_CACHE_CAPACITY);
+	
+	//The precomputed predictions of the frequent contexts, or null
+	private volatile PredictionTable predictionTable;
+	
+	//The word classes of the tokens used by the grammar check, or null if the words are tagged when checked
+	private volatile WordClasses wordClasses;
+	
+	//The precomputed probabilities are quantized, so they can be slightly larger than the probabilities computed
+	//from the counts, which is used as an upper bound when predicting
+	private static final double PROBABILITY_BOUND_SLACK = 1.001;
+	
+	//The scratch buffers of the candidates when computing the alphas, one for each context length of each thread,
+	//since computing an alpha computes the alphas of the shorter contexts
+	private static final ThreadLocal<Candidates[]> candidateBuffers = new ThreadLocal<Candidates[]>() {
+		@Override
+		protected Candidates[] initialValue() {
+			return new Candidates[0];
+		}
+	};
+	
+	//The scratch set of the scored continuations when predicting, for each thread
+	private static final ThreadLocal<IdSet> scoredIds = new ThreadLocal<IdSet>() {
+		@Override
+		protected IdSet initialValue() {
+			return new IdSet();
+		}
+	};
+	
+	//Indicates if the counts aren't real counts, so they can't be used to bound the probabilities, see setPseudoCounts()
+	private boolean hasPseudoCounts = false;
+	
+	/**
+	 * The n-grams of length > 1 with a count <= this are removed by end(true)
+	 */
+	public static final int RARE_THRESHOLD = 1;
 	
 	/**
 	 * The default n-gram max length
 	 */
 	public static final int DEFAULT_MAX_NGRAM_LENGTH = 3;
 	
-	private final NGramTree tree = NGramTree.createRootTree();
+	//In load mode, and in training mode with n-grams longer than NGramCountTable.MAX_LENGTH, the n-grams are added
+	//to the tree, which is also the search tree. Otherwise they are only counted in the table, and the search tree
+	//is built from the counts when needed, which is null until then.
+	private NGramTree tree;
+	private NGramIndex index;
 	
-	private final GoodTuringEstimation goodTuringEstimation = new GoodTuringEstimation();
+	private final GoodTuringEstimation goodTuringEstimation;
 	
 	/**
-	 * Creates a new N-gram model
+	 * Creates a new N-gram model. The n-grams of a model in training mode are counted in a count table,
+	 * unless they are longer than NGramCountTable.MAX_LENGTH, in which case they are counted in a hash map tree.
 	 * @param maxLength The maximum length of a n-gram
 	 * @param isLoadMode Load mode means that the n-gram are loaded from a file
 	 */
 	public NGramModel(int maxLength, boolean isLoadMode) {
+		this(maxLength, isLoadMode, isLoadMode || maxLength > NGramCountTable.MAX_LENGTH);
+	}
+	
+	/**
+	 * Creates a new N-gram model
+	 * @param maxLength The maximum length of a n-gram
+	 * @param isLoadMode Load mode means that the n-gram are loaded from a file
+	 * @param countsInTree Indicates if the n-grams are counted in the hash map tree instead of the count table
+	 */
+	private NGramModel(int maxLength, boolean isLoadMode, boolean countsInTree) {
 		this.maxLength = maxLength;
 		this.numNGrams = new int[maxLength];
 		this.totalNGramCounts = new int[maxLength];
 		this.isLoadMode = isLoadMode;
+		this.countsInTree = countsInTree;
+		this.isFrozen = false;
+		this.useCaches = true;
+		this.goodTuringEstimation = new GoodTuringEstimation();
+		
+		if (this.countsInTree) {
+			this.tree = NGramTree.createRootTree();
+			this.index = this.tree;
+		}
 	}
 	
 	/**
@@ -75,6 +151,113 @@ public class NGramModel {
 		this(maxLength, false);
 	}
 	
+	/**
+	 * Creates a new N-gram model that keeps learning after end(false), like the user model in WordPredictor.
+	 * The n-grams are counted in the hash map tree, which is also the search tree, so adding a n-gram
+	 * updates the search tree instead of making the next prediction build it again from the counts.
+	 * @param maxLength The maximum length of a n-gram
+	 */
+	public static NGramModel createLearningModel(int maxLength) {
+		return new NGramModel(maxLength, false, true);
+	}
+	
+	/**
+	 * Creates a read-only N-gram model that uses the given search tree
+	 * @param index The search tree
+	 * @param numNGrams The number of n-grams for each length
+	 * @param totalNGramCounts The total count for each n-gram length
+	 */
+	NGramModel(NGramIndex index, int[] numNGrams, int[] totalNGramCounts) {
+		this(numNGrams.length, true);
+		System.arraycopy(numNGrams, 0, this.numNGrams, 0, this.maxLength);
+		System.arraycopy(totalNGramCounts, 0, this.totalNGramCounts, 0, this.maxLength);
+		this.tree = null;
+		this.index = index;
+	}
+	
+	/**
+	 * Creates a frozen copy of the given model that uses the given search tree, which has the precomputed values
+	 * @param model The model
+	 * @param index The search tree
+	 */
+	private NGramModel(NGramModel model, NGramIndex index) {
+		this.maxLength = model.maxLength;
+		this.numNGrams = model.numNGrams.clone();
+		this.totalNGramCounts = model.totalNGramCounts.clone();
+		this.isLoadMode = true;
+		this.countsInTree = true;
+		this.isFrozen = true;
+		this.useCaches = false;
+		this.goodTuringEstimation = model.goodTuringEstimation.copy();
+		this.topUnigrams.addAll(model.topUnigrams);
+		this.index = index;
+		this.predictionTable = model.predictionTable;
+		this.wordClasses = model.wordClasses;
+		this.hasPseudoCounts = model.hasPseudoCounts;
+		this.probabilities = null;
+		this.alphas = null;
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the model, which should be called after end() or after the model is loaded.
+	 * The backoff weights and probabilities of a compact or hash map tree are precomputed, so the snapshot
+	 * doesn't need any caches, and getCount, getProbability and predictNext can be called by any number of threads
+	 * without locking. A mapped tree is read-only and is shared with the snapshot as it is.
+	 * @throws IllegalStateException If the search tree can't be searched without locking, which is the case for
+	 * a paged tree and for a tree loaded from a file without the precomputed values
+	 */
+	public NGramModel freeze() {
+		if (this.isFrozen) {
+			return this;
+		}
+		
+		NGramIndex frozenIndex = this.searchTree();
+		if (frozenIndex instanceof CompactNGramTree) {
+			frozenIndex = this.withPrecomputedValues((CompactNGramTree)frozenIndex);
+		} else if (this.tree != null) {
+			frozenIndex = this.toCompactTree();
+		}
+		
+		if (!frozenIndex.hasPrecomputedValues()) {
+			throw new IllegalStateException("Only a search tree with precomputed backoff weights and probabilities can be frozen.");
+		}
+		
+		return new NGramModel(this, frozenIndex);
+	}
+	
+	/**
+	 * Marks that the counts of the model aren't real counts, which is the case for a model with imported probabilities
+	 */
+	void setPseudoCounts() {
+		this.hasPseudoCounts = true;
+	}
+	
+	/**
+	 * Returns the word classes of the tokens, or null if they haven't been tagged
+	 */
+	public WordClasses getWordClasses() {
+		return this.wordClasses;
+	}
+	
+	/**
+	 * Sets the word classes of the tokens, which are used by the grammar check instead of tagging the words
+	 * @param wordClasses The word classes
+	 */
+	public void setWordClasses(WordClasses wordClasses) {
+		if (this.isFrozen) {
+			throw new IllegalStateException("The model is frozen.");
+		}
+		
+		this.wordClasses = wordClasses;
+	}
+	
+	/**
+	 * Indicates if the model is a frozen snapshot
+	 */
+	public boolean isFrozen() {
+		return this.isFrozen;
+	}
+	
 	/**
 	 * Returns the Good-Turing estimator
 	 */
@@ -89,18 +272,55 @@ public class NGramModel {
 		return this.maxLength;
 	}
 	
+	/**
+	 * Returns the maximum number of top ranked unigrams
+	 */
+	public int topUnigramsCount() {
+		return this.topUnigramsCount;
+	}
+	
 	/**
 	 * Returns the top ranked unigrams
 	 */
 	public List<NGram> topUnigrams() {
+		if (this.isFrozen) {
+			return Collections.unmodifiableList(this.topUnigrams);
+		}
+		
 		return this.topUnigrams;
 	}
 	
 	/**
-	 * Returns the n-grams
+	 * Returns a copy of the counted n-grams. Only the n-grams added when not in load mode are counted.
 	 */
 	public Map<NGram, Integer> getNgrams() {
-		return this.ngrams;
+		if (!this.isLoadMode && this.countsInTree) {
+			Map<NGram, Integer> ngrams = new HashMap<>();
+			for (int length = 1; length <= this.maxLength; length++) {
+				for (NGramTree.Result result : this.tree.findNgrams(length)) {
+					ngrams.put(result.getNgram(), result.getCount());
+				}
+			}
+			
+			return ngrams;
+		}
+		
+		final Map<NGram, Integer> ngrams = new HashMap<>(this.counts.size() * 2);
+		this.counts.forEach(new NGramCountTable.OnEntryAction() {
+			@Override
+			public void execute(long key, int count) {
+				ngrams.put(NGramCountTable.unpack(key), count);
+			}
+		});
+		return ngrams;
+	}
+	
+	/**
+	 * Returns the table with the counted n-grams. Only the n-grams added when not in load mode are counted,
+	 * and only if they are at most NGramCountTable.MAX_LENGTH long.
+	 */
+	public NGramCountTable getCountTable() {
+		return this.counts;
 	}
 	
 	/**
@@ -143,8 +363,228 @@ public class NGramModel {
 	/**
 	 * Returns the search tree
 	 */
-	public NGramTree searchTree() {
-		return this.tree;
+	public NGramIndex searchTree() {
+		if (this.index == null) {
+			this.index = CompactNGramTree.fromTable(this.counts, this.maxLength);
+		}
+		
+		return this.index;
+	}
+	
+	/**
+	 * Replaces the search tree of a loaded model with a read-only tree of the given type.
+	 * No n-grams can be added to the model after this, unless the type is HASH_MAP.
+	 * @param type The type of tree
+	 */
+	public void compact(NGramIndexType type) {
+		if (!this.isLoadMode || this.tree == null || type == NGramIndexType.HASH_MAP) {
+			return;
+		}
+		
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(this.tree, this.maxLength);
+		this.tree = null;
+		
+		if (type == NGramIndexType.DOUBLE_ARRAY) {
+			this.index = DoubleArrayNGramTree.fromTree(compactTree);
+		} else {
+			this.index = compactTree;
+		}
+	}
+	
+	/**
+	 * Replaces the search tree with a compact, read-only tree.
+	 * No n-grams can be added to the model after this.
+	 */
+	public void compact() {
+		this.compact(NGramIndexType.COMPACT);
+	}
+	
+	/**
+	 * Returns the n-grams in the model as a compact tree, with backoff weights and quantized probabilities
+	 */
+	public CompactNGramTree toCompactTree() {
+		CompactNGramTree compactTree;
+		
+		if (!this.countsInTree) {
+			compactTree = CompactNGramTree.fromTable(this.counts, this.maxLength);
+		} else if (this.index instanceof CompactNGramTree) {
+			compactTree = (CompactNGramTree)this.index;
+		} else if (this.tree != null) {
+			compactTree = CompactNGramTree.fromTree(this.tree, this.maxLength);
+		} else {
+			throw new IllegalStateException("The search tree can't be converted to a compact tree.");
+		}
+		
+		return this.withPrecomputedValues(compactTree);
+	}
+	
+	/**
+	 * Returns the given tree with the backoff weights and quantized probabilities that it doesn't already have
+	 * @param compactTree The tree
+	 */
+	private CompactNGramTree withPrecomputedValues(CompactNGramTree compactTree) {
+		if (!compactTree.hasAlphas()) {
+			compactTree = compactTree.withAlphas(this.computeAlphas(compactTree));
+		}
+		
+		if (!compactTree.hasProbabilities()) {
+			double[][] probabilities = this.computeProbabilities(compactTree);
+			ProbabilityCodebook codebook = ProbabilityCodebook.fit(probabilities);
+			compactTree = compactTree.withProbabilities(codebook, codebook.encode(probabilities));
+		}
+		
+		return compactTree;
+	}
+	
+	/**
+	 * Computes the probability of each n-gram in the given tree given its first n-1 tokens, the same way as getProbability.
+	 * The probability of n-grams that haven't been seen is NaN.
+	 * @param tree The tree
+	 * @return The probabilities of each level
+	 */
+	private double[][] computeProbabilities(CompactNGramTree tree) {
+		double[][] probabilities = new double[tree.numLevels()][];
+		
+		for (int level = 0; level < tree.numLevels(); level++) {
+			int[] counts = tree.getCounts(level);
+			int[] offsets = level > 0 ? tree.getChildOffsets(level - 1) : new int[] { 0, counts.length };
+			int[] parentCounts = level > 0 ? tree.getCounts(level - 1) : new int[] { this.totalCountForNGramLength(1) };
+			probabilities[level] = new double[counts.length];
+			
+			for (int parent = 0; parent < offsets.length - 1; parent++) {
+				for (int i = offsets[parent]; i < offsets[parent + 1]; i++) {
+					int count = counts[i];
+					if (count > this.matchThreshold) {
+						probabilities[level][i] = this.goodTuringEstimation.discount(count) * (double)count / parentCounts[parent];
+					} else {
+						probabilities[level][i] = Double.NaN;
+					}
+				}
+			}
+		}
+		
+		return probabilities;
+	}
+	
+	/**
+	 * Returns the probability of observing the given unigram, using the counts in the given tree
+	 * @param tree The tree
+	 * @param id The token id of the unigram
+	 */
+	private double getUnigramProbability(CompactNGramTree tree, int id) {
+		int node = tree.findChild(-1, 0, id);
+		int count = node >= 0 ? tree.getCounts(0)[node] : 0;
+		
+		if (count > 0) {
+			double d = this.goodTuringEstimation.discount(count);
+			return d * (double)count / this.totalCountForNGramLength(1);
+		} else {
+			return this.goodTuringEstimation.estimate(0);
+		}
+	}
+	
+	/**
+	 * Returns the probability of observing the given unigram given a context in the given tree,
+	 * where the alphas of the context and its shorter contexts are computed
+	 * @param tree The tree
+	 * @param alphas The alphas of each level
+	 * @param rests The node of each context without its first token
+	 * @param level The level of the context, where -1 is the empty context
+	 * @param node The index of the context
+	 * @param id The token id of the unigram
+	 */
+	private double getProbability(CompactNGramTree tree, double[][] alphas, int[][] rests, int level, int node, int id) {
+		if (level < 0) {
+			return this.getUnigramProbability(tree, id);
+		}
+		
+		int child = tree.findChild(level, node, id);
+		int count = child >= 0 ? tree.getCounts(level + 1)[child] : 0;
+		
+		if (count > this.matchThreshold) {
+			double d = this.goodTuringEstimation.discount(count);
+			return d * (double)count / tree.getCounts(level)[node];
+		} else {
+			return alphas[level][node] * this.getProbability(tree, alphas, rests, level - 1, rests[level][node], id);
+		}
+	}
+	
+	/**
+	 * Computes the alpha value of each context in the given tree, the same way as getAlpha
+	 * @param tree The tree
+	 * @return The alphas of each level except the last, or null if a context without its first token isn't in the tree
+	 */
+	private double[][] computeAlphas(CompactNGramTree tree) {
+		int numContextLevels = tree.numLevels() - 1;
+		double[][] alphas = new double[numContextLevels][];
+		int[][] rests = new int[numContextLevels][];
+		
+		int[] topIds = new int[this.topUnigrams.size()];
+		for (int i = 0; i < topIds.length; i++) {
+			topIds[i] = this.topUnigrams.get(i).idAt(0);
+		}
+		
+		for (int level = 0; level < numContextLevels; level++) {
+			int[] ids = tree.getIds(level);
+			int[] counts = tree.getCounts(level);
+			int[] childOffsets = tree.getChildOffsets(level);
+			int[] childIds = tree.getIds(level + 1);
+			int[] childCounts = tree.getCounts(level + 1);
+			alphas[level] = new double[ids.length];
+			rests[level] = new int[ids.length];
+			
+			//The rest of a context is the child of the rest of its parent, and the rest of a unigram is the root
+			if (level > 0) {
+				int[] parentOffsets = tree.getChildOffsets(level - 1);
+				for (int parent = 0; parent < parentOffsets.length - 1; parent++) {
+					int parentRest = level > 1 ? rests[level - 1][parent] : 0;
+					for (int i = parentOffsets[parent]; i < parentOffsets[parent + 1]; i++) {
+						rests[level][i] = tree.findChild(level - 2, parentRest, ids[i]);
+						if (rests[level][i] < 0) {
+							return null;
+						}
+					}
+				}
+			}
+			
+			for (int node = 0; node < ids.length; node++) {
+				double beta = 1.0;
+				double restSum = 0.0;
+				
+				for (int i = childOffsets[node]; i < childOffsets[node + 1]; i++) {
+					int count = childCounts[i];
+					if (count > this.matchThreshold && !isSentenceMarker(childIds[i])) {
+						double d = this.goodTuringEstimation.discount(count);
+						beta -= d * (double)count / counts[node];
+					}
+				}
+				
+				for (int id : topIds) {
+					if (id == ids[node]) {
+						continue;
+					}
+					
+					int child = tree.findChild(level, node, id);
+					if (child < 0 || childCounts[child] <= this.matchThreshold) {
+						restSum += this.getProbability(tree, alphas, rests, level - 1, rests[level][node], id);
+					}
+				}
+				
+				double alpha = beta / restSum;
+				
+				if (restSum == 0 || beta == 0.0) {
+					alpha = 1E-6;
+				}
+				
+				if (alpha > 1) {
+					alpha = 1.0;
+				}
+				
+				alphas[level][node] = alpha;
+			}
+		}
+		
+		return alphas;
 	}
 		
 	/**
@@ -175,34 +615,97 @@ public class NGramModel {
  	 * @param count The count
  	 */
  	public void addNGram(NGram ngram, int count) {		
-		if (!this.isLoadMode) {
-			int currentCount = 0;
-			
-			if (this.ngrams.containsKey(ngram)) {
-				currentCount = this.ngrams.get(ngram);
-			} else {
-				this.numNGrams[ngram.length() - 1]++;			
-			}
-			
-			this.ngrams.put(ngram, currentCount + count);
+		if (this.countsInTree && this.tree == null) {
+			throw new IllegalStateException("The model has been compacted.");
+		}
+		
+		if (!this.countsInTree) {
+			this.addNGram(NGramCountTable.pack(ngram), ngram.length(), count);
 		} else {
 			if (this.tree.find(ngram) == 0) {
 				this.numNGrams[ngram.length() - 1]++;	
 			}
+			
+			this.tree.insert(ngram, count);
+			this.totalNGramCounts[ngram.length() - 1] += count;
+			this.index = this.tree;
+			this.predictionTable = null;
 		}
+ 	}
+ 	
+ 	/**
+ 	 * Adds the given packed n-gram to the counts, invalidating the search tree
+ 	 * @param key The packed n-gram
+ 	 * @param length The length of the n-gram
+ 	 * @param count The count
+ 	 */
+ 	void addNGram(long key, int length, int count) {
+ 		int size = this.counts.size();
+		this.counts.add(key, count);
 		
-		this.tree.insert(ngram, count);
-		this.totalNGramCounts[ngram.length() - 1] += count;
+		if (this.counts.size() > size) {
+			this.numNGrams[length - 1]++;
+		}
+		
+		this.totalNGramCounts[length - 1] += count;
+		this.index = null;
+		this.predictionTable = null;
  	}
  	
+	/**
+	 * Adds the count of a n-gram that isn't added because end() would remove it, so the total counts
+	 * are the same as if it had been added
+	 * @param length The length of the n-gram
+	 * @param count The count
+	 */
+	void addRemovedNGram(int length, int count) {
+		this.totalNGramCounts[length - 1] += count;
+	}
+	
 	/**
 	 * Process the given tokens, adding them to the model
 	 * @param tokens The tokens
 	 */
 	public void processTokens(List<Token> tokens) {
-		for (NGram ngram : getNgrams(tokens, this.maxLength)) {
-			this.addNGram(ngram, 1);
+		if (this.countsInTree && this.tree == null) {
+			throw new IllegalStateException("The model has been compacted.");
+		}
+		
+		if (this.countsInTree) {
+			for (NGram ngram : getNgrams(tokens, this.maxLength)) {
+				this.addNGram(ngram, 1);
+			}
+			
+			return;
+		}
+		
+		for (int i = 0; i < tokens.size(); i++) {
+			long key = 0;
+			
+			//Creates the unigram, bigrams, trigrams, ...
+			for (int j = i; j < Math.min(i + this.maxLength, tokens.size()); j++) {
+				key = NGramCountTable.packId(key, j - i, tokens.get(j).getId());
+				this.addNGram(key, j - i + 1, 1);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the counted n-grams in the given table to the model
+	 * @param table The table
+	 */
+	public void addNGrams(NGramCountTable table) {
+		if (this.countsInTree) {
+			throw new IllegalStateException("Counted n-grams can't be added in load mode or with n-grams longer than "
+				+ NGramCountTable.MAX_LENGTH + ".");
 		}
+		
+		table.forEach(new NGramCountTable.OnEntryAction() {
+			@Override
+			public void execute(long key, int count) {
+				addNGram(key, NGramCountTable.length(key), count);
+			}
+		});
 	}
 	
 	/**
@@ -219,46 +722,101 @@ public class NGramModel {
 	
 	/**
 	 * Should be called after all tokens has been processed.
+	 * When the rare n-grams are removed, the search tree is built with precomputed backoff weights and probabilities.
+	 * Otherwise the search tree is built when it is first needed and the values are computed and cached when needed,
+	 * as a model that keeps learning, like the user model in WordPredictor, calls end(false) after each sentence.
+	 * Such a model should be created with createLearningModel(), whose search tree is updated as the n-grams are added.
 	 * @param removeUnique Indicates if unique n-grams of length > 1 is removed
 	 */
 	public void end(boolean removeUnique) {
-		int threshold = 1;
+		this.end(removeUnique, removeUnique);
+	}
+	
+	/**
+	 * Should be called after all tokens has been processed.
+	 * @param removeUnique Indicates if unique n-grams of length > 1 is removed
+	 * @param precompute Indicates if the search tree is built with precomputed backoff weights and probabilities,
+	 * which should only be done if no more tokens are added
+	 */
+	public void end(boolean removeUnique, boolean precompute) {
+		if (this.isFrozen) {
+			throw new IllegalStateException("The model is frozen.");
+		}
+		
+		int threshold = RARE_THRESHOLD;
 		this.topUnigrams.clear();
+		this.predictionTable = null;
+		this.clearCache();
 		
-		List<NGram> toRemove = new ArrayList<NGram>();
-		
-		for (Map.Entry<NGram, Integer> current : this.ngrams.entrySet()) {
-			NGram ngram = current.getKey();
-			if (removeUnique && ngram.length() > 1 && current.getValue() <= threshold) {
-				toRemove.add(ngram);
-				this.numNGrams[ngram.length() - 1]--;
-			} else if (ngram.length() == 1) { // Adding all unigrams
-				if (!ngram.equals(START_OF_SENTENCE_UNIGRAM)
-					&& !ngram.equals(END_OF_SENTENCE_UNIGRAM)) {
-					this.topUnigrams.add(ngram);			
+		//The search tree keeps the rare n-grams, so it is built before they are removed
+		CompactNGramTree tree = null;
+		if (precompute) {
+			tree = this.countsInTree
+				? CompactNGramTree.fromTree(this.tree, this.maxLength)
+				: CompactNGramTree.fromTable(this.counts, this.maxLength);
+			this.index = tree;
+		} else {
+			this.index = this.tree;
+		}
+		
+		// Adding all unigrams
+		if (this.countsInTree) {
+			for (NGramTree.Result result : this.tree.findNgrams(1)) {
+				if (!isSentenceMarker(result.getNgram().lastId())) {
+					topUnigrams.add(result.getNgram());
 				}
 				
-				this.goodTuringEstimation.addObservation(current.getValue());
+				goodTuringEstimation.addObservation(result.getCount());
+			}
+		} else {
+			this.counts.forEach(new NGramCountTable.OnEntryAction() {
+				@Override
+				public void execute(long key, int count) {
+					if (NGramCountTable.length(key) == 1) {
+						if (!isSentenceMarker(NGramCountTable.idAt(key, 0))) {
+							topUnigrams.add(NGramCountTable.unpack(key));
+						}
+						
+						goodTuringEstimation.addObservation(count);
+					}
+				}
+			});
+		}
+		
+		if (removeUnique) {
+			int[] removed = this.countsInTree ? this.tree.removeRare(threshold, this.maxLength) : this.counts.removeRare(threshold);
+			for (int i = 0; i < this.maxLength; i++) {
+				this.numNGrams[i] -= removed[i];
 			}
 		}
 
-		// Sort the unigrams by count
+		// Sort the unigrams by count, which are in the table or the tree, so the search tree isn't needed
 		Collections.sort(topUnigrams, new Comparator<NGram>() {
 			public int compare(NGram a, NGram b) {
-				return Integer.compare(getCount(b), getCount(a));
+				return Integer.compare(unigramCount(b), unigramCount(a));
 			}
 		});
 		
-		for (NGram ngram : toRemove) {
-			this.ngrams.remove(ngram);
-		}
-		
 		// Removing all except for top
 		while (this.topUnigrams.size() > this.topUnigramsCount) {
 			this.topUnigrams.remove(topUnigrams.size() - 1);
 		}
 				
 		this.goodTuringEstimation.fitToData();
+		
+		if (tree != null) {
+			double[][] probabilities = this.computeProbabilities(tree);
+			ProbabilityCodebook codebook = ProbabilityCodebook.fit(probabilities);
+			this.index = tree.withAlphas(this.computeAlphas(tree)).withProbabilities(codebook, codebook.encode(probabilities));
+		}
+	}
+	
+	/**
+	 * Returns the count of the given unigram from the counts, without the search tree
+	 * @param unigram The unigram
+	 */
+	private int unigramCount(NGram unigram) {
+		return this.countsInTree ? this.tree.find(unigram) : this.counts.get(NGramCountTable.pack(unigram));
 	}
 	
 	/**
@@ -273,13 +831,7 @@ public class NGramModel {
 	 * @param ngram The n-gram
 	 */
 	public int getCount(NGram ngram) {
-		return this.tree.find(ngram);
-		
-//		if (this.ngrams.containsKey(ngram)) {
-//			return this.ngrams.get(ngram);
-//		}
-//		
-//		return 0;
+		return this.searchTree().find(ngram);
 	}
 	
 	/**
@@ -328,48 +880,151 @@ public class NGramModel {
 	 * Clears the caches
 	 */
 	public void clearCache() {
+		if (!this.useCaches) {
+			return;
+		}
+		
 		this.probabilities.clear();
 		this.alphas.clear();
 	}
+	
+	/**
+	 * Replaces the caches with empty caches of the given size
+	 * @param capacity The maximum number of entries in each of the caches
+	 */
+	public void setCacheCapacity(int capacity) {
+		if (this.isFrozen) {
+			throw new IllegalStateException("The model is frozen.");
+		}
 		
+		this.probabilities = new StripedProbabilityCache(capacity);
+		this.alphas = new StripedProbabilityCache(capacity);
+	}
+	
 	/**
-	 * Returns the possible unigrams for the given n-gram
-	 * @param ngram The n-gram
-	 * @param includeTopUnigrams Indicates if to include the top unigrams
+	 * Replaces the caches with empty caches that use at most about the given number of bytes together
+	 * @param bytes The number of bytes
 	 */
-	private Set<NGram> getPossibleUnigrams(NGram ngram, boolean includeTopUnigrams) {
-		NGram lastNgram = ngram.last();
+	public void setCacheMemoryLimit(long bytes) {
+		if (this.isFrozen) {
+			throw new IllegalStateException("The model is frozen.");
+		}
 		
-		Set<NGram> possibleNGrams = new HashSet<>();
-		if (includeTopUnigrams) {
-			for (NGram unigram : this.topUnigrams) {
-				if (unigram.equals(lastNgram)) {
-					continue;
-				}
-				
-				possibleNGrams.add(unigram);
+		this.probabilities = StripedProbabilityCache.withMemoryLimit(bytes / 2);
+		this.alphas = StripedProbabilityCache.withMemoryLimit(bytes / 2);
+	}
+	
+	/**
+	 * Returns the cache of the probabilities, or null if the model is a frozen snapshot without caches
+	 */
+	public StripedProbabilityCache getProbabilityCache() {
+		return this.probabilities;
+	}
+	
+	/**
+	 * Returns the cache key for the tokens of the given context from the given offset followed by the given token,
+	 * without creating the joined n-gram
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 * @param id The following token id, or -1 for no token
+	 * @return The packed n-gram, or NO_CACHE_KEY if it can't be packed
+	 */
+	private static long cacheKey(NGram context, int offset, int id) {
+		int length = context.length() - offset + (id < 0 ? 0 : 1);
+		if (length == 0 || length > NGramCountTable.MAX_LENGTH) {
+			return NO_CACHE_KEY;
+		}
+		
+		long key = 0;
+		for (int i = 0; i < length; i++) {
+			int currentId = offset + i < context.length() ? context.idAt(offset + i) : id;
+			if (currentId < 0 || currentId > NGramCountTable.MAX_ID) {
+				return NO_CACHE_KEY;
 			}
+			
+			key = NGramCountTable.packId(key, i, currentId);
 		}
 		
-		for (NGramTree.Result result : this.tree.findResults(ngram)) {
-			NGram word = result.getNgram().last();
-			if (!(word.equals(START_OF_SENTENCE_UNIGRAM)
-				  || word.equals(END_OF_SENTENCE_UNIGRAM))) {
-				possibleNGrams.add(word);
+		return key;
+	}
+	
+	/**
+	 * Returns the cache key for the given n-gram
+	 * @param ngram The n-gram
+	 * @return The packed n-gram, or NO_CACHE_KEY if it can't be packed
+	 */
+	private static long cacheKey(NGram ngram) {
+		return cacheKey(ngram, 0, -1);
+	}
+		
+	/**
+	 * Indicates if the given token id is a start or end of sentence marker
+	 * @param id The token id
+	 */
+	private static boolean isSentenceMarker(int id) {
+		return id == Vocabulary.START_OF_SENTENCE_ID || id == Vocabulary.END_OF_SENTENCE_ID;
+	}
+	
+	/**
+	 * Represents the continuations of a context, collected into reusable primitive arrays,
+	 * and the set of the candidate tokens that have been visited
+	 */
+	private static class Candidates implements NGramIndex.OnContinuationAction {
+		private int[] ids = new int[64];
+		private int[] counts = new int[64];
+		private int size = 0;
+		private final IdSet visited = new IdSet();
+		
+		/**
+		 * Clears the candidates
+		 */
+		public void clear() {
+			this.size = 0;
+			this.visited.clear();
+		}
+		
+		@Override
+		public void execute(int id, int count) {
+			if (this.size == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, this.size * 2);
+				this.counts = Arrays.copyOf(this.counts, this.size * 2);
 			}
+			
+			this.ids[this.size] = id;
+			this.counts[this.size] = count;
+			this.size++;
 		}
-				
-		return possibleNGrams;
+	}
+	
+	/**
+	 * Returns the candidate buffer of the current thread for contexts of the given length
+	 * @param length The context length
+	 */
+	private static Candidates candidateBuffer(int length) {
+		Candidates[] buffers = candidateBuffers.get();
+		if (length >= buffers.length) {
+			buffers = Arrays.copyOf(buffers, length + 1);
+			candidateBuffers.set(buffers);
+		}
+		
+		if (buffers[length] == null) {
+			buffers[length] = new Candidates();
+		}
+		
+		return buffers[length];
 	}
 	
 	/**
 	 * Adds the given n-gram probability to the cache
-	 * @param ngram The n-gram
+	 * @param key The cache key of the n-gram
 	 * @param probability The probability of the n-gram
 	 * @return The probability
 	 */
-	private double addProbability(NGram ngram, double probability) {
-		this.probabilities.put(ngram, probability);				
+	private double addProbability(long key, double probability) {
+		if (key != NO_CACHE_KEY) {
+			this.probabilities.put(key, probability);
+		}
+		
 		return probability;
 	}
 	
@@ -378,33 +1033,64 @@ public class NGramModel {
 	 * @param ngram The n-gram
 	 * @param unigram The unigram
 	 */
-	public double getProbability(NGram ngram, NGram unigram) {		
-		if (ngram.equals(NGram.EMPTY_GRAM)) {	
-			if (this.probabilities.containsKey(unigram)) {
-				return this.probabilities.get(unigram);
+	public double getProbability(NGram ngram, NGram unigram) {
+		return this.getProbability(ngram, unigram.lastId());
+	}
+	
+	/**
+	 * Returns the probability of observing the given token given a n-gram
+	 * @param ngram The n-gram
+	 * @param id The token id
+	 */
+	private double getProbability(NGram ngram, int id) {
+		return this.getProbability(ngram, 0, id);
+	}
+	
+	/**
+	 * Returns the probability of observing the given token given the tokens of the given context from the given offset.
+	 * The context is backed off by increasing the offset, so no n-grams are created.
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 * @param id The token id
+	 */
+	private double getProbability(NGram context, int offset, int id) {
+		long key = !this.useCaches ? NO_CACHE_KEY : cacheKey(context, offset, id);
+		if (key != NO_CACHE_KEY) {
+			double cachedProbability = this.probabilities.get(key);
+			if (!Double.isNaN(cachedProbability)) {
+				return cachedProbability;
+			}
+		}
+		
+		NGramIndex index = this.searchTree();
+		
+		if (context.length() == offset) {	
+			double precomputedProbability = index.findProbability(context, offset, id);
+			if (!Double.isNaN(precomputedProbability)) {
+				return this.addProbability(key, precomputedProbability);
 			}
 			
-			int count = getCount(unigram);
+			int count = index.find(context, offset, id);
 						
 			if (count > 0) {
-				double d = this.goodTuringEstimation.estimate(count) / count;		
-				return this.addProbability(unigram, d * (double)count / this.totalCountForNGramLength(1));
+				double d = this.goodTuringEstimation.discount(count);		
+				return this.addProbability(key, d * (double)count / this.totalCountForNGramLength(1));
 			} else {				
-				return this.addProbability(unigram, this.goodTuringEstimation.estimate(0));
+				return this.addProbability(key, this.goodTuringEstimation.estimate(0));
 			}
 		}
 		
-		NGram predictedNgram = ngram.append(unigram);
-		if (this.probabilities.containsKey(predictedNgram)) {
-			return this.probabilities.get(predictedNgram);
+		double precomputedProbability = index.findProbability(context, offset, id);
+		if (!Double.isNaN(precomputedProbability)) {
+			return this.addProbability(key, precomputedProbability);
 		}
 		
-		int count = getCount(predictedNgram);
+		int count = index.find(context, offset, id);
 		if (count > this.matchThreshold) {							
-			double d = this.goodTuringEstimation.estimate(count) / count;
-			return this.addProbability(predictedNgram, d * (double)count / getCount(ngram));
+			double d = this.goodTuringEstimation.discount(count);
+			return this.addProbability(key, d * (double)count / index.find(context, offset, -1));
 		} else {			
-			return this.addProbability(predictedNgram, getAlpha(ngram) * getProbability(ngram.rest(), unigram));
+			return this.addProbability(key, getAlpha(context, offset) * getProbability(context, offset + 1, id));
 		}
 	}
 	
@@ -412,25 +1098,66 @@ public class NGramModel {
 	 * Returns the alpha value for the given n-gram
 	 * @param ngram The n-gram
 	 */
-	private double getAlpha(NGram ngram) {
-		if (this.alphas.containsKey(ngram)) {
-			return this.alphas.get(ngram);
+	double getAlpha(NGram ngram) {
+		return this.getAlpha(ngram, 0);
+	}
+	
+	/**
+	 * Returns the alpha value for the tokens of the given context from the given offset
+	 * @param context The context
+	 * @param offset The index of the first token of the context that is used
+	 */
+	private double getAlpha(NGram context, int offset) {
+		long key = !this.useCaches ? NO_CACHE_KEY : cacheKey(context, offset, -1);
+		if (key != NO_CACHE_KEY) {
+			double cachedAlpha = this.alphas.get(key);
+			if (!Double.isNaN(cachedAlpha)) {
+				return cachedAlpha;
+			}
 		}
 		
-		int ngramCount = getCount(ngram);
+		double precomputedAlpha = this.searchTree().findAlpha(context, offset);
+		if (!Double.isNaN(precomputedAlpha)) {
+			return precomputedAlpha;
+		}
+		
+		int length = context.length() - offset;
+		int ngramCount = this.searchTree().find(context, offset, -1);
 		
 		double beta = 1.0;
 		double restSum = 0.0;
 		
-		for (NGram unigram : this.getPossibleUnigrams(ngram, true)) {
-			NGram predictedNgram = ngram.append(unigram);
+		//The possible tokens are the continuations, except the sentence markers, and the top unigrams,
+		//except the last token of the n-gram. They are collected before computing any probabilities,
+		//since that computes the alphas of the shorter contexts.
+		Candidates candidates = candidateBuffer(length);
+		candidates.clear();
+		this.searchTree().forEachContinuation(context, offset, candidates);
+		
+		//The offset of the shorter context, where the shorter context of an empty context is empty
+		int rest = Math.min(offset + 1, context.length());
+
+		for (int i = 0; i < candidates.size; i++) {
+			int id = candidates.ids[i];
+			if (isSentenceMarker(id)) {
+				continue;
+			}
 			
-			int count = getCount(predictedNgram);
+			candidates.visited.add(id);
+			int count = candidates.counts[i];
 			if (count > this.matchThreshold) {
-				double d = this.goodTuringEstimation.estimate(count) / count;
+				double d = this.goodTuringEstimation.discount(count);
 				beta -= d * (double)count / ngramCount;
 			} else {
-				restSum += getProbability(ngram.rest(), unigram);
+				restSum += getProbability(context, rest, id);
+			}
+		}
+		
+		int lastId = length == 0 ? -1 : context.lastId();
+		for (int i = 0; i < this.topUnigrams.size(); i++) {
+			int id = this.topUnigrams.get(i).lastId();
+			if (id != lastId && !candidates.visited.contains(id)) {
+				restSum += getProbability(context, rest, id);
 			}
 		}
 					
@@ -445,56 +1172,188 @@ public class NGramModel {
 			alpha = 1.0;
 		}
 				
-		this.alphas.put(ngram, alpha);
+		if (key != NO_CACHE_KEY) {
+			this.alphas.put(key, alpha);
+		}
+		
 		return alpha;
 	}
 	
 	/**
-	 * Predicts the most probable (n+1)-gram for the given n-gram
+	 * Precomputes the top predictions of the contexts that have been seen at least the given number of times,
+	 * which predictNext then returns without computing any probabilities, unless GRAMMAR_CHECK is used.
+	 * The predictions are removed when n-grams are added to the model.
+	 * @param numResults The number of predictions to store for each context
+	 * @param minCount The minimum count of a context
+	 */
+	public void precomputePredictions(int numResults, int minCount) {
+		if (this.isFrozen) {
+			throw new IllegalStateException("The model is frozen.");
+		}
+		
+		this.predictionTable = null;
+		PredictionTable table = new PredictionTable(numResults);
+		
+		//The contexts of each length are the frequent continuations of the shorter contexts
+		List<NGram> contexts = Collections.singletonList(NGram.EMPTY_GRAM);
+		for (int length = 1; length < this.maxLength; length++) {
+			List<NGram> nextContexts = new ArrayList<>();
+			for (NGram context : contexts) {
+				for (NGramTree.Result result : this.searchTree().findResults(context)) {
+					if (result.getCount() >= minCount) {
+						nextContexts.add(result.getNgram());
+					}
+				}
+			}
+			
+			for (NGram context : nextContexts) {
+				long key = cacheKey(context);
+				if (key != NO_CACHE_KEY) {
+					table.add(key, this.computeResults(context, numResults));
+				}
+			}
+			
+			contexts = nextContexts;
+		}
+		
+		this.predictionTable = table;
+	}
+	
+	/**
+	 * Returns the precomputed predictions, or null if they haven't been computed
+	 */
+	public PredictionTable getPredictionTable() {
+		return this.predictionTable;
+	}
+	
+	/**
+	 * Computes the probability of each possible next unigram for the given n-gram
 	 * @param ngram The n-gram
 	 * @param numResults The number of results
+	 * @return The most probable results, sorted by probability
 	 */
-	public List<Result> predictNext(NGram ngram, int numResults) {
-//		this.clearCache();
-		List<Result> results = new ArrayList<Result>();
+	private List<Result> computeResults(NGram ngram, int numResults) {
+		return this.computeResults(ngram, numResults, null, -1);
+	}
+	
+	/**
+	 * Computes the probability of each possible next unigram for the given n-gram, weighted by the transitions
+	 * between the word classes if given. As the weights are at most 1, the probabilities still bound the results.
+	 * @param ngram The n-gram
+	 * @param numResults The number of results
+	 * @param wordClasses The word classes with the transitions, or null
+	 * @param writtenTag The index of the word class of the last token of the n-gram, if weighted
+	 * @return The most probable results, sorted by probability
+	 */
+	private List<Result> computeResults(NGram ngram, int numResults, WordClasses wordClasses, int writtenTag) {
+		TopPredictions results = new TopPredictions(numResults);
 		
-		for (NGram unigram : this.getPossibleUnigrams(ngram, true)) {
-			if (unigram.equals(START_OF_SENTENCE_UNIGRAM) || unigram.equals(END_OF_SENTENCE_UNIGRAM)) {
-				continue;
+		//The continuations are scored from the most frequent one, until the probability of the remaining continuations
+		//can't be larger than the worst of the results
+		Continuations continuations = this.searchTree().findContinuations(ngram);
+		double total = ngram.length() == 0 ? this.totalCountForNGramLength(1) : this.getCount(ngram);
+		double maxProbabilityPerCount = this.goodTuringEstimation.maxDiscount() * PROBABILITY_BOUND_SLACK / total;
+		IdSet scored = scoredIds.get();
+		scored.clear();
+		
+		for (int i = 0; i < continuations.size(); i++) {
+			int count = continuations.countAt(i);
+			if (!this.hasPseudoCounts && count * maxProbabilityPerCount < results.minProbability()) {
+				break;
 			}
 			
-			double probability = this.getProbability(ngram, unigram);
-			
-
-			if (probability < 0 
-				|| probability > 1
-				|| Double.isNaN(probability)
-				|| Double.isInfinite(probability)) {
-				System.err.println("Invalid probability: " +ngram+" " + unigram + ": " + probability);
+			int id = continuations.idAt(i);
+			scored.add(id);
+			if (!isSentenceMarker(id)) {
+				this.addResult(results, ngram, id, wordClasses, writtenTag);
 			}
-						
-			if (probability > 0) {
-				results.add(new Result(ngram.append(unigram), probability));
+		}
+		
+		int lastId = ngram.length() == 0 ? -1 : ngram.lastId();
+		for (int i = 0; i < this.topUnigrams.size(); i++) {
+			int id = this.topUnigrams.get(i).lastId();
+			if (id != lastId && !scored.contains(id)) {
+				this.addResult(results, ngram, id, wordClasses, writtenTag);
 			}
 		}
 
-		Collections.sort(results);
-		
-		// Removes results where nextWord-proposal is of same word class as last word of the written words
-		if (GRAMMAR_CHECK) {
-			GrammarChecker grammarChecker = new GrammarChecker(); 
-			for (int i = 0; i < Math.min(numResults, results.size()); i++) {
-				if (!grammarChecker.hasCorrectGrammar(ngram.last(), results.get(i).getNGram())) {
-					results.remove(i);
-					continue;
-				}
+		return results.toResults(ngram);
+	}
+	
+	/**
+	 * Adds the probability of the given token given the given n-gram to the results
+	 * @param results The results
+	 * @param ngram The n-gram
+	 * @param id The token id
+	 * @param wordClasses The word classes that weight the probability, or null
+	 * @param writtenTag The index of the word class of the last token of the n-gram, if weighted
+	 */
+	private void addResult(TopPredictions results, NGram ngram, int id, WordClasses wordClasses, int writtenTag) {
+		double probability = this.getProbability(ngram, id);
+		assert probability >= 0 && probability <= 1 : "Invalid probability: " + ngram + " " + id + ": " + probability;
+		
+		if (wordClasses != null) {
+			probability *= wordClasses.transitionWeight(writtenTag, id);
+		}
+		
+		if (probability > 0) {
+			results.add(id, probability);
+		}
+	}
+	
+	/**
+	 * Predicts the most probable (n+1)-gram for the given n-gram
+	 * @param ngram The n-gram
+	 * @param numResults The number of results
+	 */
+	public List<Result> predictNext(NGram ngram, int numResults) {
+//		this.clearCache();
+		PredictionTable table = this.predictionTable;
+		if (table != null && !GRAMMAR_CHECK && numResults <= table.numResults()) {
+			List<Result> results = table.find(ngram, cacheKey(ngram), numResults);
+			if (results != null) {
+				return results;
 			}
 		}
 		
-		for (int i = results.size() - 1; i >= numResults; i--) {		
-			results.remove(results.size() - 1);
+		if (!GRAMMAR_CHECK) {
+			return this.computeResults(ngram, numResults);
+		}
+		
+		//The results are weighted by the transitions between the word classes while they are computed,
+		//so the results that are removed are replaced without computing all results
+		WordClasses wordClasses = this.wordClasses;
+		if (wordClasses != null && wordClasses.hasTransitions()) {
+			int writtenTag = ngram.length() == 0 ? -1 : wordClasses.getTag(ngram.lastId());
+			return this.computeResults(ngram, numResults, writtenTag < 0 ? null : wordClasses, writtenTag);
 		}
 		
-		return results; 
+		//The results that don't pass the grammar check are replaced by the following results, which are computed
+		//in growing batches. As the results are ordered by probability and id, each batch starts with the previous one.
+		GrammarChecker grammarChecker = wordClasses == null ? GrammarChecker.getInstance() : null;
+		List<Result> results = new ArrayList<>();
+		int numCandidates = (int)Math.min(Integer.MAX_VALUE, 2L * numResults);
+		int numChecked = 0;
+		
+		while (true) {
+			List<Result> candidates = this.computeResults(ngram, numCandidates);
+			for (; numChecked < candidates.size() && results.size() < numResults; numChecked++) {
+				Result candidate = candidates.get(numChecked);
+				// Skips results where nextWord-proposal is of same word class as last word of the written words
+				boolean hasCorrectGrammar = wordClasses != null
+					? ngram.length() == 0 || wordClasses.hasCorrectGrammar(ngram.lastId(), candidate.getNGram().lastId())
+					: grammarChecker.hasCorrectGrammar(ngram.last(), candidate.getNGram());
+				if (hasCorrectGrammar) {
+					results.add(candidate);
+				}
+			}
+			
+			//Fewer candidates than asked for means that all have been computed
+			if (results.size() >= numResults || candidates.size() < numCandidates) {
+				return results;
+			}
+			
+			numCandidates = (int)Math.min(Integer.MAX_VALUE, 2L * numCandidates);
+		}
 	}
 }
@@ -0,0 +1,130 @@
+package aiprojekt;
+
+/**
+ * Represents a count-min sketch of packed n-grams, which estimates the count of a n-gram in a fixed amount of memory.
+ * Each n-gram is counted in one cell of each row, and its estimate is the smallest of its cells, so the estimate
+ * is never lower than the count. The cells are bytes that stop at a maximum count, as the sketch is only used to
+ * tell if a n-gram can be more common than a threshold, and they are updated conservatively
+ * (only the smallest cells are increased), which keeps the estimates of the other n-grams low.
+ */
+public class NGramSketch {
+	/**
+	 * The number of rows
+	 */
+	public static final int DEPTH = 4;
+
+	private static final int MIN_WIDTH = 64;
+
+	private final byte[] cells;
+	private final int width;
+	private final int maxCount;
+
+	/**
+	 * Creates a new sketch
+	 * @param size The size of the sketch in bytes, which is rounded down to a power of two for each row
+	 * @param maxCount The count at which the cells stop, at most 255
+	 */
+	public NGramSketch(long size, int maxCount) {
+		if (maxCount < 1 || maxCount > 255) {
+			throw new IllegalArgumentException("The maximum count must be between 1 and 255.");
+		}
+
+		int width = MIN_WIDTH;
+		while (2L * width * DEPTH <= size && 2L * width * DEPTH <= Integer.MAX_VALUE) {
+			width *= 2;
+		}
+
+		this.cells = new byte[width * DEPTH];
+		this.width = width;
+		this.maxCount = maxCount;
+	}
+
+	/**
+	 * Returns the size of the sketch in bytes
+	 */
+	public int size() {
+		return this.cells.length;
+	}
+
+	/**
+	 * Returns the count at which the cells stop
+	 */
+	public int maxCount() {
+		return this.maxCount;
+	}
+
+	/**
+	 * Returns the hash of the given key, where the low and high halves are used as two independent hashes
+	 */
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * Returns the index of the cell of the given hash in the given row
+	 */
+	private int index(long hash, int row) {
+		//The cells of the rows are combinations of the two halves of the hash
+		int cell = ((int)hash + row * ((int)(hash >>> 32) | 1)) & (this.width - 1);
+		return row * this.width + cell;
+	}
+
+	/**
+	 * Adds one to the count of the given n-gram
+	 * @param key The packed n-gram
+	 */
+	public void add(long key) {
+		long hash = hash(key);
+		int estimate = this.minCell(hash);
+		if (estimate >= this.maxCount) {
+			return;
+		}
+
+		for (int row = 0; row < DEPTH; row++) {
+			int index = this.index(hash, row);
+			if ((this.cells[index] & 0xFF) == estimate) {
+				this.cells[index] = (byte)(estimate + 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated count of the given n-gram, which is at least its count, or the maximum count
+	 * @param key The packed n-gram
+	 */
+	public int estimate(long key) {
+		return this.minCell(hash(key));
+	}
+
+	/**
+	 * Returns the smallest cell of the given hash
+	 */
+	private int minCell(long hash) {
+		int estimate = this.maxCount;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, this.cells[this.index(hash, row)] & 0xFF);
+		}
+
+		return estimate;
+	}
+
+	/**
+	 * Adds the counts of the given sketch, which must have the same size, to this sketch
+	 * @param sketch The sketch
+	 */
+	public void addAll(NGramSketch sketch) {
+		if (sketch.cells.length != this.cells.length) {
+			throw new IllegalArgumentException("The sketches must have the same size.");
+		}
+
+		for (int i = 0; i < this.cells.length; i++) {
+			int count = (this.cells[i] & 0xFF) + (sketch.cells[i] & 0xFF);
+			this.cells[i] = (byte)Math.min(this.maxCount, count);
+		}
+	}
+}
@@ -1,57 +1,116 @@
 package aiprojekt;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Represents a n-gram search tree.
  * This tree allows fast lookup to find all the (n+1)-grams that starts with a given n-gram.
+ * The children are keyed by the id of their token in the vocabulary.
  */
-public class NGramTree {
-	private final NGram current;
+public class NGramTree implements NGramIndex {
+	private final int id;
 	private int count;
 	
-	private final Map<NGram, NGramTree> children = new HashMap<>();
+	private final Map<Integer, NGramTree> children = new HashMap<>();
 	
 	/**
 	 * Creates a new n-gram tree
-	 * @param current The current n-gram
+	 * @param id The id of the current token
 	 * @param count The count of the n-gram
 	 */
-	public NGramTree(NGram current, int count) {
-		this.current = current;
+	public NGramTree(int id, int count) {
+		this.id = id;
 		this.count = count;
 	}
 	
+	/**
+	 * Returns the id of the current token
+	 */
+	int getId() {
+		return this.id;
+	}
+	
+	/**
+	 * Returns the count of the current n-gram
+	 */
+	int getCount() {
+		return this.count;
+	}
+	
+	/**
+	 * Returns the children of the current tree
+	 */
+	Collection<NGramTree> getChildren() {
+		return this.children.values();
+	}
+	
 	/**
 	 * Adds the given child to current tree
-	 * @param ngram The n-gram
+	 * @param id The id of the token
 	 * @param count The count
+	 * @return The child tree
 	 */
-	public void addChild(NGram ngram, int count) {
-		if (this.children.containsKey(ngram)) {
-			this.children.get(ngram).count += count;
+	public NGramTree addChild(int id, int count) {
+		NGramTree child = this.children.get(id);
+		
+		if (child != null) {
+			child.count += count;
 		} else {
-			this.children.put(ngram, new NGramTree(ngram, count));
+			child = new NGramTree(id, count);
+			this.children.put(id, child);
 		}
+		
+		return child;
 	}
 	
 	/**
-	 * Finds the count for the given n-gram
+	 * Returns the sub tree for the given n-gram, or null if it doesn't exist
 	 * @param ngram The n-gram
 	 */
+	private NGramTree findTree(NGram ngram) {
+		return this.findTree(ngram, 0, -1);
+	}
+	
+	/**
+	 * Returns the sub tree for the n-gram made of the tokens of the given context from the given offset,
+	 * followed by the given token, or null if it doesn't exist
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 */
+	private NGramTree findTree(NGram context, int offset, int id) {
+		NGramTree tree = this;
+		
+		for (int i = offset; i < context.length() && tree != null; i++) {
+			tree = tree.children.get(context.idAt(i));
+		}
+		
+		if (id >= 0 && tree != null) {
+			tree = tree.children.get(id);
+		}
+		
+		return tree;
+	}
+	
+	@Override
 	public int find(NGram ngram) {
-		if (this.children.containsKey(ngram)) {
-			return this.children.get(ngram).count;
-		} else {
-			NGram first = ngram.first();
-			NGram rest = ngram.rest();
-			
-			if (this.children.containsKey(first)) {
-				return this.children.get(first).find(rest);
-			}
+		return this.find(ngram, 0, -1);
+	}
+	
+	@Override
+	public int find(NGram context, int offset, int id) {
+		if (context.length() == offset && id < 0) {
+			return 0;
+		}
+		
+		NGramTree tree = this.findTree(context, offset, id);
+		if (tree != null) {
+			return tree.count;
 		}
 		
 		return 0;
@@ -128,48 +187,68 @@ public class NGramTree {
 		}
 	}
 	
-	/**
-	 * Finds the (n+1)-gram that starts with the given n-gram
-	 * @param results The results
-	 * @param startGram The start gram
-	 * @param ngram The n-gram
-	 */
-	private void findResults(List<Result> results, NGram startGram, NGram ngram) {
-		if (this.children.containsKey(ngram)) {
-			for (NGramTree subTree : this.children.get(ngram).children.values()) {
+	@Override
+	public List<Result> findResults(NGram ngram) {
+		List<Result> results = new ArrayList<>();
+		NGramTree tree = this.findTree(ngram);
+		
+		if (tree != null) {
+			for (NGramTree subTree : tree.children.values()) {
 				if (subTree.count > 0) {
-					results.add(new Result(startGram.append(subTree.current), subTree.count));
+					results.add(new Result(ngram.append(subTree.id), subTree.count));
 				}
 			}
-		} else {
-			NGram first = ngram.first();
-			NGram rest = ngram.rest();
-			
-			if (this.children.containsKey(first)) {
-				this.children.get(first).findResults(results, startGram, rest);
-			}
 		}
+		
+		return results;
 	}
 	
-	/**
-	 * Finds the (n+1)-gram that starts with the given n-gram
-	 * @param ngram The n-gram
-	 * @return The results
-	 */
-	public List<Result> findResults(NGram ngram) {
-		List<Result> results = new ArrayList<>();
+	@Override
+	public void forEachContinuation(NGram ngram, OnContinuationAction action) {
+		this.forEachContinuation(ngram, 0, action);
+	}
+	
+	@Override
+	public void forEachContinuation(NGram context, int offset, OnContinuationAction action) {
+		NGramTree tree = this.findTree(context, offset, -1);
 		
-		if (!ngram.equals(NGram.EMPTY_GRAM)) {
-			this.findResults(results, ngram, ngram);
-		} else {
-			for (NGramTree subTree : this.children.values()) {
+		if (tree != null) {
+			for (NGramTree subTree : tree.children.values()) {
 				if (subTree.count > 0) {
-					results.add(new Result(subTree.current, subTree.count));
+					action.execute(subTree.id, subTree.count);
 				}
 			}
 		}
-		
-		return results;
+	}
+	
+	@Override
+	public Continuations findContinuations(NGram ngram) {
+		return Continuations.fromResults(this.findResults(ngram));
+	}
+	
+	@Override
+	public boolean hasPrecomputedValues() {
+		return false;
+	}
+	
+	@Override
+	public double findAlpha(NGram context) {
+		return Double.NaN;
+	}
+	
+	@Override
+	public double findAlpha(NGram context, int offset) {
+		return Double.NaN;
+	}
+	
+	@Override
+	public double findProbability(NGram ngram) {
+		return Double.NaN;
+	}
+	
+	@Override
+	public double findProbability(NGram context, int offset, int id) {
+		return Double.NaN;
 	}
 	
 	/**
@@ -194,12 +273,12 @@ public class NGramTree {
 		if (length == 1) {
 			for (NGramTree tree : this.children.values()) {
 				if (tree.count > 0) {
-					action.execute(startGram.append(tree.current), tree.count);
+					action.execute(startGram.append(tree.id), tree.count);
 				}
 			}
 		} else {
 			for (NGramTree tree : this.children.values()) {
-				tree.findNgrams(action, startGram.append(tree.current), length - 1);
+				tree.findNgrams(action, startGram.append(tree.id), length - 1);
 			}
 		}
 	}
@@ -235,6 +314,53 @@ public class NGramTree {
 		return results;
 	}
 	
+	/**
+	 * Adds the number of n-grams in the current tree, including the current n-gram, to the given counts
+	 * @param counts The number of n-grams of each length
+	 * @param length The length of the current n-gram
+	 */
+	private void countNgrams(int[] counts, int length) {
+		if (this.count > 0) {
+			counts[length - 1]++;
+		}
+		
+		for (NGramTree child : this.children.values()) {
+			child.countNgrams(counts, length + 1);
+		}
+	}
+	
+	/**
+	 * Removes the n-grams of length > 1 in the children of the current tree that have at most the given count.
+	 * The n-grams that start with a removed n-gram are removed as well, as they can't be more common.
+	 * @param threshold The threshold
+	 * @param removed The number of removed n-grams of each length
+	 * @param length The length of the n-grams of the children
+	 */
+	private void removeRare(int threshold, int[] removed, int length) {
+		Iterator<NGramTree> iterator = this.children.values().iterator();
+		while (iterator.hasNext()) {
+			NGramTree child = iterator.next();
+			if (length > 1 && child.count <= threshold) {
+				child.countNgrams(removed, length);
+				iterator.remove();
+			} else {
+				child.removeRare(threshold, removed, length + 1);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the n-grams of length > 1 that have at most the given count, which should be called on the root
+	 * @param threshold The threshold
+	 * @param maxLength The maximum length of the n-grams
+	 * @return The number of removed n-grams of each length
+	 */
+	public int[] removeRare(int threshold, int maxLength) {
+		int[] removed = new int[maxLength];
+		this.removeRare(threshold, removed, 1);
+		return removed;
+	}
+	
 	/**
 	 * Inserts the given n-gram into the given tree
 	 * @param tree The tree
@@ -244,18 +370,13 @@ public class NGramTree {
 	private static void insert(NGramTree tree, NGram ngram, int count) {
 		if (ngram.length() == 0) {
 			return;
-		} else if (ngram.length() == 1) {
-			tree.addChild(ngram, count);
-		} else {
-			NGram first = ngram.first();
-			NGram rest = ngram.rest();
-			
-			if (!tree.children.containsKey(first)) {
-				tree.addChild(first, 0);
-			}
-			
-			insert(tree.children.get(first), rest, count);
 		}
+		
+		for (int i = 0; i < ngram.length() - 1; i++) {
+			tree = tree.addChild(ngram.idAt(i), 0);
+		}
+		
+		tree.addChild(ngram.lastId(), count);
 	}
 	
 	/**
@@ -271,7 +392,7 @@ public class NGramTree {
 	 * Creates a root tree
 	 */
 	public static NGramTree createRootTree() {
-		return new NGramTree(NGram.EMPTY_GRAM, 0);
+		return new NGramTree(Vocabulary.UNKNOWN_ID, 0);
 	}
 	
 	/**
@@ -297,7 +418,7 @@ public class NGramTree {
 	@Override
 	public String toString() {
 		return 
-			"{ current: " + this.current + 
+			"{ current: " + (this.id != Vocabulary.UNKNOWN_ID ? Vocabulary.global().getToken(this.id) : "") + 
 			", count: " + this.count +
 			", children: " + this.children.values()
 			+ " }";
@@ -0,0 +1,90 @@
+package aiprojekt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the different search trees on a saved model
+ */
+public class NGramTreeBenchmark {
+	private static final int NUM_QUERIES = 500000;
+	private static final int NUM_CONTEXTS = 100000;
+	private static final int ROUNDS = 5;
+	
+	public static void main(String[] args) {
+		String path = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		
+		Loader loader = new Loader();
+		NGramModel model = loader.load(path, NGramIndexType.HASH_MAP);
+		NGramTree tree = (NGramTree)model.searchTree();
+		
+		//The queries are existing n-grams of all lengths, and the contexts are existing uni- and bigrams
+		List<NGram> queries = new ArrayList<>();
+		List<NGram> contexts = new ArrayList<>();
+		for (int length = 1; length <= model.maxLength(); length++) {
+			for (NGramTree.Result result : tree.findNgrams(length)) {
+				queries.add(result.getNgram());
+				
+				if (length < model.maxLength()) {
+					contexts.add(result.getNgram());
+				}
+			}
+		}
+		
+		Random random = new Random(1337);
+		Collections.shuffle(queries, random);
+		Collections.shuffle(contexts, random);
+		queries = queries.subList(0, Math.min(NUM_QUERIES, queries.size()));
+		contexts = contexts.subList(0, Math.min(NUM_CONTEXTS, contexts.size()));
+		
+		long start = System.currentTimeMillis();
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(tree, model.maxLength());
+		System.out.println("Compact tree built in " + (System.currentTimeMillis() - start) + " ms, "
+			+ compactTree.memoryUsage() / 1024 / 1024 + " MB");
+		
+		start = System.currentTimeMillis();
+		DoubleArrayNGramTree doubleArrayTree = DoubleArrayNGramTree.fromTree(compactTree);
+		System.out.println("Double-array tree built in " + (System.currentTimeMillis() - start) + " ms, "
+			+ doubleArrayTree.memoryUsage() / 1024 / 1024 + " MB");
+		
+		benchmark("Hash map", tree, queries, contexts);
+		benchmark("Compact", compactTree, queries, contexts);
+		benchmark("Double-array", doubleArrayTree, queries, contexts);
+	}
+	
+	/**
+	 * Benchmarks the given tree
+	 * @param name The name of the tree
+	 * @param index The tree
+	 * @param queries The n-grams to find
+	 * @param contexts The n-grams to find results for
+	 */
+	private static void benchmark(String name, NGramIndex index, List<NGram> queries, List<NGram> contexts) {
+		long checksum = 0;
+		double bestFind = Double.MAX_VALUE;
+		double bestFindResults = Double.MAX_VALUE;
+		
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (NGram ngram : queries) {
+				checksum += index.find(ngram);
+			}
+			bestFind = Math.min(bestFind, (System.nanoTime() - start) / 1E9);
+			
+			start = System.nanoTime();
+			for (NGram ngram : contexts) {
+				checksum += index.findResults(ngram).size();
+			}
+			bestFindResults = Math.min(bestFindResults, (System.nanoTime() - start) / 1E9);
+		}
+		
+		System.out.println(String.format(
+			"%s: find() %.2f M ops/s, findResults() %.2f M ops/s (checksum: %d)",
+			name,
+			queries.size() / bestFind / 1E6,
+			contexts.size() / bestFindResults / 1E6,
+			checksum));
+	}
+}
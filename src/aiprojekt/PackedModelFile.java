@@ -0,0 +1,472 @@
+package aiprojekt;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and writes version 2 model files, where the n-grams are stored as a tree in compressed sparse row form.
+ * The children of each node are sorted by token id, so the token ids are delta encoded, and all ids,
+ * counts and lengths are written as variable-length integers (7 bits per byte).
+ * Loading decodes each level directly into a CompactNGramTree. The levels are stored in separate sections,
+ * so they can be decoded in parallel.
+ */
+public class PackedModelFile {
+	/**
+	 * The magic number of a packed model file ("NGRM")
+	 */
+	public static final int MAGIC = 0x4E47524D;
+
+	/**
+	 * The version of the format. Version 1 is the original format written by PreProcessor.
+	 */
+	public static final int VERSION = 2;
+
+	//The maximum n-gram length, followed by the number of n-grams and the total count for each length
+	private static final int STATISTICS = 1;
+
+	//The Good-Turing total and log-linear parameters
+	private static final int GOOD_TURING = 2;
+
+	//The number of top unigrams, followed by their token ids
+	private static final int TOP_UNIGRAMS = 3;
+
+	//The number of tokens, followed by the length and UTF-8 bytes of each token
+	private static final int VOCABULARY = 4;
+
+	//The natural logarithm of the smallest and largest probability in the codebook of the quantized probabilities
+	private static final int CODEBOOK = 5;
+
+	//The number of nodes at the level, followed by the number of children of each node in the level above,
+	//each followed by the id delta and the count of each child
+	private static final int LEVELS = 16;
+
+	//The backoff weights of the nodes at each level except the last, which are optional
+	private static final int ALPHAS = 32;
+
+	//The quantized probabilities of the nodes at each level, which are optional
+	private static final int PROBABILITIES = 48;
+
+	public static void main(String[] args) throws IOException {
+		String inputPath = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		String outputPath = args.length > 1 ? args[1] : inputPath;
+
+		Loader loader = new Loader();
+		NGramModel model = loader.load(inputPath);
+		if (model == null) {
+			System.err.println("Couldn't load the model at " + inputPath);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		write(model, outputPath);
+		System.out.println("Wrote " + outputPath + " in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+	}
+
+	/**
+	 * Indicates if the file at the given path is a packed model file
+	 * @param path The path to the file
+	 */
+	public static boolean isModelFile(String path) {
+		return ModelFile.readMagic(path) == MAGIC;
+	}
+
+	/**
+	 * Writes the given non-negative value as a variable-length integer
+	 * @param outputStream The output stream
+	 * @param value The value
+	 */
+	static void writeVarInt(DataOutputStream outputStream, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			outputStream.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		outputStream.writeByte(value);
+	}
+
+	/**
+	 * Reads a variable-length integer
+	 * @param buffer The buffer
+	 */
+	static int readVarInt(ByteBuffer buffer) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return value;
+	}
+
+	/**
+	 * Writes the given model to a file
+	 * @param model The model
+	 * @param path The path to the file
+	 */
+	public static void write(NGramModel model, String path) throws IOException {
+		CompactNGramTree tree = model.toCompactTree();
+
+		//The ids in the file are the ranks of the ids of the tokens in the model
+		int[] fileIdToId = FileIdMapping.modelIds(tree, model.topUnigrams());
+		FileIdMapping mapping = new FileIdMapping(fileIdToId);
+
+		try (ModelFile.Writer writer = new ModelFile.Writer(path, MAGIC, VERSION)) {
+			DataOutputStream outputStream = writer.beginSection(STATISTICS);
+			writeVarInt(outputStream, model.maxLength());
+			for (int n = 1; n <= model.maxLength(); n++) {
+				writeVarInt(outputStream, model.numberOfNGramLength(n));
+				writeVarInt(outputStream, model.totalCountForNGramLength(n));
+			}
+			writer.endSection();
+
+			outputStream = writer.beginSection(GOOD_TURING);
+			outputStream.writeInt(model.getGoodTuringEstimation().getTotal());
+			outputStream.writeDouble(model.getGoodTuringEstimation().getA());
+			outputStream.writeDouble(model.getGoodTuringEstimation().getB());
+			writer.endSection();
+
+			outputStream = writer.beginSection(TOP_UNIGRAMS);
+			writeVarInt(outputStream, model.topUnigrams().size());
+			for (NGram unigram : model.topUnigrams()) {
+				writeVarInt(outputStream, mapping.toFileId(unigram.idAt(0)));
+			}
+			writer.endSection();
+
+			Vocabulary vocabulary = Vocabulary.global();
+			outputStream = writer.beginSection(VOCABULARY);
+			writeVarInt(outputStream, fileIdToId.length);
+			for (int id : fileIdToId) {
+				byte[] token = vocabulary.getToken(id).toString().getBytes(StandardCharsets.UTF_8);
+				writeVarInt(outputStream, token.length);
+				outputStream.write(token);
+			}
+			writer.endSection();
+
+			if (tree.hasProbabilities()) {
+				outputStream = writer.beginSection(CODEBOOK);
+				outputStream.writeDouble(tree.getCodebook().getMinLog());
+				outputStream.writeDouble(tree.getCodebook().getMaxLog());
+				writer.endSection();
+			}
+
+			for (int level = 0; level < tree.numLevels(); level++) {
+				int[] ids = tree.getIds(level);
+				int[] counts = tree.getCounts(level);
+				int[] offsets = level > 0 ? tree.getChildOffsets(level - 1) : new int[] { 0, ids.length };
+
+				outputStream = writer.beginSection(LEVELS + level);
+				writeVarInt(outputStream, ids.length);
+
+				for (int parent = 0; parent < offsets.length - 1; parent++) {
+					writeVarInt(outputStream, offsets[parent + 1] - offsets[parent]);
+
+					int previousId = -1;
+					for (int i = offsets[parent]; i < offsets[parent + 1]; i++) {
+						int fileId = mapping.toFileId(ids[i]);
+						writeVarInt(outputStream, fileId - previousId);
+						writeVarInt(outputStream, counts[i]);
+						previousId = fileId;
+					}
+				}
+				writer.endSection();
+
+				if (tree.hasAlphas() && level < tree.numLevels() - 1) {
+					outputStream = writer.beginSection(ALPHAS + level);
+					for (double alpha : tree.getAlphas(level)) {
+						outputStream.writeDouble(alpha);
+					}
+					writer.endSection();
+				}
+
+				if (tree.hasProbabilities()) {
+					outputStream = writer.beginSection(PROBABILITIES + level);
+					for (char probability : tree.getProbabilities(level)) {
+						outputStream.writeChar(probability);
+					}
+					writer.endSection();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the vocabulary section, returning the vocabulary id of each token id in the file
+	 * @param file The model file
+	 */
+	private static int[] readVocabulary(ModelFile file) throws IOException {
+		ByteBuffer buffer = file.map(VOCABULARY);
+		int[] fileIdToId = new int[readVarInt(buffer)];
+		byte[] bytes = new byte[64];
+
+		for (int fileId = 0; fileId < fileIdToId.length; fileId++) {
+			int length = readVarInt(buffer);
+			if (bytes.length < length) {
+				bytes = new byte[length];
+			}
+
+			buffer.get(bytes, 0, length);
+			fileIdToId[fileId] = Vocabulary.global().getIdFromString(new String(bytes, 0, length, StandardCharsets.UTF_8));
+		}
+
+		return fileIdToId;
+	}
+
+	/**
+	 * Indicates if the given mapping preserves the order of the ids
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 */
+	private static boolean isIncreasing(int[] fileIdToId) {
+		for (int i = 1; i < fileIdToId.length; i++) {
+			if (fileIdToId[i] <= fileIdToId[i - 1]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The decoded nodes of a level of the tree
+	 */
+	private static class Level {
+		private final int[] ids;
+		private final int[] counts;
+
+		//The offset of the children of each node in the level above
+		private final int[] offsets;
+
+		/**
+		 * Creates a new level
+		 * @param numNodes The number of nodes
+		 * @param numParents The number of nodes in the level above
+		 */
+		public Level(int numNodes, int numParents) {
+			this.ids = new int[numNodes];
+			this.counts = new int[numNodes];
+			this.offsets = new int[numParents + 1];
+		}
+	}
+
+	/**
+	 * Decodes the given level of the tree
+	 * @param file The model file
+	 * @param level The level
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 */
+	private static Level readLevel(ModelFile file, int level, int[] fileIdToId) throws IOException {
+		//The number of parents is the number of nodes in the level above, which is at the start of its section
+		int numParents = level > 0 ? readVarInt(file.map(LEVELS + level - 1)) : 1;
+
+		ByteBuffer buffer = file.map(LEVELS + level);
+		Level nodes = new Level(readVarInt(buffer), numParents);
+
+		int node = 0;
+		for (int parent = 0; parent < numParents; parent++) {
+			nodes.offsets[parent] = node;
+			int numChildren = readVarInt(buffer);
+
+			int id = -1;
+			for (int i = 0; i < numChildren; i++) {
+				id += readVarInt(buffer);
+				nodes.ids[node] = fileIdToId[id];
+				nodes.counts[node] = readVarInt(buffer);
+				node++;
+			}
+		}
+		nodes.offsets[numParents] = node;
+
+		return nodes;
+	}
+
+	/**
+	 * Reads the tree in the given file
+	 * @param file The model file
+	 * @param maxLength The number of levels
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 * @param executor The executor that decodes the levels in parallel, or null to decode them with the current thread
+	 */
+	private static CompactNGramTree readTree(final ModelFile file, int maxLength, final int[] fileIdToId,
+			ExecutorService executor) throws IOException {
+		List<Level> levels = new ArrayList<>();
+		if (executor == null) {
+			for (int level = 0; level < maxLength; level++) {
+				levels.add(readLevel(file, level, fileIdToId));
+			}
+		} else {
+			List<Future<Level>> levelTasks = new ArrayList<>();
+			for (int level = 0; level < maxLength; level++) {
+				final int currentLevel = level;
+				levelTasks.add(executor.submit(new Callable<Level>() {
+					@Override
+					public Level call() throws IOException {
+						return readLevel(file, currentLevel, fileIdToId);
+					}
+				}));
+			}
+
+			try {
+				for (Future<Level> levelTask : levelTasks) {
+					levels.add(levelTask.get());
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException("Couldn't read the n-grams.", e);
+			}
+		}
+
+		int[][] ids = new int[maxLength][];
+		int[][] counts = new int[maxLength][];
+		int[][] childOffsets = new int[maxLength - 1][];
+		for (int level = 0; level < maxLength; level++) {
+			ids[level] = levels.get(level).ids;
+			counts[level] = levels.get(level).counts;
+
+			if (level > 0) {
+				childOffsets[level - 1] = levels.get(level).offsets;
+			}
+		}
+
+		double[][] alphas = null;
+		if (maxLength > 1 && file.hasSection(ALPHAS)) {
+			alphas = new double[maxLength - 1][];
+			for (int level = 0; level < maxLength - 1; level++) {
+				alphas[level] = new double[ids[level].length];
+				file.map(ALPHAS + level).asDoubleBuffer().get(alphas[level]);
+			}
+		}
+
+		ProbabilityCodebook codebook = null;
+		char[][] probabilities = null;
+		if (file.hasSection(CODEBOOK)) {
+			ByteBuffer buffer = file.map(CODEBOOK);
+			codebook = new ProbabilityCodebook(buffer.getDouble(), buffer.getDouble());
+			probabilities = new char[maxLength][];
+			for (int level = 0; level < maxLength; level++) {
+				probabilities[level] = new char[ids[level].length];
+				file.map(PROBABILITIES + level).asCharBuffer().get(probabilities[level]);
+			}
+		}
+
+		CompactNGramTree tree = new CompactNGramTree(ids, counts, childOffsets, alphas, codebook, probabilities);
+
+		//The children must be sorted by the ids in the vocabulary, which only holds if the translation keeps the order.
+		//The rebuilt tree has no backoff weights and probabilities, so they are computed when needed.
+		if (!isIncreasing(fileIdToId)) {
+			tree = CompactNGramTree.fromTable(toTable(tree), maxLength);
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Returns a count table with the n-grams in the given tree
+	 * @param tree The tree
+	 */
+	private static NGramCountTable toTable(CompactNGramTree tree) {
+		NGramCountTable table = new NGramCountTable();
+		long[] keys = new long[tree.numNodes(0)];
+
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = NGramCountTable.packId(0, 0, tree.getIds(0)[i]);
+		}
+
+		for (int level = 0; level < tree.numLevels(); level++) {
+			int[] counts = tree.getCounts(level);
+			for (int i = 0; i < keys.length; i++) {
+				if (counts[i] > 0) {
+					table.add(keys[i], counts[i]);
+				}
+			}
+
+			if (level < tree.numLevels() - 1) {
+				int[] offsets = tree.getChildOffsets(level);
+				int[] childIds = tree.getIds(level + 1);
+				long[] childKeys = new long[childIds.length];
+
+				for (int parent = 0; parent < keys.length; parent++) {
+					for (int i = offsets[parent]; i < offsets[parent + 1]; i++) {
+						childKeys[i] = NGramCountTable.packId(keys[parent], level + 1, childIds[i]);
+					}
+				}
+
+				keys = childKeys;
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Loads the model in the given file
+	 * @param path The path to the file
+	 * @param indexType The type of search tree used by the loaded model
+	 */
+	public static NGramModel load(String path, NGramIndexType indexType) throws IOException {
+		return load(path, indexType, null);
+	}
+
+	/**
+	 * Loads the model in the given file
+	 * @param path The path to the file
+	 * @param indexType The type of search tree used by the loaded model
+	 * @param executor The executor that decodes the levels of the tree in parallel, or null to decode them with the current thread
+	 */
+	public static NGramModel load(String path, NGramIndexType indexType, ExecutorService executor) throws IOException {
+		try (ModelFile file = new ModelFile(path)) {
+			if (file.getMagic() != MAGIC || file.getVersion() != VERSION) {
+				throw new IOException("'" + path + "' is not a packed model file of version " + VERSION + ".");
+			}
+
+			ByteBuffer statistics = file.map(STATISTICS);
+			int maxLength = readVarInt(statistics);
+			int[] numNGrams = new int[maxLength];
+			int[] totalNGramCounts = new int[maxLength];
+			for (int i = 0; i < maxLength; i++) {
+				numNGrams[i] = readVarInt(statistics);
+				totalNGramCounts[i] = readVarInt(statistics);
+			}
+
+			int[] fileIdToId = readVocabulary(file);
+			CompactNGramTree tree = readTree(file, maxLength, fileIdToId, executor);
+
+			NGramModel model;
+			if (indexType == NGramIndexType.HASH_MAP) {
+				model = new NGramModel(maxLength, true);
+				final NGramModel hashMapModel = model;
+				toTable(tree).forEach(new NGramCountTable.OnEntryAction() {
+					@Override
+					public void execute(long key, int count) {
+						hashMapModel.addNGram(NGramCountTable.unpack(key), count);
+					}
+				});
+			} else if (indexType == NGramIndexType.DOUBLE_ARRAY) {
+				model = new NGramModel(DoubleArrayNGramTree.fromTree(tree), numNGrams, totalNGramCounts);
+			} else {
+				model = new NGramModel(tree, numNGrams, totalNGramCounts);
+			}
+
+			ByteBuffer goodTuring = file.map(GOOD_TURING);
+			model.getGoodTuringEstimation().setTotal(goodTuring.getInt());
+			model.getGoodTuringEstimation().setLogLinear(goodTuring.getDouble(), goodTuring.getDouble());
+
+			ByteBuffer topUnigrams = file.map(TOP_UNIGRAMS);
+			int topUnigramsCount = readVarInt(topUnigrams);
+			for (int i = 0; i < topUnigramsCount; i++) {
+				model.topUnigrams().add(NGram.fromId(fileIdToId[readVarInt(topUnigrams)]));
+			}
+
+			return model;
+		}
+	}
+}
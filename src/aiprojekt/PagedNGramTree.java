@@ -0,0 +1,323 @@
+package aiprojekt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents an immutable n-gram search tree where all levels except the last are held in memory,
+ * and the last level is read from a model file on demand.
+ * The last level is read in blocks, where a block holds the children of one context (a node in the level above),
+ * and the least recently used blocks are evicted when the cache holds more than a given number of n-grams.
+ */
+public class PagedNGramTree implements NGramIndex {
+	/**
+	 * The default maximum number of n-grams in the cached blocks
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 1 << 18;
+
+	//The levels except the last, with the same layout as in CompactNGramTree
+	private final int[][] ids;
+	private final int[][] counts;
+	private final int[][] childOffsets;
+
+	//The backoff weights for each level except the last, or null if they aren't stored in the file
+	private final double[][] alphas;
+
+	//The file and the positions of the token ids and counts of the last level
+	private final FileChannel channel;
+	private final long lastIdsOffset;
+	private final long lastCountsOffset;
+
+	private final FileIdMapping mapping;
+
+	private final int cacheSize;
+	private final Map<Integer, Block> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private int numCachedNGrams = 0;
+	private int numBlockReads = 0;
+
+	/**
+	 * The children of a context in the last level
+	 */
+	private static class Block {
+		private final int[] ids;
+		private final int[] counts;
+
+		/**
+		 * Creates a new block
+		 * @param ids The token ids in the file
+		 * @param counts The counts
+		 */
+		public Block(int[] ids, int[] counts) {
+			this.ids = ids;
+			this.counts = counts;
+		}
+	}
+
+	/**
+	 * Creates a new paged tree
+	 * @param ids The token ids for each level except the last
+	 * @param counts The counts for each level except the last
+	 * @param childOffsets The child offsets for each level except the last
+	 * @param alphas The backoff weights for each level except the last, or null
+	 * @param channel The file that contains the last level
+	 * @param lastIdsOffset The position of the token ids of the last level in the file
+	 * @param lastCountsOffset The position of the counts of the last level in the file
+	 * @param fileIdToId The vocabulary id of each id in the file
+	 * @param cacheSize The maximum number of n-grams in the cached blocks
+	 */
+	public PagedNGramTree(int[][] ids, int[][] counts, int[][] childOffsets, double[][] alphas, FileChannel channel,
+		long lastIdsOffset, long lastCountsOffset, int[] fileIdToId, int cacheSize) {
+		this.ids = ids;
+		this.counts = counts;
+		this.childOffsets = childOffsets;
+		this.alphas = alphas;
+		this.channel = channel;
+		this.lastIdsOffset = lastIdsOffset;
+		this.lastCountsOffset = lastCountsOffset;
+		this.mapping = new FileIdMapping(fileIdToId);
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Returns the number of levels in the tree
+	 */
+	public int numLevels() {
+		return this.ids.length + 1;
+	}
+
+	/**
+	 * Returns the number of n-grams in the cached blocks
+	 */
+	public synchronized int numCachedNGrams() {
+		return this.numCachedNGrams;
+	}
+
+	/**
+	 * Returns the number of blocks that has been read from the file
+	 */
+	public synchronized int numBlockReads() {
+		return this.numBlockReads;
+	}
+
+	/**
+	 * Reads the given range of ints from the file
+	 * @param offset The position of the array in the file
+	 * @param start The start of the range
+	 * @param end The end of the range
+	 */
+	private int[] readInts(long offset, int start, int end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * (end - start));
+		long position = offset + 4L * start;
+
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+
+		buffer.flip();
+		int[] values = new int[end - start];
+		buffer.asIntBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Returns the block with the children of the given context, reading it from the file if it isn't cached
+	 * @param context The index of the context in the level above the last
+	 */
+	private synchronized Block getBlock(int context) {
+		Block block = this.cache.get(context);
+		if (block != null) {
+			return block;
+		}
+
+		int[] offsets = this.childOffsets[this.childOffsets.length - 1];
+		int start = offsets[context];
+		int end = offsets[context + 1];
+
+		try {
+			block = new Block(
+				this.readInts(this.lastIdsOffset, start, end),
+				this.readInts(this.lastCountsOffset, start, end));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		this.numBlockReads++;
+		this.cache.put(context, block);
+		this.numCachedNGrams += block.ids.length;
+
+		//Evict the least recently used blocks, but always keep the new block
+		Iterator<Block> iterator = this.cache.values().iterator();
+		while (this.numCachedNGrams > this.cacheSize && this.cache.size() > 1) {
+			this.numCachedNGrams -= iterator.next().ids.length;
+			iterator.remove();
+		}
+
+		return block;
+	}
+
+	/**
+	 * Returns the index of the node for the first tokens of the n-gram made of the tokens of the given context
+	 * from the given offset, followed by the given token, or -1 if it doesn't exist.
+	 * The node is at level length - 1, which has to be in memory.
+	 * @param context The context
+	 * @param offset The index of the first token of the context in the n-gram
+	 * @param id The following token id, or -1 for no token
+	 * @param length The number of tokens of the n-gram
+	 */
+	private int findNode(NGram context, int offset, int id, int length) {
+		int start = 0;
+		int end = this.ids[0].length;
+		int index = -1;
+
+		for (int level = 0; level < length; level++) {
+			int currentId = offset + level < context.length() ? context.idAt(offset + level) : id;
+			int fileId = this.mapping.toFileId(currentId);
+			if (fileId < 0) {
+				return -1;
+			}
+
+			index = Arrays.binarySearch(this.ids[level], start, end, fileId);
+			if (index < 0) {
+				return -1;
+			}
+
+			if (level + 1 < length) {
+				start = this.childOffsets[level][index];
+				end = this.childOffsets[level][index + 1];
+			}
+		}
+
+		return index;
+	}
+
+	@Override
+	public int find(NGram ngram) {
+		return this.find(ngram, 0, -1);
+	}
+
+	@Override
+	public int find(NGram context, int offset, int id) {
+		int length = context.length() - offset + (id < 0 ? 0 : 1);
+		if (length == 0 || length > this.numLevels()) {
+			return 0;
+		}
+
+		if (length < this.numLevels()) {
+			int index = this.findNode(context, offset, id, length);
+			return index >= 0 ? this.counts[length - 1][index] : 0;
+		}
+
+		int parent = this.findNode(context, offset, id, length - 1);
+		int fileId = this.mapping.toFileId(id < 0 ? context.lastId() : id);
+		if (parent < 0 || fileId < 0) {
+			return 0;
+		}
+
+		Block block = this.getBlock(parent);
+		int index = Arrays.binarySearch(block.ids, fileId);
+		return index >= 0 ? block.counts[index] : 0;
+	}
+
+	@Override
+	public List<NGramTree.Result> findResults(final NGram ngram) {
+		final List<NGramTree.Result> results = new ArrayList<>();
+		this.forEachContinuation(ngram, new OnContinuationAction() {
+			@Override
+			public void execute(int id, int count) {
+				results.add(new NGramTree.Result(ngram.append(id), count));
+			}
+		});
+
+		return results;
+	}
+
+	@Override
+	public void forEachContinuation(NGram ngram, OnContinuationAction action) {
+		this.forEachContinuation(ngram, 0, action);
+	}
+
+	@Override
+	public void forEachContinuation(NGram ngram, int offset, OnContinuationAction action) {
+		int level = ngram.length() - offset;
+		if (level >= this.numLevels()) {
+			return;
+		}
+
+		int start = 0;
+		int end = this.ids[0].length;
+		int context = -1;
+
+		if (level > 0) {
+			context = this.findNode(ngram, offset, -1, level);
+			if (context < 0) {
+				return;
+			}
+
+			start = this.childOffsets[level - 1][context];
+			end = this.childOffsets[level - 1][context + 1];
+		}
+
+		if (level < this.ids.length) {
+			for (int i = start; i < end; i++) {
+				if (this.counts[level][i] > 0) {
+					action.execute(this.mapping.toId(this.ids[level][i]), this.counts[level][i]);
+				}
+			}
+		} else if (start < end) {
+			Block block = this.getBlock(context);
+			for (int i = 0; i < block.ids.length; i++) {
+				if (block.counts[i] > 0) {
+					action.execute(this.mapping.toId(block.ids[i]), block.counts[i]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public Continuations findContinuations(NGram ngram) {
+		return Continuations.fromResults(this.findResults(ngram));
+	}
+
+	@Override
+	public boolean hasPrecomputedValues() {
+		//The blocks of the last level are read and cached under a lock
+		return false;
+	}
+
+	@Override
+	public double findAlpha(NGram context) {
+		return this.findAlpha(context, 0);
+	}
+
+	@Override
+	public double findAlpha(NGram context, int offset) {
+		int length = context.length() - offset;
+		if (this.alphas == null || length == 0 || length >= this.numLevels()) {
+			return Double.NaN;
+		}
+
+		int index = this.findNode(context, offset, -1, length);
+		return index >= 0 ? this.alphas[length - 1][index] : Double.NaN;
+	}
+
+	@Override
+	public double findProbability(NGram ngram) {
+		return Double.NaN;
+	}
+
+	@Override
+	public double findProbability(NGram context, int offset, int id) {
+		//The probabilities aren't paged in with the last level, so they are computed from the counts
+		return Double.NaN;
+	}
+}
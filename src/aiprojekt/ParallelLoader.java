@@ -0,0 +1,374 @@
+package aiprojekt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a model file in the original or packed format using multiple threads.
+ * The levels of a packed model file are decoded in parallel (see PackedModelFile).
+ * In the original format, the n-gram section is split into chunks of records that are decoded in parallel, where each decoded n-gram
+ * is put in a partition by its first token. The partitions are ranges of token ids, so the tree of each
+ * partition is built independently and the trees are concatenated in order.
+ */
+public class ParallelLoader {
+	private static final int RECORDS_PER_CHUNK = 1 << 16;
+	private static final int ROUNDS = 3;
+
+	private final int parallelism;
+
+	public static void main(String[] args) {
+		String path = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		if (MappedModelFile.isModelFile(path) || ArpaFile.isArpaFile(path)) {
+			System.err.println("'" + path + "' must be a model file in the original or packed format.");
+			return;
+		}
+
+		int availableProcessors = Runtime.getRuntime().availableProcessors();
+		System.out.println((PackedModelFile.isModelFile(path) ? "Packed" : "Original") + " format, "
+			+ availableProcessors + " available processors, best of " + ROUNDS + " rounds");
+
+		//Load once to intern the vocabulary and warm up, so all runs do the same work
+		new ParallelLoader(1).load(path, NGramIndexType.COMPACT);
+
+		long sequentialTime = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			new Loader().load(path);
+			sequentialTime = Math.min(sequentialTime, System.nanoTime() - start);
+		}
+		System.out.println("Sequential: " + sequentialTime / 1000000 + " ms");
+
+		//More threads than processors don't measure the speedup of the threads
+		for (int parallelism : new int[] { 1, 4, 16 }) {
+			if (parallelism > availableProcessors) {
+				System.out.println(parallelism + " threads: skipped, as there are only " + availableProcessors + " processors");
+				continue;
+			}
+
+			long time = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				new ParallelLoader(parallelism).load(path, NGramIndexType.COMPACT);
+				time = Math.min(time, System.nanoTime() - start);
+			}
+
+			System.out.println(parallelism + " threads: " + time / 1000000 + " ms, speedup "
+				+ String.format("%.2f", (double)sequentialTime / time));
+		}
+	}
+
+	/**
+	 * Creates a new loader
+	 * @param parallelism The number of threads
+	 */
+	public ParallelLoader(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Creates a new loader that uses all available processors
+	 */
+	public ParallelLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reads from a byte buffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		/**
+		 * Creates a new input stream
+		 * @param buffer The buffer
+		 */
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+
+			len = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, len);
+			return len;
+		}
+	}
+
+	/**
+	 * The n-grams of a partition decoded from a chunk, as packed keys and counts
+	 */
+	private static class Entries {
+		private long[] keys = new long[16];
+		private int[] counts = new int[16];
+		private int size = 0;
+
+		/**
+		 * Adds the given entry
+		 * @param key The packed n-gram
+		 * @param count The count
+		 */
+		public void add(long key, int count) {
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.counts = Arrays.copyOf(this.counts, this.size * 2);
+			}
+
+			this.keys[this.size] = key;
+			this.counts[this.size] = count;
+			this.size++;
+		}
+	}
+
+	/**
+	 * The tree and statistics of a partition
+	 */
+	private static class Partition {
+		private final CompactNGramTree tree;
+		private final int[] numNGrams;
+		private final int[] totalNGramCounts;
+
+		/**
+		 * Creates a new partition
+		 * @param tree The tree
+		 * @param numNGrams The number of n-grams for each length
+		 * @param totalNGramCounts The total count for each n-gram length
+		 */
+		public Partition(CompactNGramTree tree, int[] numNGrams, int[] totalNGramCounts) {
+			this.tree = tree;
+			this.numNGrams = numNGrams;
+			this.totalNGramCounts = totalNGramCounts;
+		}
+	}
+
+	/**
+	 * Waits for the given tasks and returns their results
+	 * @param futures The tasks
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+		List<T> results = new ArrayList<>();
+
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Couldn't load the n-grams.", e);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Loads and returns a n-gram model from disc.
+	 *
+	 * @param path File path to file containing stored NGram model.
+	 * @param indexType The type of search tree used by the loaded model. HASH_MAP loads sequentially.
+	 * @return The model or null if not loaded
+	 */
+	public NGramModel load(String path, NGramIndexType indexType) {
+		if (indexType == NGramIndexType.HASH_MAP
+			|| MappedModelFile.isModelFile(path)
+			|| ArpaFile.isArpaFile(path)) {
+			return new Loader().load(path, indexType);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+
+		if (PackedModelFile.isModelFile(path)) {
+			try {
+				return PackedModelFile.load(path, indexType, pool);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return new Loader().load(path, indexType);
+			}
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return this.load(buffer, indexType, pool);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Loads the model in the given buffer
+	 * @param buffer The contents of the file
+	 * @param indexType The type of search tree used by the loaded model
+	 * @param pool The thread pool
+	 */
+	private NGramModel load(final ByteBuffer buffer, NGramIndexType indexType, ForkJoinPool pool) throws IOException {
+		final int maxLength = NGramModel.DEFAULT_MAX_NGRAM_LENGTH;
+		DataInputStream inputStream = new DataInputStream(new ByteBufferInputStream(buffer));
+
+		//The token index, mapping the ids in the file to ids in the vocabulary
+		int numTokens = inputStream.readInt();
+		final int[] fileIdToId = new int[numTokens];
+		for (int id = 0; id < numTokens; id++) {
+			fileIdToId[id] = Vocabulary.global().getIdFromString(inputStream.readUTF());
+		}
+
+		//Good-Turing parameters
+		int total = inputStream.readInt();
+		double a = inputStream.readDouble();
+		double b = inputStream.readDouble();
+
+		//The top ranked unigrams
+		List<NGram> topUnigrams = new ArrayList<>();
+		int topUnigramsCount = inputStream.readInt();
+		for (int i = 0; i < topUnigramsCount; i++) {
+			topUnigrams.add(NGram.fromId(fileIdToId[inputStream.readInt()]));
+		}
+
+		//Find the start of each chunk of records, skipping over the records
+		int count = inputStream.readInt();
+		final List<Integer> chunkStarts = new ArrayList<>();
+		int position = buffer.position();
+		for (int i = 0; i < count; i++) {
+			if (i % RECORDS_PER_CHUNK == 0) {
+				chunkStarts.add(position);
+			}
+
+			position += 4 * (buffer.getInt(position) + 2);
+		}
+		chunkStarts.add(position);
+
+		//The partitions are ranges of the first token id
+		int maxId = -1;
+		for (int id : fileIdToId) {
+			maxId = Math.max(maxId, id);
+		}
+
+		final int numPartitions = Math.max(1, this.parallelism * 4);
+		final int idsPerPartition = maxId / numPartitions + 1;
+
+		//Decode the chunks
+		List<Future<Entries[]>> decodeTasks = new ArrayList<>();
+		for (int chunk = 0; chunk < chunkStarts.size() - 1; chunk++) {
+			final int start = chunkStarts.get(chunk);
+			final int end = chunkStarts.get(chunk + 1);
+
+			decodeTasks.add(pool.submit(new Callable<Entries[]>() {
+				@Override
+				public Entries[] call() {
+					Entries[] partitions = new Entries[numPartitions];
+					for (int p = 0; p < numPartitions; p++) {
+						partitions[p] = new Entries();
+					}
+
+					int position = start;
+					while (position < end) {
+						int length = buffer.getInt(position);
+						position += 4;
+
+						long key = 0;
+						for (int i = 0; i < length; i++) {
+							key = NGramCountTable.packId(key, i, fileIdToId[buffer.getInt(position)]);
+							position += 4;
+						}
+
+						int ngramCount = buffer.getInt(position);
+						position += 4;
+
+						if (length > 0 && length <= maxLength) {
+							partitions[NGramCountTable.idAt(key, 0) / idsPerPartition].add(key, ngramCount);
+						}
+					}
+
+					return partitions;
+				}
+			}));
+		}
+
+		final List<Entries[]> chunks = getAll(decodeTasks);
+
+		//Build the tree of each partition
+		List<Future<Partition>> buildTasks = new ArrayList<>();
+		for (int p = 0; p < numPartitions; p++) {
+			final int partition = p;
+
+			buildTasks.add(pool.submit(new Callable<Partition>() {
+				@Override
+				public Partition call() {
+					int size = 0;
+					for (Entries[] chunk : chunks) {
+						size += chunk[partition].size;
+					}
+
+					NGramCountTable table = new NGramCountTable(size);
+					for (Entries[] chunk : chunks) {
+						Entries entries = chunk[partition];
+						for (int i = 0; i < entries.size; i++) {
+							table.add(entries.keys[i], entries.counts[i]);
+						}
+					}
+
+					final int[] numNGrams = new int[maxLength];
+					final int[] totalNGramCounts = new int[maxLength];
+					table.forEach(new NGramCountTable.OnEntryAction() {
+						@Override
+						public void execute(long key, int count) {
+							int length = NGramCountTable.length(key);
+							numNGrams[length - 1]++;
+							totalNGramCounts[length - 1] += count;
+						}
+					});
+
+					return new Partition(CompactNGramTree.fromTable(table, maxLength), numNGrams, totalNGramCounts);
+				}
+			}));
+		}
+
+		List<Partition> partitions = getAll(buildTasks);
+
+		int[] numNGrams = new int[maxLength];
+		int[] totalNGramCounts = new int[maxLength];
+		CompactNGramTree[] trees = new CompactNGramTree[partitions.size()];
+		for (int p = 0; p < partitions.size(); p++) {
+			trees[p] = partitions.get(p).tree;
+			for (int i = 0; i < maxLength; i++) {
+				numNGrams[i] += partitions.get(p).numNGrams[i];
+				totalNGramCounts[i] += partitions.get(p).totalNGramCounts[i];
+			}
+		}
+
+		CompactNGramTree tree = CompactNGramTree.concat(trees);
+		NGramIndex index = indexType == NGramIndexType.DOUBLE_ARRAY ? DoubleArrayNGramTree.fromTree(tree) : tree;
+
+		NGramModel model = new NGramModel(index, numNGrams, totalNGramCounts);
+		model.getGoodTuringEstimation().setTotal(total);
+		model.getGoodTuringEstimation().setLogLinear(a, b);
+		model.topUnigrams().addAll(topUnigrams);
+		return model;
+	}
+}
@@ -2,19 +2,37 @@ package aiprojekt;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The pre-processor process text files, generates a n-gram model and saves to file
+ * The pre-processor process text files, generates a n-gram model and saves to file.
+ * The files can be processed by multiple threads, where large files are split into byte ranges of whole lines.
+ * Each thread counts the n-grams into its own table, and the tables are merged when all files have been processed.
+ * The user names that are removed from the sentences are the names seen earlier in the same file, as when processed
+ * by a single thread, so the parser of a byte range starts with the user names of the earlier ranges of the file.
+ * When counting approximately, the files are processed twice: the first time the n-grams are added to a sketch,
+ * and the second time only the n-grams that the sketch estimates as more common than the rare threshold are counted.
+ * The n-grams are counted by packed token ids (see NGramCountTable), so the vocabulary can have at most
+ * NGramCountTable.MAX_ID + 1 different tokens. Processing stops with an IllegalStateException before a sentence
+ * with a token beyond that is counted.
  */
 public class PreProcessor {
 	public static final String BIG_DUMP_LOGS_PATH = "res/chatlogs/big_dump_logs/"; 
@@ -22,10 +40,29 @@ public class PreProcessor {
 	public static final String WRITE_TO_PATH = "res/bin/";
 	public static final String FILE_NAME = "ngrams.bin";
 	public static final String FILE_PATH = WRITE_TO_PATH + FILE_NAME;
+	public static final String MODEL_FILE_NAME = "ngrams.model";
+	public static final String MODEL_FILE_PATH = WRITE_TO_PATH + MODEL_FILE_NAME;
+	
+	/**
+	 * The default size of the byte ranges that large files are split into when processed by multiple threads
+	 */
+	public static final long DEFAULT_RANGE_SIZE = 32L << 20;
 	
 	private final boolean sampleLogs = false;
 	private final boolean timer = true;
 	
+	private final int parallelism;
+	private long rangeSize = DEFAULT_RANGE_SIZE;
+	
+	//The maximum number of n-grams in memory for each thread when counting with external memory, or 0
+	private int externalBufferSize = 0;
+	
+	//The size in bytes of the sketch of each thread when counting approximately, or 0
+	private long sketchSize = 0;
+	
+	//The counters of the n-grams that haven't been merged into the model
+	private final List<ExternalNGramCounter> externalCounters = new ArrayList<>();
+	
 	private int processedSentences = 0;
 	private int processedTokens = 0;
 	
@@ -34,12 +71,73 @@ public class PreProcessor {
 	private static final Token END_OF_SENTENCE_TOKEN = new Token(TokenType.END_OF_SENTENCE);
 	
 	public static void main(String[] args) {
-		PreProcessor processor = new PreProcessor();
+		int parallelism = 1;
+		if (args.length >= 1 && args[0].equals("parallel")) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		} else if (args.length >= 1) {
+			parallelism = Integer.parseInt(args[0]);
+		}
+		
+		PreProcessor processor = new PreProcessor(parallelism);
+		if (args.length >= 2) {
+			processor.setExternalCounting(Integer.parseInt(args[1]));
+		}
+		
+		if (args.length >= 3) {
+			processor.setApproximateCounting(Long.parseLong(args[2]) << 20);
+		}
+		
 		processor.run();
 	}
+	
+	/**
+	 * Creates a new pre-processor that processes the files with a single thread
+	 */
+	public PreProcessor() {
+		this(1);
+	}
+	
+	/**
+	 * Creates a new pre-processor
+	 * @param parallelism The number of threads that process the files
+	 */
+	public PreProcessor(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	/**
+	 * Counts the n-grams with at most the given number of n-grams in memory for each thread, where the counts
+	 * are written to temporary files and merged when all files have been processed (see ExternalNGramCounter).
+	 * The n-grams that end() removes as rare are removed when the counts are merged into the model.
+	 * @param bufferSize The maximum number of n-grams in memory, or 0 to count in memory
+	 */
+	public void setExternalCounting(int bufferSize) {
+		this.externalBufferSize = Math.max(0, bufferSize);
+	}
+	
+	/**
+	 * Counts the n-grams approximately, where a n-gram of length > 1 is only counted if a sketch of the given size
+	 * (see NGramSketch) estimates that it is more common than the rare threshold. The estimate is never lower than the count,
+	 * so the n-grams that end() doesn't remove have the same counts as when counting all n-grams, and the other n-grams
+	 * are only added to the total counts. The files are processed twice, as the sketch is made in a first pass.
+	 * @param sketchSize The size of the sketch of each thread in bytes, or 0 to count all n-grams
+	 */
+	public void setApproximateCounting(long sketchSize) {
+		this.sketchSize = Math.max(0, sketchSize);
+	}
+	
+	/**
+	 * Sets the size of the byte ranges that large files are split into when processed by multiple threads
+	 * @param rangeSize The size in bytes
+	 */
+	public void setRangeSize(long rangeSize) {
+		this.rangeSize = Math.max(1, rangeSize);
+	}
 
 	/**
 	 * Executes the pre-processor stage
+	 * @throws UncheckedIOException If the n-grams counted with external memory couldn't be written or merged,
+	 * in which case no model is written
 	 */
 	public void run() {
 		File file;
@@ -52,6 +150,7 @@ public class PreProcessor {
 		
 		long startTime = System.currentTimeMillis();
 		processFiles(file);
+		this.mergeExternalCounts();
 		this.ngramModel.end();
 		long stopTime = System.currentTimeMillis();
 		
@@ -59,7 +158,7 @@ public class PreProcessor {
 			System.out.println("Elapsed time was " + (stopTime - startTime) / 1000.0 + " seconds.");
 			System.out.println("Processed " + this.processedSentences + " sentences");
 			System.out.println("Processed " + this.processedTokens + " tokens");
-			System.out.println("Total n-grams: " + ngramModel.getNgrams().size());
+			System.out.println("Total n-grams: " + ngramModel.numNgrams());
 			for (int i = 1; i <= ngramModel.maxLength(); i++) {
 				System.out.println("Number of " + i + "-grams: " + ngramModel.numberOfNGramLength(i));
 			}	
@@ -72,6 +171,12 @@ public class PreProcessor {
 		
 		writeToFile(FILE_PATH);
 		
+		try {
+			MappedModelFile.write(this.ngramModel, MODEL_FILE_PATH);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
 		if (timer) {
 			System.out.println("Memory: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024 + " MB");
 		}
@@ -82,6 +187,8 @@ public class PreProcessor {
 	 * @return
 	 */
 	public NGramModel getNgramModel() {
+		this.mergeExternalCounts();
+		
 		if (processedSentences != 0) {
 			return ngramModel;
 		} else {
@@ -92,27 +199,42 @@ public class PreProcessor {
 	}
 	
 	/**
-	 * Writes the data to file
+	 * Writes the data to file, in the packed (version 2) format
 	 */
 	public void writeToFile(String path) {
+		try {
+			PackedModelFile.write(this.ngramModel, path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the data to file, in the original (version 1) format
+	 */
+	public void writeLegacyToFile(String path) {
 		try (DataOutputStream outputStream = new DataOutputStream(
 				new BufferedOutputStream(new FileOutputStream(path)))) {
-			//First write all unique tokens
-			Map<Token, Integer> tokenToId = new HashMap<>();
+			//First write all unique tokens, mapping the vocabulary ids to dense ids in the file
+			NGramCountTable counts = this.ngramModel.getCountTable();
+			final int[] idToFileId = new int[Vocabulary.global().size()];
+			Arrays.fill(idToFileId, -1);
 			
-			Set<Token> tokens = new HashSet<>();
-			for (NGram ngram : this.ngramModel.getNgrams().keySet()) {
-				if (ngram.length() == 1) {
-					tokens.add(ngram.at(0));
+			final List<Token> tokens = new ArrayList<>();
+			counts.forEach(new NGramCountTable.OnEntryAction() {
+				@Override
+				public void execute(long key, int count) {
+					int id = NGramCountTable.idAt(key, 0);
+					if (NGramCountTable.length(key) == 1 && idToFileId[id] == -1) {
+						idToFileId[id] = tokens.size();
+						tokens.add(Vocabulary.global().getToken(id));
+					}
 				}
-			}
+			});
 			
-			outputStream.writeInt(tokens.size());	
-			int id = 0;
+			outputStream.writeInt(tokens.size());
 			for (Token token : tokens) {
 				outputStream.writeUTF(token.toString());
-				tokenToId.put(token, id);
-				id++;
 			}
 			
 			//Then the Good-Turing parameters
@@ -123,23 +245,30 @@ public class PreProcessor {
 			//Then the top ranked unigrams
 			outputStream.writeInt(this.ngramModel.topUnigrams().size());
 			for (NGram ngram : this.ngramModel.topUnigrams()) {
-				Token token = ngram.at(0);
-				outputStream.writeInt(tokenToId.get(token));
+				outputStream.writeInt(idToFileId[ngram.idAt(0)]);
 			}
 						
 			//Then the n-grams, where the token id points to the previous table
-			outputStream.writeInt(this.ngramModel.getNgrams().size());
-							
-			for (Map.Entry<NGram, Integer> current : this.ngramModel.getNgrams().entrySet()) {
-				outputStream.writeInt(current.getKey().length());
-				
-				for (int i = 0; i < current.getKey().length(); i++) {
-					Token token = current.getKey().at(i);
-					outputStream.writeInt(tokenToId.get(token));
+			outputStream.writeInt(counts.size());
+			
+			final DataOutputStream ngramStream = outputStream;
+			counts.forEach(new NGramCountTable.OnEntryAction() {
+				@Override
+				public void execute(long key, int count) {
+					try {
+						int length = NGramCountTable.length(key);
+						ngramStream.writeInt(length);
+						
+						for (int i = 0; i < length; i++) {
+							ngramStream.writeInt(idToFileId[NGramCountTable.idAt(key, i)]);
+						}
+						
+						ngramStream.writeInt(count);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
 				}
-				
-				outputStream.writeInt(current.getValue());
-			}
+			});
 			
 			outputStream.flush();
 		} catch (Exception e) {
@@ -166,8 +295,99 @@ public class PreProcessor {
 	 * directory, all its files and subdirectories are recursively processed.
 	 */
 	public void processFiles(File file) {
-		TextParser parser = new TextParser();
+		if (this.parallelism > 1) {
+			this.processFilesInParallel(file);
+		} else {
+			this.processFilesSequentially(file);
+		}
+	}
+	
+	/**
+	 * Returns the external counter of the current thread
+	 */
+	private ExternalNGramCounter sequentialCounter() {
+		if (this.externalCounters.isEmpty()) {
+			this.externalCounters.add(new ExternalNGramCounter(this.externalBufferSize, this.ngramModel.maxLength(), null));
+		}
+		
+		return this.externalCounters.get(0);
+	}
+	
+	/**
+	 * Merges the n-grams counted with external memory into the model, removing the rare n-grams
+	 */
+	private void mergeExternalCounts() {
+		if (this.externalCounters.isEmpty()) {
+			return;
+		}
+		
+		try {
+			ExternalNGramCounter.merge(this.externalCounters, new ExternalNGramCounter.OnMergedEntryAction() {
+				@Override
+				public void execute(long key, int count) {
+					int length = NGramCountTable.length(key);
+					if (length > 1 && count <= NGramModel.RARE_THRESHOLD) {
+						ngramModel.addRemovedNGram(length, count);
+					} else {
+						ngramModel.addNGram(key, length, count);
+					}
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Couldn't merge the n-grams counted with external memory.", e);
+		} finally {
+			for (ExternalNGramCounter counter : this.externalCounters) {
+				counter.close();
+			}
+			
+			this.externalCounters.clear();
+		}
+	}
+	
+	/**
+	 * Adds the numbers of processed sentences and tokens and the n-grams that weren't counted of the given counts
+	 * @param counts The counts
+	 */
+	private void addProcessed(Counts counts) {
+		this.processedSentences += counts.processedSentences;
+		this.processedTokens += counts.processedTokens;
 		
+		for (int i = 0; i < counts.removedCounts.length; i++) {
+			if (counts.removedCounts[i] > 0) {
+				this.ngramModel.addRemovedNGram(i + 1, counts.removedCounts[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Tokenizes and indexes the file @code{file} with the current thread. If @code{file} is a
+	 * directory, all its files and subdirectories are recursively processed.
+	 */
+	private void processFilesSequentially(File file) {
+		int maxLength = this.ngramModel.maxLength();
+		NGramSketch filter = null;
+		if (this.sketchSize > 0) {
+			Counts sketchCounts = new Counts(maxLength, null, null, this.createSketch(), null);
+			this.processFilesSequentially(file, sketchCounts);
+			filter = sketchCounts.sketch;
+		}
+		
+		Counts counts;
+		if (this.externalBufferSize > 0) {
+			counts = new Counts(maxLength, null, this.sequentialCounter(), null, filter);
+		} else {
+			counts = new Counts(maxLength, this.ngramModel, null, null, filter);
+		}
+		
+		this.processFilesSequentially(file, counts);
+		this.addProcessed(counts);
+	}
+	
+	/**
+	 * Tokenizes and indexes the file @code{file} with the current thread, adding them to the given counts. If @code{file} is a
+	 * directory, all its files and subdirectories are recursively processed.
+	 */
+	private void processFilesSequentially(File file, Counts counts) {
 		// do not try to tokenize fs that cannot be read
 		if (file.canRead()) {
 			if (file.isDirectory()) {
@@ -175,19 +395,20 @@ public class PreProcessor {
 				// an IO error could occur
 				if (fs != null) {
 					for (int i = 0; i < fs.length; i++) {
-						processFiles(new File(file, fs[i]));
+						processFilesSequentially(new File(file, fs[i]), counts);
 					}
 				}
 			} else {
+				TextParser parser = new TextParser();
 				try (BufferedReader br = new BufferedReader(new FileReader(file))) {
 					String sentence;
 					while ((sentence = br.readLine()) != null) {
 						List<Token> tokens = parser.tokenize(sentence);
 						
 						if (!this.isEmptySentence(tokens)) {
-							this.ngramModel.processTokens(tokens);
-							this.processedSentences++;
-							this.processedTokens += tokens.size();
+							counts.processTokens(tokens);
+							counts.processedSentences++;
+							counts.processedTokens += tokens.size();
 						}
 					}
 				} catch (IOException e) {
@@ -196,4 +417,394 @@ public class PreProcessor {
 			}
 		}
 	}
+	
+	/**
+	 * Creates an empty sketch for approximate counting, which tells if a n-gram can be more common than the rare threshold
+	 */
+	private NGramSketch createSketch() {
+		return new NGramSketch(this.sketchSize, NGramModel.RARE_THRESHOLD + 1);
+	}
+	
+	/**
+	 * A range of whole lines in a file
+	 */
+	private static class Range {
+		private final File file;
+		private final long start;
+		private final long end;
+		
+		//The ranges of the file before this range
+		private final List<Range> previousRanges;
+		
+		//The user names in the range, which are collected if the file has later ranges
+		private final Set<String> userNames = new HashSet<>();
+		
+		/**
+		 * Creates a new range
+		 * @param file The file
+		 * @param start The byte offset of the first line
+		 * @param end The byte offset after the last line
+		 * @param previousRanges The ranges of the file before this range
+		 */
+		public Range(File file, long start, long end, List<Range> previousRanges) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.previousRanges = previousRanges;
+		}
+		
+		/**
+		 * Opens a reader of the lines in the range
+		 */
+		public BufferedReader open() throws IOException {
+			if (this.start == 0 && this.end == this.file.length()) {
+				return new BufferedReader(new FileReader(this.file));
+			}
+			
+			byte[] bytes = new byte[(int)(this.end - this.start)];
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "r")) {
+				randomAccessFile.seek(this.start);
+				randomAccessFile.readFully(bytes);
+			}
+			
+			return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+		}
+	}
+	
+	/**
+	 * The n-grams counted by a thread, either in memory, with external memory or in a sketch.
+	 * With a filter, the n-grams of length > 1 that the filter estimates as rare are only counted by length.
+	 */
+	private static class Counts {
+		private final int maxLength;
+		private final NGramModel model;
+		private final ExternalNGramCounter counter;
+		private final NGramSketch sketch;
+		private final NGramSketch filter;
+		
+		//The total count of the n-grams of each length that weren't counted because they are rare
+		private final int[] removedCounts;
+		
+		private int processedSentences = 0;
+		private int processedTokens = 0;
+		
+		/**
+		 * Creates new counts, where one of the model, the counter and the sketch is used
+		 * @param maxLength The maximum n-gram length
+		 * @param model The model that counts the n-grams in memory, or null
+		 * @param counter The counter that counts the n-grams with external memory, or null
+		 * @param sketch The sketch that the n-grams of length > 1 are added to, or null
+		 * @param filter The sketch of the rare n-grams that aren't counted, or null
+		 */
+		public Counts(int maxLength, NGramModel model, ExternalNGramCounter counter, NGramSketch sketch, NGramSketch filter) {
+			this.maxLength = maxLength;
+			this.model = model;
+			this.counter = counter;
+			this.sketch = sketch;
+			this.filter = filter;
+			this.removedCounts = new int[maxLength];
+		}
+		
+		/**
+		 * Counts the n-grams in the given tokens
+		 * @param tokens The tokens
+		 * @throws UncheckedIOException If a run of the external memory couldn't be written
+		 */
+		public void processTokens(List<Token> tokens) {
+			//The ids are checked before any n-gram of the sentence is counted
+			for (Token token : tokens) {
+				if (token.getId() > NGramCountTable.MAX_ID) {
+					throw new IllegalStateException("The vocabulary has more than " + (NGramCountTable.MAX_ID + 1)
+						+ " different tokens, which is the most that can be counted (see NGramCountTable.MAX_ID).");
+				}
+			}
+			
+			try {
+				this.countTokens(tokens);
+			} catch (IOException e) {
+				//Not caught with the errors of reading the files, as the counts would be incomplete
+				throw new UncheckedIOException("Couldn't write the n-grams counted with external memory.", e);
+			}
+		}
+		
+		/**
+		 * Counts the n-grams in the given tokens, which have valid ids
+		 * @param tokens The tokens
+		 */
+		private void countTokens(List<Token> tokens) throws IOException {
+			if (this.sketch == null && this.filter == null) {
+				if (this.counter != null) {
+					this.counter.processTokens(tokens);
+				} else {
+					this.model.processTokens(tokens);
+				}
+				
+				return;
+			}
+			
+			for (int i = 0; i < tokens.size(); i++) {
+				long key = 0;
+				boolean rare = false;
+				
+				//Creates the unigram, bigrams, trigrams, ... where a n-gram is rare if its prefix is rare
+				for (int j = i; j < Math.min(i + this.maxLength, tokens.size()); j++) {
+					key = NGramCountTable.packId(key, j - i, tokens.get(j).getId());
+					int length = j - i + 1;
+					
+					if (this.sketch != null) {
+						if (length > 1) {
+							this.sketch.add(key);
+						}
+						
+						continue;
+					}
+					
+					if (length > 1 && !rare) {
+						rare = this.filter.estimate(key) <= NGramModel.RARE_THRESHOLD;
+					}
+					
+					if (rare) {
+						this.removedCounts[length - 1]++;
+					} else if (this.counter != null) {
+						this.counter.add(key, 1);
+					} else {
+						this.model.addNGram(key, length, 1);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the ranges of the given file, or of all files in the given directory and its subdirectories
+	 * @param file The file or directory
+	 * @param ranges The ranges
+	 */
+	private void addRanges(File file, List<Range> ranges) throws IOException {
+		// do not try to tokenize fs that cannot be read
+		if (!file.canRead()) {
+			return;
+		}
+		
+		if (file.isDirectory()) {
+			String[] fs = file.list();
+			// an IO error could occur
+			if (fs != null) {
+				for (int i = 0; i < fs.length; i++) {
+					this.addRanges(new File(file, fs[i]), ranges);
+				}
+			}
+			
+			return;
+		}
+		
+		//The ranges end after the first line break after each multiple of the range size
+		long length = file.length();
+		List<Range> fileRanges = new ArrayList<>();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			long start = 0;
+			while (start < length || fileRanges.isEmpty()) {
+				long end = Math.min(length, start + this.rangeSize);
+				if (end < length) {
+					long position = end - 1;
+					randomAccessFile.seek(position);
+					int b;
+					while ((b = randomAccessFile.read()) != -1 && b != '\n') {
+						position++;
+					}
+					
+					end = Math.min(length, position + 1);
+				}
+				
+				fileRanges.add(new Range(file, start, end, new ArrayList<>(fileRanges)));
+				start = end;
+			}
+		}
+		
+		ranges.addAll(fileRanges);
+	}
+	
+	/**
+	 * Waits for the given tasks and returns their results
+	 * @param futures The tasks
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures) throws IOException {
+		List<T> results = new ArrayList<>();
+		
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			//The errors of the counts, like a too large vocabulary, are thrown as they are
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			
+			throw new IOException("Couldn't process the files.", e);
+		} catch (InterruptedException e) {
+			throw new IOException("Couldn't process the files.", e);
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Tokenizes and indexes the lines in the given range, adding them to the given counts
+	 * @param range The range
+	 * @param counts The counts
+	 */
+	private void processRange(Range range, Counts counts) {
+		TextParser parser = new TextParser();
+		for (Range previousRange : range.previousRanges) {
+			parser.addUserNames(previousRange.userNames);
+		}
+		
+		try (BufferedReader br = range.open()) {
+			String sentence;
+			while ((sentence = br.readLine()) != null) {
+				List<Token> tokens = parser.tokenize(sentence);
+				
+				if (!this.isEmptySentence(tokens)) {
+					counts.processTokens(tokens);
+					counts.processedSentences++;
+					counts.processedTokens += tokens.size();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Counts the n-grams in the given ranges, where each thread takes the next range until all ranges are processed
+	 * @param pool The pool of the threads
+	 * @param ranges The ranges
+	 * @param sketching True if the n-grams are added to sketches
+	 * @param filter The sketch of the rare n-grams that aren't counted, or null
+	 * @return The counts of the threads
+	 */
+	private List<Counts> countRanges(ForkJoinPool pool, final List<Range> ranges, final boolean sketching,
+			final NGramSketch filter) throws IOException {
+		final AtomicInteger nextRange = new AtomicInteger();
+		final int maxLength = this.ngramModel.maxLength();
+		final int externalBufferSize = this.externalBufferSize;
+		List<Future<Counts>> countTasks = new ArrayList<>();
+		for (int i = 0; i < this.parallelism; i++) {
+			countTasks.add(pool.submit(new Callable<Counts>() {
+				@Override
+				public Counts call() {
+					Counts counts;
+					if (sketching) {
+						counts = new Counts(maxLength, null, null, createSketch(), null);
+					} else if (externalBufferSize > 0) {
+						counts = new Counts(maxLength, null, new ExternalNGramCounter(externalBufferSize, maxLength, null), null, filter);
+					} else {
+						counts = new Counts(maxLength, new NGramModel(maxLength), null, null, filter);
+					}
+					
+					int range;
+					while ((range = nextRange.getAndIncrement()) < ranges.size()) {
+						processRange(ranges.get(range), counts);
+					}
+					
+					return counts;
+				}
+			}));
+		}
+		
+		return getAll(countTasks);
+	}
+	
+	/**
+	 * Tokenizes and indexes the file @code{file} with multiple threads. If @code{file} is a
+	 * directory, all its files and subdirectories are recursively processed.
+	 */
+	private void processFilesInParallel(File file) {
+		ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+		
+		try {
+			final List<Range> ranges = new ArrayList<>();
+			this.addRanges(file, ranges);
+			
+			//The user names of the ranges that are followed by other ranges of the same file
+			List<Future<Void>> userNameTasks = new ArrayList<>();
+			for (int i = 0; i + 1 < ranges.size(); i++) {
+				final Range range = ranges.get(i);
+				if (ranges.get(i + 1).previousRanges.isEmpty()) {
+					continue;
+				}
+				
+				userNameTasks.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						TextParser parser = new TextParser();
+						try (BufferedReader br = range.open()) {
+							String sentence;
+							while ((sentence = br.readLine()) != null) {
+								String userName = parser.getUser(sentence);
+								if (!userName.isEmpty()) {
+									range.userNames.add(userName.toLowerCase());
+								}
+							}
+						}
+						
+						return null;
+					}
+				}));
+			}
+			
+			getAll(userNameTasks);
+			
+			//When counting approximately, the sketches of the threads are summed before the ranges are counted
+			NGramSketch filter = null;
+			if (this.sketchSize > 0) {
+				List<Counts> allSketches = this.countRanges(pool, ranges, true, null);
+				filter = allSketches.get(0).sketch;
+				for (int i = 1; i < allSketches.size(); i++) {
+					filter.addAll(allSketches.get(i).sketch);
+				}
+			}
+			
+			final List<Counts> allCounts = this.countRanges(pool, ranges, false, filter);
+			for (Counts counts : allCounts) {
+				this.addProcessed(counts);
+			}
+			
+			//The counts with external memory are merged from the runs of all threads when the model is returned
+			if (this.externalBufferSize > 0) {
+				for (Counts counts : allCounts) {
+					this.externalCounters.add(counts.counter);
+				}
+				
+				return;
+			}
+			
+			//The tables are merged in pairs, where the merges of each round are done in parallel
+			for (int step = 1; step < allCounts.size(); step *= 2) {
+				List<Future<Void>> mergeTasks = new ArrayList<>();
+				for (int i = 0; i + step < allCounts.size(); i += 2 * step) {
+					final Counts counts = allCounts.get(i);
+					final Counts otherCounts = allCounts.get(i + step);
+					
+					mergeTasks.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							counts.model.getCountTable().addAll(otherCounts.model.getCountTable());
+							otherCounts.model.getCountTable().clear();
+							return null;
+						}
+					}));
+				}
+				
+				getAll(mergeTasks);
+			}
+			
+			this.ngramModel.addNGrams(allCounts.get(0).model.getCountTable());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
 }
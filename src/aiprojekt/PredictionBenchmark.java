@@ -0,0 +1,128 @@
+package aiprojekt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how the throughput of predictions on one shared model scales with the number of threads,
+ * for the model with its caches and for a frozen snapshot of the model
+ */
+public class PredictionBenchmark {
+	private static final int NUM_CONTEXTS = 20000;
+	private static final int NUM_RESULTS = 5;
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		String path = args.length > 0 ? args[0] : PreProcessor.MODEL_FILE_PATH;
+
+		Loader loader = new Loader();
+		NGramModel model = loader.load(path);
+
+		//The contexts are the top unigrams and the bigrams that start with them
+		List<NGram> contexts = new ArrayList<>();
+		for (NGram unigram : model.topUnigrams()) {
+			contexts.add(unigram);
+			for (NGramTree.Result result : model.searchTree().findResults(unigram)) {
+				contexts.add(result.getNgram());
+			}
+		}
+
+		Collections.shuffle(contexts, new Random(1337));
+		contexts = contexts.subList(0, Math.min(NUM_CONTEXTS, contexts.size()));
+
+		int availableProcessors = Runtime.getRuntime().availableProcessors();
+		System.out.println(availableProcessors + " available processors, best of " + ROUNDS + " rounds");
+
+		benchmark("Cached", model, contexts, availableProcessors);
+		//A paged tree, or a mapped tree without the precomputed values, can't be frozen
+		try {
+			benchmark("Frozen", model.freeze(), contexts, availableProcessors);
+		} catch (IllegalStateException e) {
+			System.out.println("Frozen: skipped, " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Benchmarks the given model with different numbers of threads
+	 * @param name The name of the model
+	 * @param model The model
+	 * @param contexts The contexts
+	 * @param availableProcessors The number of available processors
+	 */
+	private static void benchmark(String name, NGramModel model, List<NGram> contexts, int availableProcessors)
+			throws InterruptedException, ExecutionException {
+		//Warm up
+		run(model, contexts, 1);
+
+		double baseline = 0;
+		//More threads than processors don't measure the scaling of the threads
+		for (int numThreads : new int[] { 1, 2, 4, 8, 16 }) {
+			if (numThreads > availableProcessors) {
+				System.out.println(String.format("%s, %d threads: skipped, as there are only %d processors",
+					name, numThreads, availableProcessors));
+				continue;
+			}
+
+			double best = Double.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				best = Math.min(best, run(model, contexts, numThreads));
+			}
+
+			double throughput = contexts.size() / best;
+			if (numThreads == 1) {
+				baseline = throughput;
+			}
+
+			System.out.println(String.format("%s, %d threads: %.0f predictions/s, speedup %.2f",
+				name, numThreads, throughput, throughput / baseline));
+		}
+	}
+
+	/**
+	 * Predicts the next word for all the given contexts with an empty cache, split over the given number of threads
+	 * @param model The model
+	 * @param contexts The contexts
+	 * @param numThreads The number of threads
+	 * @return The time in seconds
+	 */
+	private static double run(final NGramModel model, List<NGram> contexts, int numThreads)
+			throws InterruptedException, ExecutionException {
+		model.clearCache();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			List<Callable<Long>> tasks = new ArrayList<>();
+			int chunkSize = (contexts.size() + numThreads - 1) / numThreads;
+			for (int start = 0; start < contexts.size(); start += chunkSize) {
+				final List<NGram> chunk = contexts.subList(start, Math.min(contexts.size(), start + chunkSize));
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() {
+						long checksum = 0;
+						for (NGram context : chunk) {
+							checksum += model.predictNext(context, NUM_RESULTS).size();
+						}
+
+						return checksum;
+					}
+				});
+			}
+
+			long start = System.nanoTime();
+			for (Future<Long> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+
+			return (System.nanoTime() - start) / 1E9;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
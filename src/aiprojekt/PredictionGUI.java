@@ -178,7 +178,7 @@ public class PredictionGUI {
 			new PredictionGUI(ngramModel);
 		} else {
 			Loader loader = new Loader();
-			new PredictionGUI(loader.load(PreProcessor.FILE_PATH));
+			new PredictionGUI(loader.load());
 		}
 	}
 	
@@ -0,0 +1,107 @@
+package aiprojekt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores the top predictions of frequent contexts, so they can be returned without computing any probabilities.
+ * The contexts are packed n-grams (see NGramCountTable), which are mapped to their position in the table,
+ * and the predictions of all contexts are stored after each other in primitive arrays.
+ * The table is built once and is only read after that, so it can be shared by many threads.
+ */
+public class PredictionTable {
+	private final int numResults;
+
+	//The position + 1 of each context, stored as the count
+	private final NGramCountTable positions = new NGramCountTable();
+
+	//The predictions of context i are at offsets[i] to offsets[i + 1]
+	private int[] offsets = new int[1024];
+	private int[] ids = new int[1024];
+	private double[] probabilities = new double[1024];
+	private int numContexts = 0;
+
+	/**
+	 * Creates a new table
+	 * @param numResults The maximum number of predictions for each context
+	 */
+	public PredictionTable(int numResults) {
+		this.numResults = numResults;
+	}
+
+	/**
+	 * Returns the maximum number of predictions for each context
+	 */
+	public int numResults() {
+		return this.numResults;
+	}
+
+	/**
+	 * Returns the number of contexts
+	 */
+	public int numContexts() {
+		return this.numContexts;
+	}
+
+	/**
+	 * Returns the approximate memory usage in bytes
+	 */
+	public long memoryUsage() {
+		return 4L * this.offsets.length + 12L * this.ids.length + 12L * this.positions.size() * 2;
+	}
+
+	/**
+	 * Adds the predictions for the given context
+	 * @param context The packed context
+	 * @param results The predictions, in order. Only the first numResults are stored.
+	 */
+	void add(long context, List<NGramModel.Result> results) {
+		int numAdded = Math.min(this.numResults, results.size());
+		int start = this.offsets[this.numContexts];
+
+		if (this.numContexts + 2 > this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+		}
+
+		if (start + numAdded > this.ids.length) {
+			int capacity = Math.max(this.ids.length * 2, start + numAdded);
+			this.ids = Arrays.copyOf(this.ids, capacity);
+			this.probabilities = Arrays.copyOf(this.probabilities, capacity);
+		}
+
+		for (int i = 0; i < numAdded; i++) {
+			NGramModel.Result result = results.get(i);
+			this.ids[start + i] = result.getNGram().lastId();
+			this.probabilities[start + i] = result.getProbability();
+		}
+
+		this.numContexts++;
+		this.offsets[this.numContexts] = start + numAdded;
+		this.positions.add(context, this.numContexts);
+	}
+
+	/**
+	 * Returns the stored predictions for the given context
+	 * @param ngram The context
+	 * @param context The packed context
+	 * @param numResults The number of predictions, which must be at most numResults()
+	 * @return The predictions, or null if the context isn't stored
+	 */
+	public List<NGramModel.Result> find(NGram ngram, long context, int numResults) {
+		int position = this.positions.get(context) - 1;
+		if (position < 0) {
+			return null;
+		}
+
+		int start = this.offsets[position];
+		int end = Math.min(this.offsets[position + 1], start + numResults);
+
+		List<NGramModel.Result> results = new ArrayList<>(end - start);
+		for (int i = start; i < end; i++) {
+			results.add(new NGramModel.Result(ngram.append(this.ids[i]), this.probabilities[i]));
+		}
+
+		return results;
+	}
+}
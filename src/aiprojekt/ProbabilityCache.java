@@ -0,0 +1,273 @@
+package aiprojekt;
+
+import java.util.Arrays;
+
+/**
+ * Represents a bounded cache from packed n-grams (see NGramCountTable) to probabilities.
+ * The entries are evicted by segmented LRU: new entries are put in a probationary segment, and entries
+ * that are hit again are moved to a protected segment. The least recently used probationary entry is evicted first,
+ * so n-grams that are only seen once can't push out the n-grams that are used repeatedly.
+ * The entries are stored in primitive arrays, where the slots of the hash table use linear probing
+ * and the segments are doubly linked lists, so no objects are allocated per entry.
+ * The cache isn't thread-safe, see StripedProbabilityCache.
+ */
+public class ProbabilityCache {
+	/**
+	 * The approximate number of bytes used per entry
+	 */
+	public static final int BYTES_PER_ENTRY = 8 + 8 + 4 + 4 + 1 + 2 * 4;
+
+	//The share of the capacity that is used by the protected segment
+	private static final double PROTECTED_SHARE = 0.8;
+
+	private static final int NONE = -1;
+	private static final byte PROBATION = 0;
+	private static final byte PROTECTED = 1;
+
+	private final int capacity;
+	private final int maxProtectedSize;
+
+	//The entry index of each slot in the hash table, or NONE
+	private final int[] slots;
+	private final int mask;
+
+	//The entries
+	private final long[] keys;
+	private final double[] values;
+	private final int[] previous;
+	private final int[] next;
+	private final byte[] segments;
+	private int size = 0;
+
+	//The most and least recently used entry of each segment
+	private final int[] heads = new int[] { NONE, NONE };
+	private final int[] tails = new int[] { NONE, NONE };
+	private final int[] segmentSizes = new int[2];
+
+	private long numHits = 0;
+	private long numMisses = 0;
+
+	/**
+	 * Creates a new cache
+	 * @param capacity The maximum number of entries
+	 */
+	public ProbabilityCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+
+		this.capacity = capacity;
+		this.maxProtectedSize = (int)(capacity * PROTECTED_SHARE);
+
+		int numSlots = 2;
+		while (numSlots < 2L * capacity) {
+			numSlots *= 2;
+		}
+
+		this.slots = new int[numSlots];
+		Arrays.fill(this.slots, NONE);
+		this.mask = numSlots - 1;
+
+		this.keys = new long[capacity];
+		this.values = new double[capacity];
+		this.previous = new int[capacity];
+		this.next = new int[capacity];
+		this.segments = new byte[capacity];
+	}
+
+	/**
+	 * Creates a cache that uses at most about the given number of bytes
+	 * @param bytes The number of bytes
+	 */
+	public static ProbabilityCache withMemoryLimit(long bytes) {
+		return new ProbabilityCache((int)Math.max(1, Math.min(Integer.MAX_VALUE / 2, bytes / BYTES_PER_ENTRY)));
+	}
+
+	/**
+	 * Returns the maximum number of entries
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns the number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of lookups that found an entry
+	 */
+	public long numHits() {
+		return this.numHits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find an entry
+	 */
+	public long numMisses() {
+		return this.numMisses;
+	}
+
+	/**
+	 * Returns the home slot for the given key
+	 * @param key The key
+	 */
+	private int hash(long key) {
+		//The finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key & this.mask;
+	}
+
+	/**
+	 * Returns the slot of the given key, or the empty slot where it would be inserted
+	 * @param key The key
+	 */
+	private int findSlot(long key) {
+		int slot = this.hash(key);
+
+		while (this.slots[slot] != NONE && this.keys[this.slots[slot]] != key) {
+			slot = (slot + 1) & this.mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Removes the given entry from its segment
+	 * @param entry The entry
+	 */
+	private void unlink(int entry) {
+		byte segment = this.segments[entry];
+
+		if (this.previous[entry] != NONE) {
+			this.next[this.previous[entry]] = this.next[entry];
+		} else {
+			this.heads[segment] = this.next[entry];
+		}
+
+		if (this.next[entry] != NONE) {
+			this.previous[this.next[entry]] = this.previous[entry];
+		} else {
+			this.tails[segment] = this.previous[entry];
+		}
+
+		this.segmentSizes[segment]--;
+	}
+
+	/**
+	 * Adds the given entry as the most recently used of the given segment
+	 * @param entry The entry
+	 * @param segment The segment
+	 */
+	private void linkFirst(int entry, byte segment) {
+		this.segments[entry] = segment;
+		this.previous[entry] = NONE;
+		this.next[entry] = this.heads[segment];
+
+		if (this.heads[segment] != NONE) {
+			this.previous[this.heads[segment]] = entry;
+		} else {
+			this.tails[segment] = entry;
+		}
+
+		this.heads[segment] = entry;
+		this.segmentSizes[segment]++;
+	}
+
+	/**
+	 * Removes the given slot from the hash table, moving the following slots back so that no probe sequence is broken
+	 * @param slot The slot
+	 */
+	private void removeSlot(int slot) {
+		int current = slot;
+
+		while (true) {
+			current = (current + 1) & this.mask;
+			int entry = this.slots[current];
+			if (entry == NONE) {
+				break;
+			}
+
+			//The entry can be moved back if the empty slot is between its home slot and its current slot
+			int home = this.hash(this.keys[entry]);
+			if (((current - home) & this.mask) >= ((current - slot) & this.mask)) {
+				this.slots[slot] = entry;
+				slot = current;
+			}
+		}
+
+		this.slots[slot] = NONE;
+	}
+
+	/**
+	 * Returns the probability for the given key, or NaN if it isn't cached
+	 * @param key The packed n-gram
+	 */
+	public double get(long key) {
+		int entry = this.slots[this.findSlot(key)];
+		if (entry == NONE) {
+			this.numMisses++;
+			return Double.NaN;
+		}
+
+		this.numHits++;
+		this.unlink(entry);
+		this.linkFirst(entry, PROTECTED);
+
+		//Demote the least recently used protected entry, so it can be evicted if it isn't hit again
+		if (this.segmentSizes[PROTECTED] > this.maxProtectedSize) {
+			int demoted = this.tails[PROTECTED];
+			this.unlink(demoted);
+			this.linkFirst(demoted, PROBATION);
+		}
+
+		return this.values[entry];
+	}
+
+	/**
+	 * Puts the given probability in the cache, evicting the least recently used entry if the cache is full
+	 * @param key The packed n-gram
+	 * @param value The probability
+	 */
+	public void put(long key, double value) {
+		int slot = this.findSlot(key);
+		int entry = this.slots[slot];
+
+		if (entry != NONE) {
+			this.values[entry] = value;
+			return;
+		}
+
+		if (this.size < this.capacity) {
+			entry = this.size++;
+		} else {
+			entry = this.tails[PROBATION] != NONE ? this.tails[PROBATION] : this.tails[PROTECTED];
+			this.unlink(entry);
+			this.removeSlot(this.findSlot(this.keys[entry]));
+			slot = this.findSlot(key);
+		}
+
+		this.keys[entry] = key;
+		this.values[entry] = value;
+		this.slots[slot] = entry;
+		this.linkFirst(entry, PROBATION);
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		Arrays.fill(this.slots, NONE);
+		Arrays.fill(this.heads, NONE);
+		Arrays.fill(this.tails, NONE);
+		Arrays.fill(this.segmentSizes, 0);
+		this.size = 0;
+	}
+}
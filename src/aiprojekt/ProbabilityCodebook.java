@@ -0,0 +1,125 @@
+package aiprojekt;
+
+/**
+ * Quantizes probabilities to 16-bit codes.
+ * The codes are spread evenly over the logarithm of the probabilities between a minimum and a maximum,
+ * so the relative error is the same for small and large probabilities.
+ * Decoding a code is a lookup in the codebook.
+ */
+public class ProbabilityCodebook {
+	/**
+	 * The code for a missing probability
+	 */
+	public static final char NONE = 0;
+
+	private static final int NUM_CODES = 1 << 16;
+
+	private final double minLog;
+	private final double maxLog;
+	private final double step;
+
+	//The probability of each code
+	private final double[] values = new double[NUM_CODES];
+
+	/**
+	 * Creates a new codebook for the given range
+	 * @param minLog The natural logarithm of the smallest probability
+	 * @param maxLog The natural logarithm of the largest probability
+	 */
+	public ProbabilityCodebook(double minLog, double maxLog) {
+		this.minLog = minLog;
+		this.maxLog = maxLog;
+		this.step = (maxLog - minLog) / (NUM_CODES - 2);
+
+		this.values[NONE] = Double.NaN;
+		for (int code = 1; code < NUM_CODES; code++) {
+			this.values[code] = Math.exp(minLog + (code - 1) * this.step);
+		}
+	}
+
+	/**
+	 * Creates a codebook for the range of the given probabilities, where non-positive and non-finite values are ignored
+	 * @param probabilities The probabilities
+	 */
+	public static ProbabilityCodebook fit(double[][] probabilities) {
+		double minLog = Double.POSITIVE_INFINITY;
+		double maxLog = Double.NEGATIVE_INFINITY;
+
+		for (double[] levelProbabilities : probabilities) {
+			for (double probability : levelProbabilities) {
+				if (probability > 0 && !Double.isInfinite(probability)) {
+					double log = Math.log(probability);
+					minLog = Math.min(minLog, log);
+					maxLog = Math.max(maxLog, log);
+				}
+			}
+		}
+
+		if (minLog > maxLog) {
+			minLog = 0.0;
+			maxLog = 0.0;
+		}
+
+		return new ProbabilityCodebook(minLog, maxLog);
+	}
+
+	/**
+	 * Returns the natural logarithm of the smallest probability
+	 */
+	public double getMinLog() {
+		return this.minLog;
+	}
+
+	/**
+	 * Returns the natural logarithm of the largest probability
+	 */
+	public double getMaxLog() {
+		return this.maxLog;
+	}
+
+	/**
+	 * Returns the code of the given probability, or NONE if it is outside the range of the codebook
+	 * @param probability The probability
+	 */
+	public char encode(double probability) {
+		if (!(probability > 0) || Double.isInfinite(probability)) {
+			return NONE;
+		}
+
+		double log = Math.log(probability);
+		if (log < this.minLog || log > this.maxLog) {
+			return NONE;
+		}
+
+		if (this.step == 0.0) {
+			return 1;
+		}
+
+		return (char)(1 + Math.round((log - this.minLog) / this.step));
+	}
+
+	/**
+	 * Returns the codes of the given probabilities
+	 * @param probabilities The probabilities
+	 */
+	public char[][] encode(double[][] probabilities) {
+		char[][] codes = new char[probabilities.length][];
+
+		for (int i = 0; i < probabilities.length; i++) {
+			codes[i] = new char[probabilities[i].length];
+			for (int j = 0; j < codes[i].length; j++) {
+				codes[i][j] = this.encode(probabilities[i][j]);
+			}
+		}
+
+		return codes;
+	}
+
+	/**
+	 * Returns the probability of the given code, or NaN if the code is NONE
+	 * @param code The code
+	 */
+	public double decode(char code) {
+		return this.values[code];
+	}
+}
@@ -0,0 +1,156 @@
+package aiprojekt;
+
+/**
+ * Represents a bounded cache from packed n-grams to probabilities that can be used by many threads.
+ * The keys are split by hash into stripes, where each stripe is a ProbabilityCache with its own lock,
+ * so threads only wait for each other when they use the same stripe at the same time.
+ */
+public class StripedProbabilityCache {
+	private final ProbabilityCache[] stripes;
+	private final int mask;
+
+	/**
+	 * Creates a new cache
+	 * @param capacity The maximum number of entries
+	 * @param numStripes The minimum number of stripes, which is rounded up to a power of two
+	 */
+	public StripedProbabilityCache(int capacity, int numStripes) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+
+		int size = 1;
+		while (size < numStripes && size < capacity) {
+			size *= 2;
+		}
+
+		this.stripes = new ProbabilityCache[size];
+		this.mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new ProbabilityCache((capacity + size - 1) / size);
+		}
+	}
+
+	/**
+	 * Creates a new cache with four stripes per available processor
+	 * @param capacity The maximum number of entries
+	 */
+	public StripedProbabilityCache(int capacity) {
+		this(capacity, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a cache that uses at most about the given number of bytes
+	 * @param bytes The number of bytes
+	 */
+	public static StripedProbabilityCache withMemoryLimit(long bytes) {
+		return new StripedProbabilityCache(
+			(int)Math.max(1, Math.min(Integer.MAX_VALUE / 2, bytes / ProbabilityCache.BYTES_PER_ENTRY)));
+	}
+
+	/**
+	 * Returns the stripe for the given key
+	 * @param key The key
+	 */
+	private ProbabilityCache stripe(long key) {
+		//Uses the high bits of a different mix than the slots of the stripes, so each stripe gets evenly spread keys
+		key *= 0x9e3779b97f4a7c15L;
+		return this.stripes[(int)(key >>> 40) & this.mask];
+	}
+
+	/**
+	 * Returns the number of stripes
+	 */
+	public int numStripes() {
+		return this.stripes.length;
+	}
+
+	/**
+	 * Returns the maximum number of entries
+	 */
+	public int capacity() {
+		int capacity = 0;
+		for (ProbabilityCache stripe : this.stripes) {
+			capacity += stripe.capacity();
+		}
+
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries
+	 */
+	public int size() {
+		int size = 0;
+		for (ProbabilityCache stripe : this.stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the number of lookups that found an entry
+	 */
+	public long numHits() {
+		long numHits = 0;
+		for (ProbabilityCache stripe : this.stripes) {
+			synchronized (stripe) {
+				numHits += stripe.numHits();
+			}
+		}
+
+		return numHits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find an entry
+	 */
+	public long numMisses() {
+		long numMisses = 0;
+		for (ProbabilityCache stripe : this.stripes) {
+			synchronized (stripe) {
+				numMisses += stripe.numMisses();
+			}
+		}
+
+		return numMisses;
+	}
+
+	/**
+	 * Returns the probability for the given key, or NaN if it isn't cached
+	 * @param key The packed n-gram
+	 */
+	public double get(long key) {
+		ProbabilityCache stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * Puts the given probability in the cache, evicting from the stripe of the key if it is full
+	 * @param key The packed n-gram
+	 * @param value The probability
+	 */
+	public void put(long key, double value) {
+		ProbabilityCache stripe = this.stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, value);
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		for (ProbabilityCache stripe : this.stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+}
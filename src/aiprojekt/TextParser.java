@@ -1,6 +1,7 @@
 package aiprojekt;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,10 +32,20 @@ public class TextParser {
 	private final Set<String> userNames = new HashSet<>();
 	
 	/**
-	 * Tokenizes the given text
+	 * Tokenizes the given text, adding new words to the vocabulary
 	 * @param text The text
 	 */
 	public List<Token> tokenize(String text) {
+		return this.tokenize(text, true);
+	}
+	
+	/**
+	 * Tokenizes the given text
+	 * @param text The text
+	 * @param addWords Indicates if new words are added to the vocabulary, which should only be done for text
+	 * that is counted or learned. Otherwise the new words get the id Vocabulary.UNKNOWN_ID.
+	 */
+	public List<Token> tokenize(String text, boolean addWords) {
 		if (SYSTEM_MESSAGE_PATTERN.matcher(text).matches()) {
 			return new ArrayList<Token>();
 		}
@@ -57,7 +68,7 @@ public class TextParser {
 			if (token != null
 				&& !token.isEmpty()
 				&& !this.userNames.contains(token)) {
-				tokenList.add(new Token(tokens[i]));
+				tokenList.add(addWords ? new Token(tokens[i]) : Token.find(tokens[i]));
 			}
 		}
 		
@@ -66,6 +77,14 @@ public class TextParser {
 		return tokenList;	
 	}
 	
+	/**
+	 * Adds the given user names, which are removed from the tokenized text
+	 * @param userNames The user names, in lower case
+	 */
+	public void addUserNames(Collection<String> userNames) {
+		this.userNames.addAll(userNames);
+	}
+	
 	/**
 	 * Used for extracting the user name from the sentence.
 	 * A user is considered the first occurrence of <name>.
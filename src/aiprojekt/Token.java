@@ -6,6 +6,7 @@ package aiprojekt;
 public class Token {
 	private final TokenType type;
 	private final String word;
+	private final int id;
 	
 	/**
 	 * Creates a new word token
@@ -14,6 +15,7 @@ public class Token {
 	public Token(String word) {
 		this.word = word;
 		this.type = TokenType.WORD;
+		this.id = Vocabulary.global().getId(word);
 	}
 	
 	/**
@@ -23,6 +25,29 @@ public class Token {
 	public Token(TokenType type) {
 		this.type = type;
 		this.word = "";
+		this.id = Vocabulary.global().getId(type, this.word);
+	}
+	
+	/**
+	 * Returns a word token for the given word without adding the word to the vocabulary,
+	 * which is used for the words that are only predicted from, so unseen words don't grow the vocabulary
+	 * @param word The word
+	 * @return The token, with the id UNKNOWN_ID if the word isn't in the vocabulary
+	 */
+	public static Token find(String word) {
+		return new Token(TokenType.WORD, word, Vocabulary.global().find(word));
+	}
+	
+	/**
+	 * Creates a new token with an already assigned id
+	 * @param type The type
+	 * @param word The word
+	 * @param id The id in the vocabulary
+	 */
+	Token(TokenType type, String word, int id) {
+		this.type = type;
+		this.word = word;
+		this.id = id;
 	}
 
 	/**
@@ -38,14 +63,17 @@ public class Token {
 	public String getWord() {
 		return word;
 	}
+	
+	/**
+	 * Returns the id of the token in the vocabulary
+	 */
+	public int getId() {
+		return id;
+	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((type == null) ? 0 : type.hashCode());
-		result = prime * result + ((word == null) ? 0 : word.hashCode());
-		return result;
+		return id;
 	}
 
 	@Override
@@ -63,19 +91,7 @@ public class Token {
 		}
 		
 		Token other = (Token)obj;
-		if (type != other.type) {
-			return false;
-		}
-		
-		if (word == null) {
-			if (other.word != null) {
-				return false;
-			}
-		} else if (!word.equals(other.word)) {
-			return false;
-		}
-		
-		return true;
+		return id == other.id;
 	}	
 	
 	@Override
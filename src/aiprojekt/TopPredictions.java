@@ -0,0 +1,137 @@
+package aiprojekt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a container for just holding the most probable predictions.
+ * The predictions are kept in a bounded min-heap of token ids and probabilities in primitive arrays,
+ * so a prediction that isn't among the best doesn't allocate anything, and adding C predictions is O(C log K).
+ * Predictions with the same probability are ordered by token id.
+ */
+public class TopPredictions {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int maxSize;
+	private int[] ids;
+	private double[] probabilities;
+	private int size = 0;
+
+	/**
+	 * Creates a new container of the given size
+	 * @param maxSize The maximum number of predictions
+	 */
+	public TopPredictions(int maxSize) {
+		this.maxSize = maxSize;
+
+		int capacity = Math.max(0, Math.min(maxSize, INITIAL_CAPACITY));
+		this.ids = new int[capacity];
+		this.probabilities = new double[capacity];
+	}
+
+	/**
+	 * Returns the number of predictions in the container
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the lowest probability that a prediction can have to be added, which is zero until the container is full
+	 */
+	public double minProbability() {
+		return this.size < this.maxSize ? 0.0 : this.probabilities[0];
+	}
+
+	/**
+	 * Indicates if the first prediction is worse than the second
+	 */
+	private static boolean isWorse(double probability1, int id1, double probability2, int id2) {
+		return probability1 < probability2 || (probability1 == probability2 && id1 > id2);
+	}
+
+	/**
+	 * Tries to add the given prediction. It is only added if it is better than the worst prediction in a full container.
+	 * @param id The token id
+	 * @param probability The probability
+	 */
+	public void add(int id, double probability) {
+		if (this.size < this.maxSize) {
+			if (this.size == this.ids.length) {
+				int capacity = (int)Math.min(this.maxSize, 2L * this.ids.length);
+				this.ids = Arrays.copyOf(this.ids, capacity);
+				this.probabilities = Arrays.copyOf(this.probabilities, capacity);
+			}
+
+			this.siftUp(this.size++, id, probability);
+		} else if (this.size > 0 && isWorse(this.probabilities[0], this.ids[0], probability, id)) {
+			this.siftDown(0, this.size, id, probability);
+		}
+	}
+
+	/**
+	 * Puts the given prediction at the given position, moving it up until its parent is worse
+	 */
+	private void siftUp(int index, int id, double probability) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!isWorse(probability, id, this.probabilities[parent], this.ids[parent])) {
+				break;
+			}
+
+			this.ids[index] = this.ids[parent];
+			this.probabilities[index] = this.probabilities[parent];
+			index = parent;
+		}
+
+		this.ids[index] = id;
+		this.probabilities[index] = probability;
+	}
+
+	/**
+	 * Puts the given prediction at the given position, moving it down until its children are better
+	 * @param size The size of the heap
+	 */
+	private void siftDown(int index, int size, int id, double probability) {
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= size) {
+				break;
+			}
+
+			if (child + 1 < size && isWorse(this.probabilities[child + 1], this.ids[child + 1],
+					this.probabilities[child], this.ids[child])) {
+				child++;
+			}
+
+			if (!isWorse(this.probabilities[child], this.ids[child], probability, id)) {
+				break;
+			}
+
+			this.ids[index] = this.ids[child];
+			this.probabilities[index] = this.probabilities[child];
+			index = child;
+		}
+
+		this.ids[index] = id;
+		this.probabilities[index] = probability;
+	}
+
+	/**
+	 * Returns the predictions as results for the given context, the most probable first. The container is emptied.
+	 * @param context The context that is predicted from
+	 */
+	public List<NGramModel.Result> toResults(NGram context) {
+		NGramModel.Result[] results = new NGramModel.Result[this.size];
+
+		//Removes the worst prediction until the heap is empty
+		for (int i = this.size - 1; i >= 0; i--) {
+			results[i] = new NGramModel.Result(context.append(this.ids[0]), this.probabilities[0]);
+			this.siftDown(0, i, this.ids[i], this.probabilities[i]);
+		}
+
+		this.size = 0;
+		return new ArrayList<>(Arrays.asList(results));
+	}
+}
@@ -0,0 +1,157 @@
+package aiprojekt;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents the vocabulary, which maps each token to a dense integer id.
+ * The ids are assigned once, when a token is first created, which makes all other
+ * comparisons between tokens and n-grams integer compares.
+ * Only the words that are counted, learned or loaded are added. The words that are only predicted from are
+ * looked up with find (see Token.find), as the vocabulary is never shrunk.
+ */
+public class Vocabulary {
+	/**
+	 * The id of the start of sentence token
+	 */
+	public static final int START_OF_SENTENCE_ID = 0;
+
+	/**
+	 * The id of the end of sentence token
+	 */
+	public static final int END_OF_SENTENCE_ID = 1;
+
+	/**
+	 * The id used for tokens that are not in the vocabulary
+	 */
+	public static final int UNKNOWN_ID = -1;
+
+	private static final Vocabulary GLOBAL = new Vocabulary();
+
+	//The token of the words that aren't in the vocabulary
+	private static final Token UNKNOWN_TOKEN = new Token(TokenType.WORD, "", UNKNOWN_ID);
+
+	private final ConcurrentHashMap<String, Integer> wordToId = new ConcurrentHashMap<>();
+	private volatile Token[] idToToken = new Token[1024];
+	private volatile int size = 0;
+
+	/**
+	 * Creates a new vocabulary
+	 */
+	private Vocabulary() {
+		this.add(TokenType.START_OF_SENTENCE, "");
+		this.add(TokenType.END_OF_SENTENCE, "");
+	}
+
+	/**
+	 * Returns the global vocabulary
+	 */
+	public static Vocabulary global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Adds a new token to the vocabulary
+	 * @param type The type of the token
+	 * @param word The word
+	 * @return The id of the token
+	 */
+	private synchronized int add(TokenType type, String word) {
+		if (type == TokenType.WORD) {
+			Integer id = this.wordToId.get(word);
+			if (id != null) {
+				return id;
+			}
+		}
+
+		int id = this.size;
+		if (id == this.idToToken.length) {
+			this.idToToken = Arrays.copyOf(this.idToToken, this.idToToken.length * 2);
+		}
+
+		this.idToToken[id] = new Token(type, word, id);
+		this.size = id + 1;
+
+		if (type == TokenType.WORD) {
+			this.wordToId.put(word, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Returns the id for the given word, adding it to the vocabulary if it doesn't exist
+	 * @param word The word
+	 */
+	public int getId(String word) {
+		Integer id = this.wordToId.get(word);
+		if (id != null) {
+			return id;
+		}
+
+		return this.add(TokenType.WORD, word);
+	}
+
+	/**
+	 * Returns the id for the given token type, adding the word if it doesn't exist
+	 * @param type The token type
+	 * @param word The word, if the type is a word
+	 */
+	public int getId(TokenType type, String word) {
+		switch (type) {
+		case START_OF_SENTENCE:
+			return START_OF_SENTENCE_ID;
+		case END_OF_SENTENCE:
+			return END_OF_SENTENCE_ID;
+		default:
+			return this.getId(word);
+		}
+	}
+
+	/**
+	 * Returns the id for the given string, as written by Token.toString().
+	 * The string is added to the vocabulary if it doesn't exist.
+	 * @param str The string
+	 */
+	public int getIdFromString(String str) {
+		if (str.equals(TokenType.START_OF_SENTENCE.toString())) {
+			return START_OF_SENTENCE_ID;
+		} else if (str.equals(TokenType.END_OF_SENTENCE.toString())) {
+			return END_OF_SENTENCE_ID;
+		} else {
+			return this.getId(str);
+		}
+	}
+
+	/**
+	 * Returns the id for the given word, or UNKNOWN_ID if it isn't in the vocabulary
+	 * @param word The word
+	 */
+	public int find(String word) {
+		Integer id = this.wordToId.get(word);
+		if (id != null) {
+			return id;
+		}
+
+		return UNKNOWN_ID;
+	}
+
+	/**
+	 * Returns the token with the given id
+	 * @param id The id, or UNKNOWN_ID for an empty word that isn't in the vocabulary
+	 */
+	public Token getToken(int id) {
+		if (id == UNKNOWN_ID) {
+			return UNKNOWN_TOKEN;
+		}
+		
+		return this.idToToken[id];
+	}
+
+	/**
+	 * Returns the number of tokens in the vocabulary
+	 */
+	public int size() {
+		return this.size;
+	}
+}
@@ -0,0 +1,305 @@
+package aiprojekt;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores the word class of each token in the vocabulary, which is tagged once when the model file is written,
+ * so the grammar check doesn't need the tagger. The word class of a token is stored as a code by token id,
+ * which is the index of the word class tag + 1, or 0 if the token doesn't have a word class.
+ * 
+ * The word classes can also have the transitions between the word classes, which are counted from the bigrams
+ * of the corpus. A proposed token is then weighted by how much more or less often its word class follows the word class
+ * of the written token than it occurs after any word class, instead of using the rules of the grammar checker.
+ */
+public class WordClasses {
+	/**
+	 * The weight below which a proposed token is removed instead of weighted
+	 */
+	public static final double MIN_TRANSITION_WEIGHT = 0.01;
+	
+	private final GrammarChecker grammarChecker;
+	private final int numTags;
+	private final byte[] codes;
+	
+	//The number of times word class j follows word class i is at i * numTags + j, or null if not counted
+	private final long[] transitionCounts;
+	
+	//The weight of a proposed token of word class j after a written token of word class i, at i * numTags + j
+	private final double[] transitionWeights;
+
+	public static void main(String[] args) throws IOException {
+		String inputPath = args.length > 0 ? args[0] : PreProcessor.FILE_PATH;
+		String outputPath = args.length > 1 ? args[1] : PreProcessor.MODEL_FILE_PATH;
+
+		NGramModel model = new Loader().load(inputPath);
+		if (model == null) {
+			System.err.println("Couldn't load the model at " + inputPath);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		WordClasses wordClasses = tagVocabulary(GrammarChecker.getInstance()).withTransitions(model.searchTree());
+		model.setWordClasses(wordClasses);
+		System.out.println("Tagged " + Vocabulary.global().size() + " tokens in " + (System.currentTimeMillis() - start) / 1000.0 + " s");
+
+		MappedModelFile.write(model, outputPath);
+		System.out.println("Wrote " + outputPath);
+	}
+
+	/**
+	 * Creates new word classes
+	 * @param tags The word class tags
+	 * @param codes The code of the word class of each token id
+	 */
+	public WordClasses(String[] tags, byte[] codes) {
+		this(new GrammarChecker(tags), codes, null);
+	}
+
+	/**
+	 * Creates new word classes
+	 * @param grammarChecker The grammar checker of the word class tags
+	 * @param codes The code of the word class of each token id
+	 * @param transitionCounts The transition counts, or null
+	 */
+	private WordClasses(GrammarChecker grammarChecker, byte[] codes, long[] transitionCounts) {
+		int numTags = grammarChecker.getTags().length;
+		if (numTags > 255) {
+			throw new IllegalArgumentException("There can be at most 255 word classes.");
+		}
+
+		if (transitionCounts != null && transitionCounts.length != numTags * numTags) {
+			throw new IllegalArgumentException("There must be " + numTags * numTags + " transition counts.");
+		}
+
+		this.grammarChecker = grammarChecker;
+		this.numTags = numTags;
+		this.codes = codes;
+		this.transitionCounts = transitionCounts;
+		this.transitionWeights = transitionCounts == null ? null : transitionWeights(transitionCounts, numTags);
+	}
+
+	/**
+	 * Returns the transition weights of the given transition counts.
+	 * The weight is the probability of the following word class given the word class, divided by the probability
+	 * of the following word class, which is at most 1 so tokens are only weighted down, and 0 if it is below
+	 * MIN_TRANSITION_WEIGHT. Word classes without transitions have the weight 1.
+	 * @param transitionCounts The transition counts
+	 * @param numTags The number of word classes
+	 */
+	private static double[] transitionWeights(long[] transitionCounts, int numTags) {
+		long[] rowTotals = new long[numTags];
+		long[] columnTotals = new long[numTags];
+		long total = 0;
+		for (int i = 0; i < numTags; i++) {
+			for (int j = 0; j < numTags; j++) {
+				long count = transitionCounts[i * numTags + j];
+				rowTotals[i] += count;
+				columnTotals[j] += count;
+				total += count;
+			}
+		}
+
+		double[] weights = new double[transitionCounts.length];
+		for (int i = 0; i < numTags; i++) {
+			for (int j = 0; j < numTags; j++) {
+				double weight = 1.0;
+				if (rowTotals[i] > 0 && columnTotals[j] > 0) {
+					double probability = (double)transitionCounts[i * numTags + j] / rowTotals[i];
+					weight = Math.min(1.0, probability * total / columnTotals[j]);
+				}
+
+				weights[i * numTags + j] = weight < MIN_TRANSITION_WEIGHT ? 0.0 : weight;
+			}
+		}
+
+		return weights;
+	}
+
+	/**
+	 * Tags all tokens in the vocabulary with the given grammar checker
+	 * @param grammarChecker The grammar checker, which must have a tagger
+	 */
+	public static WordClasses tagVocabulary(GrammarChecker grammarChecker) {
+		Vocabulary vocabulary = Vocabulary.global();
+		byte[] codes = new byte[vocabulary.size()];
+
+		for (int id = 0; id < codes.length; id++) {
+			Token token = vocabulary.getToken(id);
+			if (token.getType() == TokenType.WORD) {
+				codes[id] = (byte)(grammarChecker.tagWord(token.getWord()) + 1);
+			}
+		}
+
+		return new WordClasses(grammarChecker.getTags(), codes);
+	}
+
+	/**
+	 * Counts the transitions between the word classes in the bigrams of the given tree
+	 * @param index The search tree
+	 * @return The word classes with the transitions
+	 */
+	public WordClasses withTransitions(NGramIndex index) {
+		final int numTags = this.numTags;
+		final long[] counts = new long[numTags * numTags];
+
+		//The unigrams are collected before visiting their continuations
+		final IntBuffer unigrams = IntBuffer.allocate(Vocabulary.global().size());
+		index.forEachContinuation(NGram.EMPTY_GRAM, new NGramIndex.OnContinuationAction() {
+			@Override
+			public void execute(int id, int count) {
+				if (getTag(id) >= 0 && unigrams.hasRemaining()) {
+					unigrams.put(id);
+				}
+			}
+		});
+
+		for (int i = 0; i < unigrams.position(); i++) {
+			final int tag = this.getTag(unigrams.get(i));
+			index.forEachContinuation(NGram.fromId(unigrams.get(i)), new NGramIndex.OnContinuationAction() {
+				@Override
+				public void execute(int id, int count) {
+					int followingTag = getTag(id);
+					if (followingTag >= 0) {
+						counts[tag * numTags + followingTag] += count;
+					}
+				}
+			});
+		}
+
+		return new WordClasses(this.grammarChecker, this.codes, counts);
+	}
+
+	/**
+	 * Indicates if the word classes have the transitions between them
+	 */
+	public boolean hasTransitions() {
+		return this.transitionCounts != null;
+	}
+
+	/**
+	 * Returns the number of times the given word class follows the other in the corpus
+	 * @param tag The index of the word class
+	 * @param followingTag The index of the following word class
+	 */
+	public long getTransitionCount(int tag, int followingTag) {
+		return this.transitionCounts[tag * this.numTags + followingTag];
+	}
+
+	/**
+	 * Returns the weight of the given proposed token after a written token of the given word class,
+	 * which is between 0 and 1 (see transitionWeights). The word classes must have the transitions.
+	 * @param writtenTag The index of the word class of the written token, or -1
+	 * @param proposalId The id of the proposed token
+	 */
+	public double transitionWeight(int writtenTag, int proposalId) {
+		int proposalTag = this.getTag(proposalId);
+		if (writtenTag < 0 || proposalTag < 0) {
+			return 1.0;
+		}
+
+		return this.transitionWeights[writtenTag * this.numTags + proposalTag];
+	}
+
+	/**
+	 * Returns the grammar checker of the word classes
+	 */
+	public GrammarChecker getGrammarChecker() {
+		return this.grammarChecker;
+	}
+
+	/**
+	 * Returns the index of the word class of the given token
+	 * @param id The token id
+	 * @return The index of the word class tag, or -1 if the token doesn't have a word class
+	 */
+	public int getTag(int id) {
+		if (id < 0 || id >= this.codes.length) {
+			return -1;
+		}
+
+		return (this.codes[id] & 0xFF) - 1;
+	}
+
+	/**
+	 * Indicates if the given proposed token can follow the given written token
+	 * @param writtenId The id of the written token
+	 * @param proposalId The id of the proposed token
+	 */
+	public boolean hasCorrectGrammar(int writtenId, int proposalId) {
+		return this.grammarChecker.hasCorrectGrammar(this.getTag(writtenId), this.getTag(proposalId));
+	}
+
+	/**
+	 * Writes the word classes of the tokens in a model file
+	 * @param outputStream The output stream
+	 * @param fileIdToId The vocabulary id of each token id in the file
+	 */
+	void write(DataOutputStream outputStream, int[] fileIdToId) throws IOException {
+		String[] tags = this.grammarChecker.getTags();
+		outputStream.writeInt(tags.length);
+		for (String tag : tags) {
+			byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+			outputStream.writeInt(bytes.length);
+			outputStream.write(bytes);
+		}
+
+		outputStream.writeInt(fileIdToId.length);
+		for (int id : fileIdToId) {
+			outputStream.writeByte(id < this.codes.length ? this.codes[id] : 0);
+		}
+	}
+
+	/**
+	 * Writes the transition counts, which the word classes must have
+	 * @param outputStream The output stream
+	 */
+	void writeTransitions(DataOutputStream outputStream) throws IOException {
+		outputStream.writeInt(this.numTags);
+		for (long count : this.transitionCounts) {
+			outputStream.writeLong(count);
+		}
+	}
+
+	/**
+	 * Reads transition counts written by writeTransitions
+	 * @param buffer The buffer
+	 * @return The word classes with the transitions
+	 */
+	WordClasses withTransitions(ByteBuffer buffer) {
+		int numTags = buffer.getInt();
+		long[] counts = new long[numTags * numTags];
+		buffer.asLongBuffer().get(counts);
+		return new WordClasses(this.grammarChecker, this.codes, counts);
+	}
+
+	/**
+	 * Reads word classes written by write
+	 * @param buffer The buffer
+	 * @param fileIdToId The vocabulary id of each token id in the buffer
+	 */
+	static WordClasses read(ByteBuffer buffer, int[] fileIdToId) {
+		String[] tags = new String[buffer.getInt()];
+		for (int i = 0; i < tags.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			tags[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int numTokens = buffer.getInt();
+		int maxId = -1;
+		for (int fileId = 0; fileId < numTokens; fileId++) {
+			maxId = Math.max(maxId, fileIdToId[fileId]);
+		}
+
+		byte[] codes = new byte[maxId + 1];
+		for (int fileId = 0; fileId < numTokens; fileId++) {
+			codes[fileIdToId[fileId]] = buffer.get();
+		}
+
+		return new WordClasses(tags, codes);
+	}
+}
@@ -1,7 +1,6 @@
 package aiprojekt;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,7 +24,7 @@ public class WordPredictor {
 	public WordPredictor(NGramModel model, int numResults) {
 		this.model = model;
 		this.numResults = numResults;
-		this.userModel = new NGramModel(model.maxLength());
+		this.userModel = NGramModel.createLearningModel(model.maxLength());
 	}
 		
 	/**
@@ -77,30 +76,29 @@ public class WordPredictor {
 	 * @param input Words to predict next word from
 	 */
 	public List<String> predictNextWord(String input) {
-		return this.predictNextWord(parser.tokenize(input), true);
+		//The input is only predicted from, so its new words aren't added to the vocabulary
+		return this.predictNextWord(parser.tokenize(input, false), true);
 	}
 	
 	/**
 	 * Combines the results with the given map
-	 * @param resultMap The map
+	 * @param resultMap The map from the predicted token id to the probability
 	 * @param results The results
 	 * @param weight The weight
 	 */
 	private void combineResults(
-			Map<NGram, NGramModel.Result> resultMap,
+			Map<Integer, Double> resultMap,
 			List<NGramModel.Result> results,
 			double weight) {
 		for (NGramModel.Result result : results) {
-			NGram ngram = result.getNGram();
+			int id = result.getNGram().lastId();
 			double currentProbability = 0.0;
 			
-			if (resultMap.containsKey(ngram)) {
-				currentProbability = resultMap.get(ngram).getProbability();
+			if (resultMap.containsKey(id)) {
+				currentProbability = resultMap.get(id);
 			}
 			
-			resultMap.put(
-				ngram,
-				new NGramModel.Result(ngram, currentProbability + weight * result.getProbability()));
+			resultMap.put(id, currentProbability + weight * result.getProbability());
 		}
 	}
 
@@ -151,18 +149,18 @@ public class WordPredictor {
 		List<NGramModel.Result> results = null;
 		
 		if (this.timesUser > 0) {
-			Map<NGram, NGramModel.Result> resultMap = new HashMap<>();
+			Map<Integer, Double> resultMap = new HashMap<>();
 			double alpha = this.calculateAlpha();
 			
 			this.combineResults(resultMap, this.model.predictNext(ngram, numResults), alpha);
 			this.combineResults(resultMap, this.userModel.predictNext(ngram, numResults), 1 - alpha);
-						
-			results = new ArrayList<>(resultMap.values());	
-			Collections.sort(results);
-			int size = results.size();
-			for (int i = 0; i < size - this.numResults; i++) {
-				results.remove(results.size() - 1);
+			
+			TopPredictions topPredictions = new TopPredictions(this.numResults);
+			for (Map.Entry<Integer, Double> entry : resultMap.entrySet()) {
+				topPredictions.add(entry.getKey(), entry.getValue());
 			}
+			
+			results = topPredictions.toResults(ngram);
 		} else {
 			results = this.model.predictNext(ngram, numResults);
 		}
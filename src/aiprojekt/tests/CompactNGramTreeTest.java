@@ -0,0 +1,244 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import aiprojekt.CompactNGramTree;
+import aiprojekt.Continuations;
+import aiprojekt.DoubleArrayNGramTree;
+import aiprojekt.NGram;
+import aiprojekt.NGramCountTable;
+import aiprojekt.NGramIndex;
+import aiprojekt.NGramTree;
+import aiprojekt.NGramTree.Result;
+
+/**
+ * Tests the CompactNGramTree class
+ */
+public class CompactNGramTreeTest {
+	/**
+	 * Creates the tree used in the tests
+	 */
+	private NGramTree createTree() {
+		NGramTree tree = NGramTree.createRootTree();
+		tree.insert(NGram.fromWords("hello", "my"), 1);
+		tree.insert(NGram.fromWords("hello", "you"), 2);
+		tree.insert(NGram.fromWords("trolling", "you"), 1);
+		tree.insert(NGram.fromWords("hello", "you", "haha"), 1);
+		tree.insert(NGram.fromWords("lol", "you", "ee"), 3);
+		tree.insert(NGram.fromWords("hello"), 4);
+		tree.insert(NGram.fromWords("my"), 3);
+		tree.insert(NGram.fromWords("name"), 2);
+		return tree;
+	}
+
+	/**
+	 * Sorts the results by n-gram
+	 * @param ngrams The n-grams
+	 */
+	private void sortByNGram(List<Result> ngrams) {
+		Collections.sort(ngrams, new Comparator<Result>() {
+			@Override
+			public int compare(Result x, Result y) {
+				return x.getNgram().compareTo(y.getNgram());
+			}
+		});
+	}
+
+	/**
+	 * Tests finding counts
+	 */
+	@Test
+	public void testFind() {
+		CompactNGramTree tree = CompactNGramTree.fromTree(this.createTree(), 3);
+
+		assertEquals(4, tree.find(NGram.fromWords("hello")));
+		assertEquals(3, tree.find(NGram.fromWords("my")));
+		assertEquals(2, tree.find(NGram.fromWords("hello", "you")));
+		assertEquals(1, tree.find(NGram.fromWords("hello", "you", "haha")));
+		assertEquals(3, tree.find(NGram.fromWords("lol", "you", "ee")));
+
+		assertEquals(0, tree.find(NGram.fromWords("lol")));
+		assertEquals(0, tree.find(NGram.fromWords("lol", "you")));
+		assertEquals(0, tree.find(NGram.fromWords("hello", "hello")));
+		assertEquals(0, tree.find(NGram.fromWords("hello", "you", "haha", "lol")));
+		assertEquals(0, tree.find(NGram.EMPTY_GRAM));
+	}
+
+	/**
+	 * Tests finding results
+	 */
+	@Test
+	public void testFindResults() {
+		NGramTree tree = this.createTree();
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(tree, 3);
+
+		NGram[] ngrams = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "you"),
+			NGram.fromWords("lol", "you"),
+			NGram.fromWords("lol"),
+			NGram.fromWords("name"),
+			NGram.fromWords("hello", "you", "haha")
+		};
+
+		for (NGram ngram : ngrams) {
+			List<Result> expected = tree.findResults(ngram);
+			List<Result> actual = compactTree.findResults(ngram);
+			this.sortByNGram(expected);
+			this.sortByNGram(actual);
+			assertEquals(expected, actual);
+		}
+	}
+	
+	/**
+	 * Tests that the continuations are the same as the results, sorted by count
+	 */
+	@Test
+	public void testFindContinuations() {
+		NGramTree tree = this.createTree();
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(tree, 3);
+
+		NGram[] ngrams = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("lol", "you"),
+			NGram.fromWords("name"),
+			NGram.fromWords("hello", "you", "haha")
+		};
+
+		for (NGram ngram : ngrams) {
+			Continuations expected = tree.findContinuations(ngram);
+			Continuations actual = compactTree.findContinuations(ngram);
+			assertEquals(tree.findResults(ngram).size(), actual.size());
+			assertEquals(expected.size(), actual.size());
+
+			for (int i = 0; i < actual.size(); i++) {
+				assertEquals(expected.idAt(i), actual.idAt(i));
+				assertEquals(expected.countAt(i), actual.countAt(i));
+				assertEquals(compactTree.find(ngram.append(actual.idAt(i))), actual.countAt(i));
+
+				if (i > 0) {
+					assertTrue(actual.countAt(i - 1) >= actual.countAt(i));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests that the visited continuations are the same as the results
+	 */
+	@Test
+	public void testForEachContinuation() {
+		NGramTree tree = this.createTree();
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(tree, 3);
+
+		NGram[] ngrams = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "you"),
+			NGram.fromWords("unknownword"),
+			NGram.fromWords("hello", "you", "haha")
+		};
+
+		for (final NGram ngram : ngrams) {
+			final List<Result> results = new ArrayList<>();
+			compactTree.forEachContinuation(ngram, new NGramIndex.OnContinuationAction() {
+				@Override
+				public void execute(int id, int count) {
+					results.add(new Result(ngram.append(id), count));
+				}
+			});
+
+			List<Result> expected = tree.findResults(ngram);
+			assertEquals(expected.size(), results.size());
+			for (Result result : expected) {
+				assertTrue(results.contains(result));
+			}
+		}
+	}
+	
+	/**
+	 * Tests that the lookups of a context from an offset followed by a token are the same as the n-gram lookups
+	 */
+	@Test
+	public void testFindFromOffset() {
+		NGramTree tree = this.createTree();
+		CompactNGramTree compactTree = CompactNGramTree.fromTree(tree, 3);
+		NGramIndex[] indexes = new NGramIndex[] { tree, compactTree, DoubleArrayNGramTree.fromTree(compactTree) };
+
+		NGram context = NGram.fromWords("lol", "hello", "you");
+		int[] ids = new int[] { -1, NGram.fromWords("haha").lastId(), NGram.fromWords("my").lastId(),
+			NGram.fromWords("you").lastId(), NGram.fromWords("unknownword").lastId() };
+
+		for (NGramIndex index : indexes) {
+			for (int offset = 0; offset <= context.length(); offset++) {
+				NGram rest = context;
+				for (int i = 0; i < offset; i++) {
+					rest = rest.rest();
+				}
+
+				for (int id : ids) {
+					NGram ngram = id < 0 ? rest : rest.append(id);
+					assertEquals(index.find(ngram), index.find(context, offset, id));
+				}
+
+				final List<Integer> expected = new ArrayList<>();
+				index.forEachContinuation(rest, new NGramIndex.OnContinuationAction() {
+					@Override
+					public void execute(int id, int count) {
+						expected.add(id);
+					}
+				});
+
+				final List<Integer> actual = new ArrayList<>();
+				index.forEachContinuation(context, offset, new NGramIndex.OnContinuationAction() {
+					@Override
+					public void execute(int id, int count) {
+						actual.add(id);
+					}
+				});
+				assertEquals(expected, actual);
+			}
+		}
+
+		assertEquals(2, compactTree.find(context, 1, -1));
+		assertEquals(1, compactTree.find(context, 1, NGram.fromWords("haha").lastId()));
+		assertEquals(0, compactTree.find(context, 0, NGram.fromWords("haha").lastId()));
+		assertEquals(3, compactTree.find(context, 3, NGram.fromWords("my").lastId()));
+	}
+	
+	/**
+	 * Tests creating a tree from a count table
+	 */
+	@Test
+	public void testFromTable() {
+		NGramCountTable table = new NGramCountTable();
+		table.add(NGramCountTable.pack(NGram.fromWords("hello")), 4);
+		table.add(NGramCountTable.pack(NGram.fromWords("my")), 3);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "my")), 1);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "you")), 2);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "you", "haha")), 1);
+		table.add(NGramCountTable.pack(NGram.fromWords("lol", "you", "ee")), 3);
+		
+		CompactNGramTree tree = CompactNGramTree.fromTable(table, 3);
+		
+		assertEquals(4, tree.find(NGram.fromWords("hello")));
+		assertEquals(2, tree.find(NGram.fromWords("hello", "you")));
+		assertEquals(1, tree.find(NGram.fromWords("hello", "you", "haha")));
+		assertEquals(3, tree.find(NGram.fromWords("lol", "you", "ee")));
+		assertEquals(0, tree.find(NGram.fromWords("lol", "you")));
+		assertEquals(0, tree.find(NGram.fromWords("lol")));
+		
+		assertEquals(2, tree.findResults(NGram.fromWords("hello")).size());
+		assertEquals(1, tree.findResults(NGram.fromWords("lol", "you")).size());
+		assertEquals(2, tree.findResults(NGram.EMPTY_GRAM).size());
+	}
+}
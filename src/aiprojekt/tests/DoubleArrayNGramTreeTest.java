@@ -0,0 +1,128 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import aiprojekt.CompactNGramTree;
+import aiprojekt.Continuations;
+import aiprojekt.DoubleArrayNGramTree;
+import aiprojekt.NGram;
+import aiprojekt.NGramTree;
+import aiprojekt.NGramTree.Result;
+
+/**
+ * Tests the DoubleArrayNGramTree class
+ */
+public class DoubleArrayNGramTreeTest {
+	/**
+	 * Creates the tree used in the tests
+	 */
+	private NGramTree createTree() {
+		NGramTree tree = NGramTree.createRootTree();
+		tree.insert(NGram.fromWords("hello", "my"), 1);
+		tree.insert(NGram.fromWords("hello", "you"), 2);
+		tree.insert(NGram.fromWords("trolling", "you"), 1);
+		tree.insert(NGram.fromWords("hello", "you", "haha"), 1);
+		tree.insert(NGram.fromWords("lol", "you", "ee"), 3);
+		tree.insert(NGram.fromWords("hello"), 4);
+		tree.insert(NGram.fromWords("my"), 3);
+		tree.insert(NGram.fromWords("name"), 2);
+		return tree;
+	}
+
+	/**
+	 * Sorts the results by n-gram
+	 * @param ngrams The n-grams
+	 */
+	private void sortByNGram(List<Result> ngrams) {
+		Collections.sort(ngrams, new Comparator<Result>() {
+			@Override
+			public int compare(Result x, Result y) {
+				return x.getNgram().compareTo(y.getNgram());
+			}
+		});
+	}
+
+	/**
+	 * Tests finding counts
+	 */
+	@Test
+	public void testFind() {
+		DoubleArrayNGramTree tree = DoubleArrayNGramTree.fromTree(CompactNGramTree.fromTree(this.createTree(), 3));
+
+		assertEquals(4, tree.find(NGram.fromWords("hello")));
+		assertEquals(3, tree.find(NGram.fromWords("my")));
+		assertEquals(2, tree.find(NGram.fromWords("hello", "you")));
+		assertEquals(1, tree.find(NGram.fromWords("hello", "you", "haha")));
+		assertEquals(3, tree.find(NGram.fromWords("lol", "you", "ee")));
+
+		assertEquals(0, tree.find(NGram.fromWords("lol")));
+		assertEquals(0, tree.find(NGram.fromWords("lol", "you")));
+		assertEquals(0, tree.find(NGram.fromWords("hello", "hello")));
+		assertEquals(0, tree.find(NGram.fromWords("hello", "you", "haha", "lol")));
+		assertEquals(0, tree.find(NGram.EMPTY_GRAM));
+	}
+
+	/**
+	 * Tests finding results
+	 */
+	@Test
+	public void testFindResults() {
+		NGramTree tree = this.createTree();
+		DoubleArrayNGramTree doubleArrayTree = DoubleArrayNGramTree.fromTree(CompactNGramTree.fromTree(tree, 3));
+
+		NGram[] ngrams = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "you"),
+			NGram.fromWords("lol", "you"),
+			NGram.fromWords("lol"),
+			NGram.fromWords("name"),
+			NGram.fromWords("hello", "you", "haha")
+		};
+
+		for (NGram ngram : ngrams) {
+			List<Result> expected = tree.findResults(ngram);
+			List<Result> actual = doubleArrayTree.findResults(ngram);
+			this.sortByNGram(expected);
+			this.sortByNGram(actual);
+			assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * Tests that the continuations are sorted by count, as the continuations of the tree
+	 */
+	@Test
+	public void testFindContinuations() {
+		NGramTree tree = this.createTree();
+		tree.insert(NGram.fromWords("hello", "name"), 3);
+		DoubleArrayNGramTree doubleArrayTree = DoubleArrayNGramTree.fromTree(CompactNGramTree.fromTree(tree, 3));
+
+		NGram[] ngrams = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "you"),
+			NGram.fromWords("lol", "you"),
+			NGram.fromWords("lol"),
+			NGram.fromWords("hello", "you", "haha")
+		};
+
+		for (NGram ngram : ngrams) {
+			Continuations expected = tree.findContinuations(ngram);
+			Continuations actual = doubleArrayTree.findContinuations(ngram);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < actual.size(); i++) {
+				assertEquals(expected.idAt(i), actual.idAt(i));
+				assertEquals(expected.countAt(i), actual.countAt(i));
+			}
+		}
+
+		assertEquals(NGram.fromWords("name").lastId(), doubleArrayTree.findContinuations(NGram.fromWords("hello")).idAt(0));
+	}
+}
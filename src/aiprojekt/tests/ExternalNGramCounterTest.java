@@ -0,0 +1,62 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import aiprojekt.ExternalNGramCounter;
+import aiprojekt.NGramCountTable;
+
+/**
+ * Tests the ExternalNGramCounter class
+ */
+public class ExternalNGramCounterTest {
+	/**
+	 * Tests that the merged counts are the same as counting in memory, with more runs than are merged at once
+	 */
+	@Test
+	public void testMerge() throws IOException {
+		Random random = new Random(1337);
+		NGramCountTable expected = new NGramCountTable();
+		
+		try (ExternalNGramCounter counter = new ExternalNGramCounter(50, 3, null)) {
+			for (int i = 0; i < 20000; i++) {
+				long key = NGramCountTable.packId(0, 0, random.nextInt(300));
+				if (random.nextBoolean()) {
+					key = NGramCountTable.packId(key, 1, random.nextInt(20));
+				}
+				
+				int count = 1 + random.nextInt(3);
+				counter.add(key, count);
+				expected.add(key, count);
+			}
+			
+			assertTrue(counter.numRuns() > ExternalNGramCounter.MAX_MERGED_RUNS);
+			
+			final List<Long> keys = new ArrayList<>();
+			final NGramCountTable actual = new NGramCountTable();
+			counter.merge(new ExternalNGramCounter.OnMergedEntryAction() {
+				@Override
+				public void execute(long key, int count) {
+					keys.add(key);
+					actual.add(key, count);
+				}
+			});
+			
+			assertEquals(expected.size(), keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				assertEquals(expected.get(keys.get(i)), actual.get(keys.get(i)));
+				if (i > 0) {
+					assertTrue(keys.get(i - 1) < keys.get(i));
+				}
+			}
+			
+			assertEquals(0, counter.numRuns());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import aiprojekt.GrammarChecker;
+
+/**
+ * Tests the grammar rules of the GrammarChecker class, without the tagger
+ */
+public class GrammarCheckerTest {
+	private static final String[] TAGS = new String[] { "DT", "NN", "VB", "VBZ", "VBD", "MD", "PRP", "RB", "JJ" };
+	
+	/**
+	 * Returns the index of the given tag
+	 */
+	private static int tag(String tag) {
+		for (int i = 0; i < TAGS.length; i++) {
+			if (TAGS[i].equals(tag)) {
+				return i;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Tests the rules
+	 */
+	@Test
+	public void testRules() {
+		GrammarChecker grammarChecker = new GrammarChecker(TAGS);
+		
+		assertFalse(grammarChecker.hasCorrectGrammar(tag("DT"), tag("VB")));
+		assertFalse(grammarChecker.hasCorrectGrammar(tag("MD"), tag("VBZ")));
+		assertFalse(grammarChecker.hasCorrectGrammar(tag("NN"), tag("PRP")));
+		assertTrue(grammarChecker.hasCorrectGrammar(tag("DT"), tag("NN")));
+		assertTrue(grammarChecker.hasCorrectGrammar(tag("DT"), tag("JJ")));
+		
+		//The same class can't follow itself, except nouns and adverbs
+		assertFalse(grammarChecker.hasCorrectGrammar(tag("JJ"), tag("JJ")));
+		assertTrue(grammarChecker.hasCorrectGrammar(tag("NN"), tag("NN")));
+		assertTrue(grammarChecker.hasCorrectGrammar(tag("RB"), tag("RB")));
+		
+		//Unknown classes can follow and be followed by any class
+		assertTrue(grammarChecker.hasCorrectGrammar(-1, tag("VB")));
+		assertTrue(grammarChecker.hasCorrectGrammar(tag("DT"), -1));
+	}
+	
+	/**
+	 * Tests the rules with more word classes than fit in a long
+	 */
+	@Test
+	public void testManyTags() {
+		String[] tags = new String[100];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = "X" + i;
+		}
+		
+		tags[70] = "DT";
+		tags[90] = "VB";
+		GrammarChecker grammarChecker = new GrammarChecker(tags);
+		
+		assertFalse(grammarChecker.hasCorrectGrammar(70, 90));
+		assertFalse(grammarChecker.hasCorrectGrammar(99, 99));
+		assertTrue(grammarChecker.hasCorrectGrammar(90, 70));
+		assertTrue(grammarChecker.hasCorrectGrammar(70, 6));
+	}
+}
@@ -0,0 +1,49 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import aiprojekt.IdSet;
+
+/**
+ * Tests the IdSet class
+ */
+public class IdSetTest {
+	/**
+	 * Tests adding ids
+	 */
+	@Test
+	public void testAdd() {
+		IdSet set = new IdSet();
+		assertTrue(set.add(3));
+		assertFalse(set.add(3));
+		assertTrue(set.add(100000));
+
+		assertTrue(set.contains(3));
+		assertTrue(set.contains(100000));
+		assertFalse(set.contains(4));
+		assertFalse(set.contains(-1));
+		assertFalse(set.contains(200000));
+	}
+
+	/**
+	 * Tests that clearing removes all ids
+	 */
+	@Test
+	public void testClear() {
+		IdSet set = new IdSet();
+		for (int i = 0; i < 5000; i += 7) {
+			set.add(i);
+		}
+
+		set.clear();
+		for (int i = 0; i < 5000; i++) {
+			assertFalse(set.contains(i));
+		}
+
+		assertTrue(set.add(7));
+		assertTrue(set.contains(7));
+		assertFalse(set.contains(14));
+	}
+}
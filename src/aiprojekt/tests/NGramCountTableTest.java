@@ -0,0 +1,88 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import aiprojekt.NGram;
+import aiprojekt.NGramCountTable;
+
+/**
+ * Tests the NGramCountTable class
+ */
+public class NGramCountTableTest {
+	/**
+	 * Tests packing and unpacking n-grams
+	 */
+	@Test
+	public void testPack() {
+		NGram ngram = NGram.fromWords("hello", "my", "name");
+		long key = NGramCountTable.pack(ngram);
+
+		assertEquals(3, NGramCountTable.length(key));
+		assertEquals(ngram.idAt(0), NGramCountTable.idAt(key, 0));
+		assertEquals(ngram.idAt(2), NGramCountTable.idAt(key, 2));
+		assertEquals(ngram, NGramCountTable.unpack(key));
+
+		assertEquals(1, NGramCountTable.length(NGramCountTable.pack(NGram.fromWords("hello"))));
+		assertFalse(key == NGramCountTable.pack(NGram.fromWords("hello", "my")));
+	}
+
+	/**
+	 * Tests adding counts
+	 */
+	@Test
+	public void testAdd() {
+		NGramCountTable table = new NGramCountTable();
+		NGram ngram1 = NGram.fromWords("hello", "my");
+		NGram ngram2 = NGram.fromWords("hello", "my", "name");
+
+		assertEquals(0, table.add(NGramCountTable.pack(ngram1), 2));
+		assertEquals(2, table.add(NGramCountTable.pack(ngram1), 3));
+		table.add(NGramCountTable.pack(ngram2), 1);
+
+		assertEquals(2, table.size());
+		assertEquals(5, table.get(ngram1));
+		assertEquals(1, table.get(ngram2));
+		assertEquals(0, table.get(NGram.fromWords("hello")));
+	}
+
+	/**
+	 * Tests that the table grows
+	 */
+	@Test
+	public void testResize() {
+		NGramCountTable table = new NGramCountTable();
+
+		for (int i = 0; i < 10000; i++) {
+			table.add(NGramCountTable.pack(NGram.fromIds(i, i + 1)), i);
+		}
+
+		assertEquals(10000, table.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, table.get(NGram.fromIds(i, i + 1)));
+		}
+	}
+
+	/**
+	 * Tests removing rare n-grams
+	 */
+	@Test
+	public void testRemoveRare() {
+		NGramCountTable table = new NGramCountTable();
+		table.add(NGramCountTable.pack(NGram.fromWords("hello")), 1);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "my")), 1);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "you")), 2);
+		table.add(NGramCountTable.pack(NGram.fromWords("hello", "my", "name")), 1);
+
+		int[] removed = table.removeRare(1);
+		assertEquals(0, removed[0]);
+		assertEquals(1, removed[1]);
+		assertEquals(1, removed[2]);
+
+		assertEquals(2, table.size());
+		assertEquals(1, table.get(NGram.fromWords("hello")));
+		assertEquals(2, table.get(NGram.fromWords("hello", "you")));
+		assertEquals(0, table.get(NGram.fromWords("hello", "my")));
+	}
+}
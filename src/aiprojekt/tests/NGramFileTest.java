@@ -2,14 +2,27 @@ package aiprojekt.tests;
 
 import static org.junit.Assert.*;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Map;
 
 import org.junit.Test;
 
+import aiprojekt.ArpaFile;
+import aiprojekt.Continuations;
 import aiprojekt.Loader;
+import aiprojekt.MappedModelFile;
 import aiprojekt.NGram;
+import aiprojekt.NGramIndexType;
 import aiprojekt.NGramModel;
+import aiprojekt.PackedModelFile;
+import aiprojekt.PagedNGramTree;
+import aiprojekt.ParallelLoader;
 import aiprojekt.PreProcessor;
+import aiprojekt.Token;
+import aiprojekt.Vocabulary;
+import aiprojekt.WordClasses;
 
 /**
  * Tests the loader and pre-processor
@@ -62,4 +75,492 @@ public class NGramFileTest {
 			loadedModel.getGoodTuringEstimation().getB(),
 			actualModel.getGoodTuringEstimation().getB(), 1E-6);
 	}
+	
+	/**
+	 * Tests writing a model to a mapped model file and loading it
+	 */
+	@Test
+	public void testWriteAndLoadMapped() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String testFilePath = "res/bin/test.model";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		MappedModelFile.write(actualModel, testFilePath);
+		
+		Loader loader = new Loader();
+		NGramModel loadedModel = loader.load(testFilePath);
+		assertEquals(actualModel.numNgrams(), loadedModel.numNgrams());
+		
+		for (Map.Entry<NGram, Integer> current : actualModel.getNgrams().entrySet()) {
+			assertEquals((int)current.getValue(), loadedModel.getCount(current.getKey()));
+			assertEquals(
+				actualModel.toCompactTree().findResults(current.getKey()).size(),
+				loadedModel.searchTree().findResults(current.getKey()).size());
+			
+			Continuations expected = actualModel.toCompactTree().findContinuations(current.getKey());
+			Continuations actual = loadedModel.searchTree().findContinuations(current.getKey());
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < actual.size(); i++) {
+				assertEquals(expected.idAt(i), actual.idAt(i));
+				assertEquals(expected.countAt(i), actual.countAt(i));
+			}
+		}
+		
+		for (int i = 1; i <= actualModel.maxLength(); i++) {
+			assertEquals(actualModel.numberOfNGramLength(i), loadedModel.numberOfNGramLength(i));
+			assertEquals(actualModel.totalCountForNGramLength(i), loadedModel.totalCountForNGramLength(i));
+		}
+		
+		assertEquals(actualModel.topUnigrams(), loadedModel.topUnigrams());
+		assertEquals(0, loadedModel.getCount(NGram.fromWords("notawordinthemodel")));
+		
+		assertEquals(
+			actualModel.getGoodTuringEstimation().getA(),
+			loadedModel.getGoodTuringEstimation().getA(), 1E-6);
+		
+		assertEquals(
+			actualModel.getGoodTuringEstimation().getB(),
+			loadedModel.getGoodTuringEstimation().getB(), 1E-6);
+	}
+	
+	/**
+	 * Tests that the model files only have the tokens of the model, so they don't change when other tokens are added
+	 * to the vocabulary
+	 */
+	@Test
+	public void testWriteModelTokens() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		MappedModelFile.write(actualModel, "res/bin/test-tokens1.model");
+		PackedModelFile.write(actualModel, "res/bin/test-tokens1.bin");
+		
+		for (int i = 0; i < 100; i++) {
+			new Token("notawordinthemodel" + i);
+		}
+		
+		MappedModelFile.write(actualModel, "res/bin/test-tokens2.model");
+		PackedModelFile.write(actualModel, "res/bin/test-tokens2.bin");
+		
+		assertArrayEquals(
+			Files.readAllBytes(Paths.get("res/bin/test-tokens1.model")),
+			Files.readAllBytes(Paths.get("res/bin/test-tokens2.model")));
+		assertArrayEquals(
+			Files.readAllBytes(Paths.get("res/bin/test-tokens1.bin")),
+			Files.readAllBytes(Paths.get("res/bin/test-tokens2.bin")));
+		
+		NGramModel loadedModel = new Loader().load("res/bin/test-tokens2.model");
+		for (Map.Entry<NGram, Integer> current : actualModel.getNgrams().entrySet()) {
+			assertEquals((int)current.getValue(), loadedModel.getCount(current.getKey()));
+		}
+		
+		assertEquals(actualModel.topUnigrams(), loadedModel.topUnigrams());
+	}
+	
+	/**
+	 * Tests writing and loading the word classes of a mapped model file
+	 */
+	@Test
+	public void testWordClasses() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		int the = Vocabulary.global().getId("the");
+		int hello = Vocabulary.global().getId("hello");
+		byte[] codes = new byte[Vocabulary.global().size()];
+		codes[the] = 1;
+		codes[hello] = 3;
+		actualModel.setWordClasses(new WordClasses(new String[] { "DT", "NN", "VB" }, codes));
+		
+		String testFilePath = "res/bin/test-classes.model";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		MappedModelFile.write(actualModel, testFilePath);
+		WordClasses wordClasses = MappedModelFile.load(testFilePath).getWordClasses();
+		
+		assertEquals(0, wordClasses.getTag(the));
+		assertEquals(2, wordClasses.getTag(hello));
+		assertEquals(-1, wordClasses.getTag(Vocabulary.START_OF_SENTENCE_ID));
+		assertFalse(wordClasses.hasCorrectGrammar(the, hello));
+		assertTrue(wordClasses.hasCorrectGrammar(hello, the));
+		assertFalse(wordClasses.hasTransitions());
+		
+		WordClasses expectedClasses = actualModel.getWordClasses().withTransitions(actualModel.searchTree());
+		actualModel.setWordClasses(expectedClasses);
+		MappedModelFile.write(actualModel, testFilePath);
+		wordClasses = MappedModelFile.load(testFilePath).getWordClasses();
+		
+		assertTrue(wordClasses.hasTransitions());
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				assertEquals(expectedClasses.getTransitionCount(i, j), wordClasses.getTransitionCount(i, j));
+			}
+		}
+		
+		actualModel.setWordClasses(null);
+		MappedModelFile.write(actualModel, testFilePath);
+		assertNull(MappedModelFile.load(testFilePath).getWordClasses());
+	}
+	
+	/**
+	 * Tests that processing the files with multiple threads counts the same n-grams as with a single thread
+	 */
+	@Test
+	public void testProcessInParallel() {
+		PreProcessor sequentialProcessor = new PreProcessor();
+		sequentialProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel expectedModel = sequentialProcessor.getNgramModel();
+		
+		for (long rangeSize : new long[] { PreProcessor.DEFAULT_RANGE_SIZE, 1000 }) {
+			PreProcessor parallelProcessor = new PreProcessor(3);
+			parallelProcessor.setRangeSize(rangeSize);
+			parallelProcessor.processFiles(new File("res/tests/test1.txt"));
+			NGramModel actualModel = parallelProcessor.getNgramModel();
+			
+			assertEquals(expectedModel.getNgrams(), actualModel.getNgrams());
+			for (int i = 1; i <= expectedModel.maxLength(); i++) {
+				assertEquals(expectedModel.numberOfNGramLength(i), actualModel.numberOfNGramLength(i));
+				assertEquals(expectedModel.totalCountForNGramLength(i), actualModel.totalCountForNGramLength(i));
+			}
+		}
+	}
+	
+	/**
+	 * Tests that counting with external memory gives the same model as counting in memory
+	 */
+	@Test
+	public void testProcessExternal() {
+		NGramModel expectedModel = processInMemory();
+		
+		for (int parallelism : new int[] { 1, 3 }) {
+			PreProcessor externalProcessor = new PreProcessor(parallelism);
+			externalProcessor.setExternalCounting(100);
+			externalProcessor.setRangeSize(1000);
+			externalProcessor.processFiles(new File("res/tests/test1.txt"));
+			NGramModel actualModel = externalProcessor.getNgramModel();
+			actualModel.end();
+			
+			assertSameCounts(expectedModel, actualModel);
+		}
+	}
+	
+	/**
+	 * Tests that counting approximately gives the same model as counting all n-grams, with fewer n-grams counted
+	 */
+	@Test
+	public void testProcessApproximate() {
+		PreProcessor memoryProcessor = new PreProcessor();
+		memoryProcessor.processFiles(new File("res/tests/test1.txt"));
+		int numCounted = memoryProcessor.getNgramModel().getCountTable().size();
+		NGramModel expectedModel = processInMemory();
+		
+		//The small sketch estimates most n-grams as more common than they are
+		for (long sketchSize : new long[] { 256, 1 << 20 }) {
+			for (int parallelism : new int[] { 1, 3 }) {
+				PreProcessor approximateProcessor = new PreProcessor(parallelism);
+				approximateProcessor.setApproximateCounting(sketchSize);
+				approximateProcessor.setRangeSize(1000);
+				approximateProcessor.processFiles(new File("res/tests/test1.txt"));
+				NGramModel actualModel = approximateProcessor.getNgramModel();
+				if (sketchSize > 256) {
+					assertTrue(actualModel.getCountTable().size() < numCounted / 2);
+				}
+				
+				actualModel.end();
+				assertSameCounts(expectedModel, actualModel);
+			}
+		}
+		
+		PreProcessor externalProcessor = new PreProcessor();
+		externalProcessor.setApproximateCounting(1 << 20);
+		externalProcessor.setExternalCounting(100);
+		externalProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = externalProcessor.getNgramModel();
+		actualModel.end();
+		assertSameCounts(expectedModel, actualModel);
+	}
+	
+	/**
+	 * Returns the model of the test file counted in memory
+	 */
+	private static NGramModel processInMemory() {
+		PreProcessor memoryProcessor = new PreProcessor();
+		memoryProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel model = memoryProcessor.getNgramModel();
+		model.end();
+		return model;
+	}
+	
+	/**
+	 * Asserts that the given models have the same n-grams and counts
+	 */
+	private static void assertSameCounts(NGramModel expectedModel, NGramModel actualModel) {
+		assertEquals(expectedModel.getNgrams(), actualModel.getNgrams());
+		for (int i = 1; i <= expectedModel.maxLength(); i++) {
+			assertEquals(expectedModel.numberOfNGramLength(i), actualModel.numberOfNGramLength(i));
+			assertEquals(expectedModel.totalCountForNGramLength(i), actualModel.totalCountForNGramLength(i));
+		}
+		
+		assertEquals(
+			expectedModel.getGoodTuringEstimation().getTotal(),
+			actualModel.getGoodTuringEstimation().getTotal());
+		
+		//The unigrams with the same count can be in a different order
+		assertEquals(expectedModel.topUnigrams().size(), actualModel.topUnigrams().size());
+		for (int i = 0; i < expectedModel.topUnigrams().size(); i++) {
+			assertEquals(
+				expectedModel.getCount(expectedModel.topUnigrams().get(i)),
+				actualModel.getCount(actualModel.topUnigrams().get(i)));
+		}
+	}
+	
+	/**
+	 * Tests loading a mapped model file where the last level is read on demand
+	 */
+	@Test
+	public void testLoadPaged() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String testFilePath = "res/bin/test.model";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		MappedModelFile.write(actualModel, testFilePath);
+		
+		//A small cache, so that blocks are evicted
+		int cacheSize = 4;
+		NGramModel loadedModel = MappedModelFile.loadPaged(testFilePath, cacheSize);
+		PagedNGramTree tree = (PagedNGramTree)loadedModel.searchTree();
+		
+		for (int i = 0; i < 2; i++) {
+			for (Map.Entry<NGram, Integer> current : actualModel.getNgrams().entrySet()) {
+				assertEquals((int)current.getValue(), loadedModel.getCount(current.getKey()));
+				assertEquals(
+					actualModel.toCompactTree().findResults(current.getKey()).size(),
+					tree.findResults(current.getKey()).size());
+			}
+		}
+		
+		assertTrue(tree.numBlockReads() > 0);
+		assertEquals(actualModel.topUnigrams(), loadedModel.topUnigrams());
+		
+		//The blocks are read under a lock, so the model can't be frozen
+		assertFalse(tree.hasPrecomputedValues());
+		try {
+			loadedModel.freeze();
+			fail("A paged model can't be frozen.");
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	/**
+	 * Tests converting a file in the original format to the packed format
+	 */
+	@Test
+	public void testConvertLegacy() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String legacyFilePath = "res/bin/test-legacy.bin";
+		String testFilePath = "res/bin/test-packed.bin";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		preProcessor.writeLegacyToFile(legacyFilePath);
+		assertFalse(PackedModelFile.isModelFile(legacyFilePath));
+		
+		Loader loader = new Loader();
+		PackedModelFile.write(loader.load(legacyFilePath), testFilePath);
+		assertTrue(PackedModelFile.isModelFile(testFilePath));
+		assertTrue(new File(testFilePath).length() < new File(legacyFilePath).length());
+		
+		NGramModel loadedModel = loader.load(testFilePath);
+		assertEquals(actualModel.numNgrams(), loadedModel.numNgrams());
+		
+		for (Map.Entry<NGram, Integer> current : actualModel.getNgrams().entrySet()) {
+			assertEquals((int)current.getValue(), loadedModel.getCount(current.getKey()));
+		}
+		
+		assertEquals(actualModel.topUnigrams(), loadedModel.topUnigrams());
+		assertEquals(
+			actualModel.getGoodTuringEstimation().getTotal(),
+			loadedModel.getGoodTuringEstimation().getTotal());
+	}
+	
+	/**
+	 * Tests that the backoff weights and quantized probabilities stored in the model files give the same probabilities
+	 * as computing them when needed, within the quantization error
+	 */
+	@Test
+	public void testPrecomputedProbabilities() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String legacyFilePath = "res/bin/test-legacy.bin";
+		String mappedFilePath = "res/bin/test.model";
+		String packedFilePath = "res/bin/test-packed.bin";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		preProcessor.writeLegacyToFile(legacyFilePath);
+		Loader loader = new Loader();
+		NGramModel lazyModel = loader.load(legacyFilePath);
+		MappedModelFile.write(lazyModel, mappedFilePath);
+		PackedModelFile.write(lazyModel, packedFilePath);
+		
+		NGramModel[] loadedModels = new NGramModel[] {
+			loader.load(mappedFilePath),
+			loader.load(packedFilePath),
+			loader.load(packedFilePath, NGramIndexType.DOUBLE_ARRAY),
+			MappedModelFile.loadPaged(mappedFilePath, PagedNGramTree.DEFAULT_CACHE_SIZE)
+		};
+		
+		for (NGramModel loadedModel : loadedModels) {
+			for (NGram ngram : actualModel.getNgrams().keySet()) {
+				if (ngram.length() >= actualModel.maxLength()) {
+					continue;
+				}
+				
+				assertTrue(Double.isNaN(lazyModel.searchTree().findAlpha(ngram)));
+				assertFalse(Double.isNaN(loadedModel.searchTree().findAlpha(ngram)));
+				
+				for (NGram unigram : actualModel.topUnigrams()) {
+					double expected = lazyModel.getProbability(ngram, unigram);
+					assertEquals(expected, loadedModel.getProbability(ngram, unigram), expected * 1E-3);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests writing a model to an ARPA file and a count file and loading them
+	 */
+	@Test
+	public void testArpa() throws IOException {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String modelFilePath = "res/bin/test.model";
+		String arpaFilePath = "res/bin/test.arpa";
+		String countFilePath = "res/bin/test.counts";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		MappedModelFile.write(actualModel, modelFilePath);
+		ArpaFile.write(actualModel, arpaFilePath);
+		ArpaFile.writeCounts(actualModel, countFilePath);
+		assertTrue(ArpaFile.isArpaFile(arpaFilePath));
+		assertFalse(ArpaFile.isArpaFile(countFilePath));
+		
+		//The saved model is pruned, like the exported models
+		Loader loader = new Loader();
+		NGramModel expectedModel = loader.load(modelFilePath);
+		NGramModel arpaModel = loader.load(arpaFilePath);
+		NGramModel countModel = ArpaFile.loadCounts(countFilePath, actualModel.maxLength());
+		assertEquals(expectedModel.numNgrams(), arpaModel.numNgrams());
+		assertEquals(expectedModel.numNgrams(), countModel.numNgrams());
+		
+		for (NGram ngram : actualModel.getNgrams().keySet()) {
+			int count = expectedModel.getCount(ngram);
+			assertEquals(count, countModel.getCount(ngram));
+			assertEquals(count > 0 ? 1 : 0, arpaModel.getCount(ngram));
+			
+			if (ngram.length() < actualModel.maxLength()) {
+				for (NGram unigram : expectedModel.topUnigrams()) {
+					double expected = expectedModel.getProbability(ngram, unigram);
+					assertEquals(expected, arpaModel.getProbability(ngram, unigram), expected * 1E-3);
+					
+					//The top unigrams with the same count can be different, which changes the backoff weights
+					if (expectedModel.getCount(ngram.append(unigram)) > 0) {
+						assertEquals(expected, countModel.getProbability(ngram, unigram), expected * 1E-6);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests loading a file in the original format with multiple threads
+	 */
+	@Test
+	public void testParallelLoad() {
+		PreProcessor preProcessor = new PreProcessor();
+		preProcessor.processFiles(new File("res/tests/test1.txt"));
+		NGramModel actualModel = preProcessor.getNgramModel();
+		actualModel.end();
+		
+		String testFilePath = "res/bin/test-legacy.bin";
+		
+		File dir = new File("res/bin");
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		
+		preProcessor.writeLegacyToFile(testFilePath);
+		
+		String packedFilePath = "res/bin/test-packed-parallel.bin";
+		preProcessor.writeToFile(packedFilePath);
+		
+		for (String path : new String[] { testFilePath, packedFilePath }) {
+			NGramModel sequentialModel = new Loader().load(path);
+			
+			for (int parallelism : new int[] { 1, 3 }) {
+				NGramModel loadedModel = new ParallelLoader(parallelism).load(path, NGramIndexType.COMPACT);
+				assertEquals(actualModel.numNgrams(), loadedModel.numNgrams());
+				
+				for (Map.Entry<NGram, Integer> current : actualModel.getNgrams().entrySet()) {
+					assertEquals((int)current.getValue(), loadedModel.getCount(current.getKey()));
+				}
+				
+				for (int i = 1; i <= actualModel.maxLength(); i++) {
+					assertEquals(sequentialModel.numberOfNGramLength(i), loadedModel.numberOfNGramLength(i));
+					assertEquals(sequentialModel.totalCountForNGramLength(i), loadedModel.totalCountForNGramLength(i));
+				}
+				
+				assertEquals(actualModel.topUnigrams(), loadedModel.topUnigrams());
+			}
+		}
+	}
 }
@@ -15,11 +15,15 @@ import java.util.Map;
 import org.junit.Test;
 
 import aiprojekt.NGram;
+import aiprojekt.NGramCountTable;
+import aiprojekt.NGramIndex;
 import aiprojekt.NGramModel;
 import aiprojekt.NGramTree;
 import aiprojekt.TextParser;
 import aiprojekt.Token;
 import aiprojekt.TokenType;
+import aiprojekt.Vocabulary;
+import aiprojekt.WordClasses;
 
 /**
  * Tests the N-gram model
@@ -152,6 +156,24 @@ public class NGramModelTest {
 			NGram.fromWords("hello", "my", "friend").last());
 	}
 	
+	/**
+	 * Tests that n-grams created from words, tokens and ids are equal
+	 */
+	@Test
+	public void testIds() {
+		NGram ngram = NGram.fromWords("hello", "my", "friend");
+		
+		assertEquals(new Token("hello").getId(), ngram.idAt(0));
+		assertEquals(new Token("friend").getId(), ngram.lastId());
+		assertEquals(ngram, NGram.fromIds(ngram.idAt(0), ngram.idAt(1), ngram.idAt(2)));
+		assertEquals(ngram, NGram.fromTokens(new Token("hello"), new Token("my"), new Token("friend")));
+		assertEquals(ngram, NGram.fromWords("hello", "my").append(ngram.lastId()));
+		assertEquals(new Token("friend"), ngram.at(2));
+		assertEquals("friend", ngram.at(2).getWord());
+		assertEquals(Vocabulary.START_OF_SENTENCE_ID, new Token(TokenType.START_OF_SENTENCE).getId());
+		assertEquals(Vocabulary.END_OF_SENTENCE_ID, new Token(TokenType.END_OF_SENTENCE).getId());
+	}
+	
 	/**
 	 * Tests creating a n-gram model for a list of tokens
 	 */
@@ -210,6 +232,271 @@ public class NGramModelTest {
 		assertEquals(ngramModel.getCount(ngram2), (int)ngramModel.getNgrams().get(ngram2));	
 	}
 	
+	/**
+	 * Tests that only the models that count the n-grams are limited to the n-gram length of the count table
+	 */
+	@Test
+	public void testMaxLength() {
+		NGramModel loadedModel = new NGramModel(NGramCountTable.MAX_LENGTH + 1, true);
+		NGram ngram = NGram.fromWords("how", "are", "you", "today");
+		loadedModel.addNGram(ngram, 2);
+		assertEquals(2, loadedModel.getCount(ngram));
+	}
+	
+	/**
+	 * Tests training and predicting with n-grams longer than the count table can pack
+	 */
+	@Test
+	public void testTrainLongNGrams() {
+		NGramModel ngramModel = new NGramModel(NGramCountTable.MAX_LENGTH + 1);
+		List<Token> sentence = Arrays.asList(new Token("how"), new Token("are"), new Token("you"), new Token("today"));
+		for (int i = 0; i < 3; i++) {
+			ngramModel.processTokens(sentence);
+		}
+		for (List<Token> tokens : sentences) {
+			ngramModel.processTokens(tokens);
+		}
+		ngramModel.end();
+		
+		NGram ngram = NGram.fromWords("how", "are", "you", "today");
+		assertEquals(3, ngramModel.getCount(ngram));
+		assertEquals(3, (int)ngramModel.getNgrams().get(ngram));
+		assertEquals(ngram, ngramModel.predictNext(NGram.fromWords("how", "are", "you"), 1).get(0).getNGram());
+		
+		//The shorter n-grams are counted and pruned the same way in the tree as in the table
+		NGramModel longModel = new NGramModel(NGramCountTable.MAX_LENGTH + 1);
+		NGramModel shortModel = new NGramModel(NGramCountTable.MAX_LENGTH);
+		for (List<Token> tokens : sentences) {
+			longModel.processTokens(tokens);
+			shortModel.processTokens(tokens);
+		}
+		longModel.end();
+		shortModel.end();
+		
+		Map<NGram, Integer> ngrams = longModel.getNgrams();
+		for (Map.Entry<NGram, Integer> entry : shortModel.getNgrams().entrySet()) {
+			assertEquals(entry.getValue(), ngrams.get(entry.getKey()));
+		}
+		assertEquals(shortModel.numberOfNGramLength(NGramCountTable.MAX_LENGTH),
+			longModel.numberOfNGramLength(NGramCountTable.MAX_LENGTH));
+	}
+	
+	/**
+	 * Tests that end(false) doesn't precompute the backoff weights, and that a model that keeps learning
+	 * predicts from the new counts
+	 */
+	@Test
+	public void testEndWithoutRemoving() {
+		NGramModel ngramModel = new NGramModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end(false);
+		
+		NGram context = NGram.fromWords("hello", "i");
+		assertTrue(Double.isNaN(ngramModel.searchTree().findAlpha(context)));
+		assertFalse(ngramModel.predictNext(context, 5).isEmpty());
+		
+		NGram ngram = NGram.fromWords("hello", "i", "qwertyuiop");
+		assertEquals(0, ngramModel.getCount(ngram));
+		
+		List<Token> sentence = Arrays.asList(new Token("hello"), new Token("i"), new Token("qwertyuiop"));
+		for (int i = 0; i < 1000; i++) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end(false);
+		
+		assertEquals(1000, ngramModel.getCount(ngram));
+		assertEquals(ngram, ngramModel.predictNext(context, 1).get(0).getNGram());
+	}
+	
+	/**
+	 * Tests that a learning model updates its search tree as it learns instead of building a new one
+	 */
+	@Test
+	public void testLearningModel() {
+		NGramModel ngramModel = NGramModel.createLearningModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end(false);
+		
+		NGram context = NGram.fromWords("hello", "i");
+		NGramIndex index = ngramModel.searchTree();
+		assertFalse(ngramModel.predictNext(context, 5).isEmpty());
+		
+		NGram ngram = NGram.fromWords("hello", "i", "qwertyuiop");
+		List<Token> sentence = Arrays.asList(new Token("hello"), new Token("i"), new Token("qwertyuiop"));
+		for (int i = 0; i < 1000; i++) {
+			ngramModel.processTokens(sentence);
+			ngramModel.end(false);
+			assertSame(index, ngramModel.searchTree());
+		}
+		
+		assertEquals(1000, ngramModel.getCount(ngram));
+		assertEquals(ngram, ngramModel.predictNext(context, 1).get(0).getNGram());
+	}
+	
+	/**
+	 * Tests that the results that don't pass the grammar check are replaced by the following results
+	 */
+	@Test
+	public void testGrammarCheck() {
+		NGramModel ngramModel = new NGramModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end();
+		
+		NGram context = NGram.fromWords("the");
+		List<NGramModel.Result> allResults = ngramModel.predictNext(context, 1000);
+		assertTrue(allResults.size() > 20);
+		
+		//Two of three results are verbs, which can't follow a determiner
+		byte[] codes = new byte[Vocabulary.global().size()];
+		for (int i = 0; i < allResults.size(); i++) {
+			codes[allResults.get(i).getNGram().lastId()] = (byte)(i % 3 == 2 ? 0 : 3);
+		}
+		codes[context.lastId()] = 1;
+		ngramModel.setWordClasses(new WordClasses(new String[] { "DT", "NN", "VB" }, codes));
+		
+		List<NGramModel.Result> expected = new ArrayList<>();
+		for (NGramModel.Result result : allResults) {
+			if (codes[result.getNGram().lastId()] != 3 && expected.size() < 5) {
+				expected.add(result);
+			}
+		}
+		
+		NGramModel.GRAMMAR_CHECK = true;
+		try {
+			List<NGramModel.Result> actual = ngramModel.predictNext(context, 5);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getNGram(), actual.get(i).getNGram());
+			}
+		} finally {
+			NGramModel.GRAMMAR_CHECK = false;
+		}
+	}
+	
+	/**
+	 * Tests that a frozen model predicts the same as the model, and that it can't be changed
+	 */
+	@Test
+	public void testFreeze() {
+		NGramModel ngramModel = new NGramModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end();
+		
+		NGramModel frozenModel = ngramModel.freeze();
+		assertTrue(frozenModel.isFrozen());
+		assertNull(frozenModel.getProbabilityCache());
+		assertTrue(frozenModel.searchTree().hasPrecomputedValues());
+		
+		NGram[] contexts = new NGram[] {
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "i"),
+			NGram.fromWords("qwertyuiop", "hello")
+		};
+		
+		for (NGram context : contexts) {
+			List<NGramModel.Result> expected = ngramModel.predictNext(context, 5);
+			List<NGramModel.Result> actual = frozenModel.predictNext(context, 5);
+			
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getNGram(), actual.get(i).getNGram());
+				assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 1E-12);
+			}
+		}
+		
+		try {
+			frozenModel.processTokens(tokens1);
+			fail("A frozen model can't be changed.");
+		} catch (IllegalStateException e) {
+		}
+		
+		try {
+			frozenModel.topUnigrams().clear();
+			fail("A frozen model can't be changed.");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+	
+	/**
+	 * Tests that the precomputed predictions are the same as the computed predictions
+	 */
+	@Test
+	public void testPrecomputedPredictions() {
+		NGramModel ngramModel = new NGramModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end();
+		
+		NGram[] contexts = new NGram[] {
+			NGramModel.START_OF_SENTENCE_UNIGRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("hello", "i"),
+			NGram.fromWords("qwertyuiop", "hello")
+		};
+		
+		List<List<NGramModel.Result>> expected = new ArrayList<>();
+		for (NGram context : contexts) {
+			expected.add(ngramModel.predictNext(context, 5));
+		}
+		
+		ngramModel.precomputePredictions(5, 2);
+		assertTrue(ngramModel.getPredictionTable().numContexts() > 0);
+		assertNotNull(ngramModel.getPredictionTable().find(
+			NGramModel.START_OF_SENTENCE_UNIGRAM, NGramCountTable.pack(NGramModel.START_OF_SENTENCE_UNIGRAM), 5));
+		
+		for (int i = 0; i < contexts.length; i++) {
+			List<NGramModel.Result> actual = ngramModel.predictNext(contexts[i], 5);
+			assertEquals(expected.get(i).size(), actual.size());
+			for (int j = 0; j < actual.size(); j++) {
+				assertEquals(expected.get(i).get(j).getNGram(), actual.get(j).getNGram());
+				assertEquals(expected.get(i).get(j).getProbability(), actual.get(j).getProbability(), 0.0);
+			}
+		}
+		
+		ngramModel.processTokens(tokens1);
+		assertNull(ngramModel.getPredictionTable());
+	}
+	
+	/**
+	 * Tests that stopping early when the remaining continuations can't be among the results gives the same results
+	 */
+	@Test
+	public void testPredictNextEarlyTermination() {
+		NGramModel ngramModel = new NGramModel(3);
+		for (List<Token> sentence : sentences) {
+			ngramModel.processTokens(sentence);
+		}
+		ngramModel.end();
+		
+		NGram[] contexts = new NGram[] {
+			NGram.EMPTY_GRAM,
+			NGramModel.START_OF_SENTENCE_UNIGRAM,
+			NGram.fromWords("hello"),
+			NGram.fromWords("i"),
+			NGram.fromWords("hello", "i")
+		};
+		
+		for (NGram context : contexts) {
+			List<NGramModel.Result> all = ngramModel.predictNext(context, Integer.MAX_VALUE);
+			List<NGramModel.Result> top = ngramModel.predictNext(context, 3);
+			
+			assertEquals(Math.min(3, all.size()), top.size());
+			for (int i = 0; i < top.size(); i++) {
+				assertEquals(all.get(i).getNGram(), top.get(i).getNGram());
+				assertEquals(all.get(i).getProbability(), top.get(i).getProbability(), 0.0);
+			}
+		}
+	}
+	
 	/**
 	 * Tests predicting the next word
 	 */
@@ -0,0 +1,79 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import aiprojekt.NGramCountTable;
+import aiprojekt.NGramSketch;
+
+/**
+ * Tests the NGramSketch class
+ */
+public class NGramSketchTest {
+	/**
+	 * Tests that the estimates are never lower than the counts, also when most n-grams share cells
+	 */
+	@Test
+	public void testEstimate() {
+		Random random = new Random(1337);
+		final NGramSketch sketch = new NGramSketch(1024, 2);
+		NGramCountTable counts = new NGramCountTable();
+		
+		for (int i = 0; i < 5000; i++) {
+			long key = NGramCountTable.packId(NGramCountTable.packId(0, 0, random.nextInt(100)), 1, random.nextInt(100));
+			sketch.add(key);
+			counts.add(key, 1);
+		}
+		
+		counts.forEach(new NGramCountTable.OnEntryAction() {
+			@Override
+			public void execute(long key, int count) {
+				assertTrue(sketch.estimate(key) >= Math.min(2, count));
+				assertTrue(sketch.estimate(key) <= 2);
+			}
+		});
+	}
+	
+	/**
+	 * Tests that n-grams that haven't been added are estimated as zero in a sketch with few n-grams
+	 */
+	@Test
+	public void testEmpty() {
+		NGramSketch sketch = new NGramSketch(1 << 16, 2);
+		assertEquals(1 << 16, sketch.size());
+		
+		long key = NGramCountTable.packId(NGramCountTable.packId(0, 0, 3), 1, 4);
+		assertEquals(0, sketch.estimate(key));
+		
+		sketch.add(key);
+		assertEquals(1, sketch.estimate(key));
+		assertEquals(0, sketch.estimate(NGramCountTable.packId(NGramCountTable.packId(0, 0, 4), 1, 3)));
+		
+		sketch.add(key);
+		sketch.add(key);
+		assertEquals(2, sketch.estimate(key));
+	}
+	
+	/**
+	 * Tests that the sum of two sketches estimates the sum of their counts
+	 */
+	@Test
+	public void testAddAll() {
+		NGramSketch sketch = new NGramSketch(4096, 2);
+		NGramSketch otherSketch = new NGramSketch(4096, 2);
+		
+		long key = NGramCountTable.packId(NGramCountTable.packId(0, 0, 5), 1, 6);
+		sketch.add(key);
+		assertEquals(1, sketch.estimate(key));
+		
+		otherSketch.add(key);
+		sketch.addAll(otherSketch);
+		assertEquals(2, sketch.estimate(key));
+		
+		sketch.addAll(otherSketch);
+		assertEquals(2, sketch.estimate(key));
+	}
+}
@@ -0,0 +1,111 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import aiprojekt.ProbabilityCache;
+import aiprojekt.StripedProbabilityCache;
+
+/**
+ * Tests the ProbabilityCache class
+ */
+public class ProbabilityCacheTest {
+	/**
+	 * Tests that the number of entries is bounded by the capacity
+	 */
+	@Test
+	public void testEviction() {
+		ProbabilityCache cache = new ProbabilityCache(100);
+
+		for (long key = 1; key <= 1000; key++) {
+			cache.put(key, key * 0.5);
+			assertTrue(cache.size() <= 100);
+		}
+
+		assertEquals(100, cache.size());
+		for (long key = 901; key <= 1000; key++) {
+			assertEquals(key * 0.5, cache.get(key), 0.0);
+		}
+
+		for (long key = 1; key <= 900; key++) {
+			assertTrue(Double.isNaN(cache.get(key)));
+		}
+	}
+
+	/**
+	 * Tests that entries that have been hit aren't evicted by a scan of new entries
+	 */
+	@Test
+	public void testScanResistance() {
+		ProbabilityCache cache = new ProbabilityCache(100);
+
+		for (long key = 1; key <= 50; key++) {
+			cache.put(key, key);
+			cache.get(key);
+		}
+
+		for (long key = 1000; key < 10000; key++) {
+			cache.put(key, key);
+		}
+
+		for (long key = 1; key <= 50; key++) {
+			assertEquals(key, cache.get(key), 0.0);
+		}
+	}
+
+	/**
+	 * Tests clearing the cache
+	 */
+	@Test
+	public void testClear() {
+		ProbabilityCache cache = new ProbabilityCache(10);
+
+		for (long key = 1; key <= 20; key++) {
+			cache.put(key, key);
+		}
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		for (long key = 1; key <= 20; key++) {
+			assertTrue(Double.isNaN(cache.get(key)));
+		}
+
+		cache.put(5, 0.25);
+		assertEquals(0.25, cache.get(5), 0.0);
+	}
+
+	/**
+	 * Tests using a striped cache from many threads at once
+	 */
+	@Test
+	public void testStripedConcurrent() throws InterruptedException {
+		final StripedProbabilityCache cache = new StripedProbabilityCache(1000, 8);
+		final boolean[] failed = new boolean[1];
+		Thread[] threads = new Thread[8];
+
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (long key = 1; key <= 100000; key++) {
+						cache.put(key % 5000 + 1, (key % 5000 + 1) * 0.5);
+						double value = cache.get(key % 3000 + 1);
+						if (!Double.isNaN(value) && value != (key % 3000 + 1) * 0.5) {
+							failed[0] = true;
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertFalse(failed[0]);
+		assertTrue(cache.size() <= cache.capacity());
+		assertTrue(cache.capacity() >= 1000);
+	}
+}
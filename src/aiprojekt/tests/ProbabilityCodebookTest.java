@@ -0,0 +1,53 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import aiprojekt.ProbabilityCodebook;
+
+/**
+ * Tests the ProbabilityCodebook class
+ */
+public class ProbabilityCodebookTest {
+	/**
+	 * Tests encoding and decoding probabilities
+	 */
+	@Test
+	public void testEncode() {
+		double[][] probabilities = new double[][] {
+			{ 1E-8, 0.5, 1.0 },
+			{ 0.001, 0.25, Double.NaN }
+		};
+		ProbabilityCodebook codebook = ProbabilityCodebook.fit(probabilities);
+		char[][] codes = codebook.encode(probabilities);
+
+		for (int i = 0; i < probabilities.length; i++) {
+			for (int j = 0; j < probabilities[i].length; j++) {
+				if (Double.isNaN(probabilities[i][j])) {
+					assertEquals(ProbabilityCodebook.NONE, codes[i][j]);
+					assertTrue(Double.isNaN(codebook.decode(codes[i][j])));
+				} else {
+					assertEquals(probabilities[i][j], codebook.decode(codes[i][j]), probabilities[i][j] * 1E-3);
+				}
+			}
+		}
+
+		assertEquals(1E-8, codebook.decode(codebook.encode(1E-8)), 1E-20);
+		assertEquals(1.0, codebook.decode(codebook.encode(1.0)), 1E-12);
+	}
+
+	/**
+	 * Tests that probabilities outside the range of the codebook aren't encoded
+	 */
+	@Test
+	public void testOutOfRange() {
+		ProbabilityCodebook codebook = new ProbabilityCodebook(Math.log(1E-6), 0.0);
+
+		assertEquals(ProbabilityCodebook.NONE, codebook.encode(1E-7));
+		assertEquals(ProbabilityCodebook.NONE, codebook.encode(2.0));
+		assertEquals(ProbabilityCodebook.NONE, codebook.encode(0.0));
+		assertEquals(ProbabilityCodebook.NONE, codebook.encode(Double.POSITIVE_INFINITY));
+		assertFalse(codebook.encode(0.5) == ProbabilityCodebook.NONE);
+	}
+}
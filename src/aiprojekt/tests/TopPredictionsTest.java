@@ -0,0 +1,84 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import aiprojekt.NGram;
+import aiprojekt.NGramModel;
+import aiprojekt.TopPredictions;
+
+/**
+ * Tests the TopPredictions container
+ */
+public class TopPredictionsTest {
+	/**
+	 * Tests that the best predictions are kept, the most probable first
+	 */
+	@Test
+	public void testSimple() {
+		TopPredictions topPredictions = new TopPredictions(3);
+		topPredictions.add(10, 0.1);
+		topPredictions.add(11, 0.4);
+		topPredictions.add(12, 0.2);
+		topPredictions.add(13, 0.05);
+		topPredictions.add(14, 0.3);
+
+		NGram context = NGram.fromIds(5);
+		List<NGramModel.Result> results = topPredictions.toResults(context);
+		assertEquals(3, results.size());
+		assertEquals(NGram.fromIds(5, 11), results.get(0).getNGram());
+		assertEquals(NGram.fromIds(5, 14), results.get(1).getNGram());
+		assertEquals(NGram.fromIds(5, 12), results.get(2).getNGram());
+		assertEquals(0.4, results.get(0).getProbability(), 0.0);
+		assertEquals(0, topPredictions.size());
+	}
+
+	/**
+	 * Tests that predictions with the same probability are ordered by id
+	 */
+	@Test
+	public void testTies() {
+		TopPredictions topPredictions = new TopPredictions(2);
+		topPredictions.add(7, 0.5);
+		topPredictions.add(3, 0.5);
+		topPredictions.add(5, 0.5);
+
+		List<NGramModel.Result> results = topPredictions.toResults(NGram.EMPTY_GRAM);
+		assertEquals(NGram.fromIds(3), results.get(0).getNGram());
+		assertEquals(NGram.fromIds(5), results.get(1).getNGram());
+	}
+
+	/**
+	 * Tests the container with random data, compared to sorting all the data
+	 */
+	@Test
+	public void testRandom() {
+		Random random = new Random(1337);
+
+		for (int maxSize : new int[] { 1, 5, 100, Integer.MAX_VALUE }) {
+			TopPredictions topPredictions = new TopPredictions(maxSize);
+			List<NGramModel.Result> expected = new ArrayList<>();
+
+			for (int id = 0; id < 1000; id++) {
+				double probability = random.nextDouble();
+				topPredictions.add(id, probability);
+				expected.add(new NGramModel.Result(NGram.fromIds(id), probability));
+			}
+
+			Collections.sort(expected);
+			List<NGramModel.Result> results = topPredictions.toResults(NGram.EMPTY_GRAM);
+			assertEquals(Math.min(maxSize, expected.size()), results.size());
+
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(expected.get(i).getNGram(), results.get(i).getNGram());
+				assertEquals(expected.get(i).getProbability(), results.get(i).getProbability(), 0.0);
+			}
+		}
+	}
+}
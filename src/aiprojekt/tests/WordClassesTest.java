@@ -0,0 +1,111 @@
+package aiprojekt.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import aiprojekt.NGram;
+import aiprojekt.NGramModel;
+import aiprojekt.TextParser;
+import aiprojekt.Vocabulary;
+import aiprojekt.WordClasses;
+
+/**
+ * Tests the WordClasses class
+ */
+public class WordClassesTest {
+	private static final String[] TAGS = new String[] { "DT", "NN", "VB" };
+	
+	/**
+	 * Creates a model with the given sentences
+	 */
+	private static NGramModel createModel(String... sentences) {
+		NGramModel model = new NGramModel(2);
+		TextParser parser = new TextParser();
+		for (String sentence : sentences) {
+			model.processTokens(parser.tokenize(sentence));
+		}
+		
+		model.end();
+		return model;
+	}
+	
+	/**
+	 * Creates the word classes of the words in the tests
+	 */
+	private static WordClasses createWordClasses() {
+		Vocabulary vocabulary = Vocabulary.global();
+		String[][] words = new String[][] { { "the", "a" }, { "cat", "dog" }, { "runs", "sleeps" } };
+		
+		int maxId = 0;
+		for (String[] tagWords : words) {
+			for (String word : tagWords) {
+				maxId = Math.max(maxId, vocabulary.getId(word));
+			}
+		}
+		
+		byte[] codes = new byte[maxId + 1];
+		for (int tag = 0; tag < words.length; tag++) {
+			for (String word : words[tag]) {
+				codes[vocabulary.getId(word)] = (byte)(tag + 1);
+			}
+		}
+		
+		return new WordClasses(TAGS, codes);
+	}
+	
+	/**
+	 * Tests counting the transitions between the word classes and their weights
+	 */
+	@Test
+	public void testTransitions() {
+		NGramModel model = createModel("the cat runs", "a dog sleeps", "the dog runs", "the cat sleeps");
+		WordClasses wordClasses = createWordClasses();
+		assertFalse(wordClasses.hasTransitions());
+		
+		wordClasses = wordClasses.withTransitions(model.searchTree());
+		assertTrue(wordClasses.hasTransitions());
+		assertEquals(4, wordClasses.getTransitionCount(0, 1));
+		assertEquals(4, wordClasses.getTransitionCount(1, 2));
+		assertEquals(0, wordClasses.getTransitionCount(0, 2));
+		assertEquals(0, wordClasses.getTransitionCount(2, 0));
+		
+		Vocabulary vocabulary = Vocabulary.global();
+		assertEquals(1.0, wordClasses.transitionWeight(0, vocabulary.getId("cat")), 0.0);
+		assertEquals(0.0, wordClasses.transitionWeight(0, vocabulary.getId("runs")), 0.0);
+		assertEquals(1.0, wordClasses.transitionWeight(2, vocabulary.getId("the")), 0.0);
+		assertEquals(1.0, wordClasses.transitionWeight(-1, vocabulary.getId("runs")), 0.0);
+		assertEquals(1.0, wordClasses.transitionWeight(0, Vocabulary.END_OF_SENTENCE_ID), 0.0);
+	}
+	
+	/**
+	 * Tests that the grammar check removes the results of word classes that don't follow the written word class
+	 */
+	@Test
+	public void testPredictNext() {
+		NGramModel model = createModel("the cat runs", "a dog sleeps", "the dog runs", "the cat sleeps");
+		model.setWordClasses(createWordClasses().withTransitions(model.searchTree()));
+		
+		NGram context = NGram.fromWords("the");
+		List<NGramModel.Result> plainResults = model.predictNext(context, 10);
+		
+		List<NGramModel.Result> results;
+		NGramModel.GRAMMAR_CHECK = true;
+		try {
+			results = model.predictNext(context, 10);
+		} finally {
+			NGramModel.GRAMMAR_CHECK = false;
+		}
+		
+		assertEquals(NGram.fromWords("the", "cat"), results.get(0).getNGram());
+		assertEquals(NGram.fromWords("the", "dog"), results.get(1).getNGram());
+		for (NGramModel.Result result : results) {
+			assertFalse(result.getNGram().equals(NGram.fromWords("the", "runs")));
+			assertFalse(result.getNGram().equals(NGram.fromWords("the", "sleeps")));
+		}
+		
+		assertTrue(results.size() < plainResults.size());
+	}
+}
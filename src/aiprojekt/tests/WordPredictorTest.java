@@ -12,6 +12,7 @@ import org.junit.Test;
 import aiprojekt.NGramModel;
 import aiprojekt.Token;
 import aiprojekt.TokenType;
+import aiprojekt.Vocabulary;
 import aiprojekt.WordPredictor;
 
 public class WordPredictorTest {
@@ -68,6 +69,28 @@ public class WordPredictorTest {
 		assertEquals(Arrays.asList("my", "bye"), results);
 	}
 	
+	/**
+	 * Tests that predicting from unseen words doesn't add them to the vocabulary
+	 */
+	@Test
+	public void testPredictUnknownWords() {
+		NGramModel model = new NGramModel(3);
+		model.processTokens(sentence1);
+		model.processTokens(sentence2);
+		model.end();
+		
+		WordPredictor predictor = new WordPredictor(model, 1);
+		int size = Vocabulary.global().size();
+		assertEquals(Arrays.asList("my"), predictor.predictNextWord("qazwsxunseen hello"));
+		assertEquals(1, predictor.predictNextWord("hello qazwsxunseen").size());
+		assertEquals(size, Vocabulary.global().size());
+		assertEquals(Vocabulary.UNKNOWN_ID, Vocabulary.global().find("qazwsxunseen"));
+		
+		//Learned words are added
+		predictor.addHistory("hello qazwsxunseen");
+		assertTrue(Vocabulary.global().find("qazwsxunseen") != Vocabulary.UNKNOWN_ID);
+	}
+	
 	/**
 	 * Tests predicting the next word when there are more n-grams in the input than in the model
 	 */